@@ -7,6 +7,8 @@ import chat.client.model.ChatClientModel;
  */
 public class ChatController {
 
+  private static final String DIRECT_MESSAGE_COMMAND = "/msg ";
+
   private final ChatClientModel model;
 
   public ChatController(ChatClientModel model) {
@@ -26,11 +28,20 @@ public class ChatController {
   }
 
   /**
-   * Send a message to the model that is to be published to the other chat clients.
+   * Send a message to the model that is to be published to the other chat clients. A message of
+   * the form {@code /msg <nickname> <text>} is only sent to the named user.
    *
    * @param text The message that is to be send.
    */
   public void postMessage(final String text) {
+    if (text.startsWith(DIRECT_MESSAGE_COMMAND)) {
+      String[] parts = text.substring(DIRECT_MESSAGE_COMMAND.length()).trim().split(" ", 2);
+      if (parts.length < 2 || parts[1].isBlank()) {
+        return;
+      }
+      model.postDirectMessage(parts[0], parts[1]);
+      return;
+    }
     model.postMessage(text);
   }
 
@@ -7,6 +7,7 @@ import chat.client.model.events.LoggedInEvent;
 import chat.client.model.events.LoginFailedEvent;
 import chat.client.model.events.MessageAddedEvent;
 import chat.client.view.chatview.ChatEntry;
+import chat.client.view.chatview.DirectTextMessage;
 import chat.client.view.chatview.LoggedInMessage;
 import chat.client.view.chatview.UserJoinedMessage;
 import chat.client.view.chatview.UserLeftMessage;
@@ -100,6 +101,21 @@ public class ChatClientModel {
         userTextMessage.getContent());
   }
 
+  /**
+   * Send a chat-message to the server that should only be delivered to a single other chat
+   * participant.
+   *
+   * @param recipient The nickname of the participant that receives the message.
+   * @param message   The message to be sent.
+   */
+  public void postDirectMessage(String recipient, String message) {
+    DirectTextMessage directMessage =
+        new DirectTextMessage(nickname, recipient, new Date(), message);
+    connection.sendDirectMessage(directMessage);
+    messages.add(directMessage);
+    notifyListeners(new MessageAddedEvent(directMessage));
+  }
+
   /**
    * Return a list of all chat-entries, including both user-message entries and status-update
    * entries in the chat.
@@ -142,6 +158,20 @@ public class ChatClientModel {
     notifyListeners(new MessageAddedEvent(textMessage));
   }
 
+  /**
+   * Add a direct message addressed to this participant to the list of chat entries. Used by the
+   * network layer to update the model accordingly.
+   *
+   * @param nickname The name of the chat participants that has sent this message.
+   * @param date     The date when the chat message was sent.
+   * @param content  The actual content (text) that the participant had sent.
+   */
+  public void addDirectMessage(String nickname, Date date, String content) {
+    ChatEntry directMessage = new DirectTextMessage(nickname, this.nickname, date, content);
+    messages.add(directMessage);
+    notifyListeners(new MessageAddedEvent(directMessage));
+  }
+
   /**
    * Add a status-update entry "User joined" to the list of chat entries. Used by the network layer
    * to update the model accordingly.
@@ -1,18 +1,28 @@
 package chat.client.model;
 
-import static java.nio.charset.StandardCharsets.UTF_8;
 import static java.util.Objects.requireNonNull;
 
+import chat.client.view.chatview.DirectTextMessage;
 import chat.client.view.chatview.UserTextMessage;
-import java.io.BufferedReader;
+import chat.logging.Log;
+import chat.logging.Logger;
+import chat.protocol.ChatClock;
+import chat.protocol.DirectMessage;
+import chat.protocol.JsonCodec;
+import chat.protocol.LineReader;
+import chat.protocol.Login;
+import chat.protocol.Message;
+import chat.protocol.Pong;
+import chat.protocol.PostDirectMessage;
+import chat.protocol.PostMessage;
+import chat.protocol.TextMessage;
+import chat.protocol.UserJoined;
+import chat.protocol.UserLeft;
+import chat.protocol.WireFormat;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.OutputStreamWriter;
+import java.io.OutputStream;
 import java.net.Socket;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
-import org.json.JSONException;
-import org.json.JSONObject;
+import java.nio.ByteBuffer;
 
 /**
  * The network-connection of the client. Establishes a connection to the server and takes care of
@@ -20,15 +30,26 @@ import org.json.JSONObject;
  */
 public class ClientNetworkConnection {
 
+  private static final Logger LOG = Log.getLogger(ClientNetworkConnection.class);
+
   private static final String HOST = "localhost";
   private static final int PORT = 8080;
   private final ChatClientModel model;
-  private OutputStreamWriter writer;
-  private BufferedReader reader;
+  private final JsonCodec codec;
+  private final ChatClock clock;
+  private OutputStream output;
 
 
+  /**
+   * Create a network connection for the given model. The connection is established by
+   * {@link #start()}.
+   *
+   * @param model the model to be updated with the received messages
+   */
   public ClientNetworkConnection(ChatClientModel model) {
     this.model = model;
+    this.codec = new JsonCodec();
+    this.clock = new ChatClock();
   }
 
   /**
@@ -37,53 +58,54 @@ public class ClientNetworkConnection {
   public void start() {
     Thread thread = new Thread(() -> {
       try (Socket socket = new Socket(HOST, PORT)) {
-        writer = new OutputStreamWriter(socket.getOutputStream(), UTF_8);
-        reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), UTF_8));
+        output = socket.getOutputStream();
+        LineReader reader = new LineReader(socket.getInputStream());
 
         while (true) {
-          String line = reader.readLine();
-          JSONObject receivedMessage = new JSONObject(line);
-          String type = (String) receivedMessage.get("type");
-          switch (type) {
-            case "login failed" -> {
-              //    { "type" : "login failed" }
-              System.out.println("Client: login-failed-message received");
+          ByteBuffer line = reader.readLine();
+          if (line == null) {
+            LOG.info("Connection closed by server");
+            return;
+          }
+          Message receivedMessage = codec.decode(line);
+          switch (receivedMessage.getType()) {
+            case LOGIN_FAILED -> {
+              LOG.debug("login-failed-message received");
               model.loginFailed();
             }
-            case "login success" -> {
-              //    { "type" : "login success" }
-              System.out.println("Client: login-success-message received");
+            case LOGIN_SUCCESS -> {
+              LOG.debug("login-success-message received");
               model.loggedIn();
             }
-            case "user joined" -> {
-              //      { "type" : "user joined", "nick" : "<nick>" }
-              System.out.println(
-                  "Client: user-joined-message received. User " + receivedMessage.get("nick"));
-              model.userJoined((String) receivedMessage.get("nick"));
+            case USER_JOINED -> {
+              String nick = ((UserJoined) receivedMessage).nick();
+              LOG.debug("user-joined-message received. User {}", nick);
+              model.userJoined(nick);
+            }
+            case MESSAGE -> {
+              TextMessage textMessage = (TextMessage) receivedMessage;
+              LOG.debug("Text-message received. {}", textMessage);
+              model.addTextMessage(textMessage.nick(), clock.parse(textMessage.time()),
+                  textMessage.content());
             }
-            case "message" -> {
-              //   { "type" : "message",
-              //      "time" : "<day>.<month>.<year> <hour>:<minute>:<second>",
-              //      "nick" : "<sender>",
-              //      "content" : "<message content>"
-              //    }
-              System.out.println("Client: Text-message received. " + receivedMessage);
-              model.addTextMessage((String) receivedMessage.get("nick"),
-                  new SimpleDateFormat("dd.MM.yyyy HH:mm:ss").parse(
-                      (String) receivedMessage.get("time")),
-                  (String) receivedMessage.get("content"));
+            case DIRECT_MESSAGE -> {
+              DirectMessage directMessage = (DirectMessage) receivedMessage;
+              LOG.debug("Direct-message received. {}", directMessage);
+              model.addDirectMessage(directMessage.nick(), clock.parse(directMessage.time()),
+                  directMessage.content());
             }
-            case "user left" -> {
-              //    { "type" : "user left", "nick" : "<nick>" }
-              System.out.println(
-                  "Client: user-left-message received. User " + receivedMessage.get("nick"));
-              model.userLeft((String) receivedMessage.get("nick"));
+            case USER_LEFT -> {
+              String nick = ((UserLeft) receivedMessage).nick();
+              LOG.debug("user-left-message received. User {}", nick);
+              model.userLeft(nick);
             }
+            case PING -> send(new Pong());
+            case SHUTDOWN -> LOG.info("Server is shutting down");
             default -> throw new IllegalArgumentException("Unknown type of message.");
           }
         }
-      } catch (IOException | JSONException | ParseException e) {
-        e.printStackTrace();
+      } catch (IOException e) {
+        LOG.error("Connection to server failed", e);
       }
     });
     thread.setDaemon(true);
@@ -103,19 +125,9 @@ public class ClientNetworkConnection {
    * @param nickname The name of the user that requests to log in.
    */
   public void sendLogin(String nickname) {
-    // { "type" : "login", "nick" : "<nick>" }
-    try {
-      JSONObject loginMessage = new JSONObject();
-      loginMessage.put("type", "login");
-      loginMessage.put("nick", nickname);
-
-      writer.write(loginMessage + System.lineSeparator());
-      writer.flush();
-
-      System.out.println("Sent login-message to server: " + loginMessage);
-    } catch (IOException | JSONException e) {
-      e.printStackTrace();
-    }
+    Login loginMessage = new Login(nickname, WireFormat.JSON, true);
+    send(loginMessage);
+    LOG.debug("Sent login-message to server: {}", loginMessage);
   }
 
   /**
@@ -124,19 +136,38 @@ public class ClientNetworkConnection {
    * @param chatMessage The {@link UserTextMessage} containing the message of the user.
    */
   public void sendMessage(UserTextMessage chatMessage) {
-    // { "type" : "post message", "content" : "<message content>" }
-    try {
-      JSONObject postMessage = new JSONObject();
-      postMessage.put("type", "post message");
-      postMessage.put("content", requireNonNull(chatMessage.getContent()));
-
-      writer.write(postMessage + System.lineSeparator());
-      writer.flush();
+    PostMessage postMessage = new PostMessage(requireNonNull(chatMessage.getContent()));
+    send(postMessage);
+    LOG.debug("Sent post-message to server: {}", postMessage);
+  }
 
-      System.out.println("Sent post-message to server: " + postMessage);
+  /**
+   * Send a chat message to a single other user to the server.
+   *
+   * @param chatMessage The {@link DirectTextMessage} containing the message and its recipient.
+   */
+  public void sendDirectMessage(DirectTextMessage chatMessage) {
+    PostDirectMessage postMessage = new PostDirectMessage(
+        requireNonNull(chatMessage.getRecipient()), requireNonNull(chatMessage.getContent()));
+    send(postMessage);
+    LOG.debug("Sent post-direct-message to server: {}", postMessage);
+  }
 
-    } catch (IOException | JSONException e) {
-      e.printStackTrace();
+  /**
+   * Encode a message and write it to the server. Called by the user interface as well as by the
+   * reader thread, which answers pings.
+   *
+   * @param message the message to be sent
+   */
+  private synchronized void send(Message message) {
+    try {
+      ByteBuffer frame = codec.encodeFrame(message);
+      byte[] bytes = new byte[frame.remaining()];
+      frame.get(bytes);
+      output.write(bytes);
+      output.flush();
+    } catch (IOException e) {
+      LOG.error("Could not send {}", message.getType(), e);
     }
   }
 }
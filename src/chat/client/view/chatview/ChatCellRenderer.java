@@ -36,7 +36,12 @@ public class ChatCellRenderer extends JTextArea implements ListCellRenderer<Chat
 
     setWrapStyleWord(true);
 
-    if (value instanceof UserTextMessage userTextMsg) {
+    if (value instanceof DirectTextMessage directMsg) {
+      String time = dateFormat.format(directMsg.getTime());
+
+      setText(String.format("%s to %s (%s): %s", directMsg.getSource(), directMsg.getRecipient(),
+          time, directMsg.getContent()));
+    } else if (value instanceof UserTextMessage userTextMsg) {
       String time = dateFormat.format(userTextMsg.getTime());
 
       setText(
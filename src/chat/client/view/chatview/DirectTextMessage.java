@@ -0,0 +1,28 @@
+package chat.client.view.chatview;
+
+import java.util.Date;
+
+/**
+ * A chat message that was sent by a user to a single other user only.
+ */
+public class DirectTextMessage extends UserTextMessage {
+
+  private final String recipient;
+
+  /**
+   * Create a direct chat message.
+   *
+   * @param source    the Nickname of the sending user.
+   * @param recipient the Nickname of the receiving user.
+   * @param time      the time, when the message was sent.
+   * @param content   the text-content of the message
+   */
+  public DirectTextMessage(String source, String recipient, Date time, String content) {
+    super(source, time, content);
+    this.recipient = recipient;
+  }
+
+  public String getRecipient() {
+    return recipient;
+  }
+}
@@ -0,0 +1,295 @@
+package chat.journal;
+
+import chat.logging.Log;
+import chat.logging.Logger;
+import chat.util.RingBuffer;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Stream;
+
+/**
+ * An append-only journal of encoded chat events in a directory of memory-mapped
+ * {@link JournalSegment segments}. Appending only hands the frame to a background writer through a
+ * {@link RingBuffer}; the writer copies it into the current segment, starts a new segment once
+ * the current one is full and forces the written records to disk at most once per sync interval,
+ * so records of a burst share a single sync.
+ *
+ * <p>If the writer falls behind by more than the queue capacity, records are dropped and counted
+ * instead of delaying the broadcast. Records appended after the journal has been closed are
+ * dropped and counted as well.
+ *
+ * <p>The journal keeps a limited number of segments: starting a new segment deletes the oldest
+ * ones beyond the limit. When the journal is opened, only the newest segment is mapped and
+ * validated; older segments are opened when {@link #recent(int)} reaches back into them, so the
+ * startup time depends on the number of records recovered, not on the size of the journal.
+ */
+public class Journal implements Runnable {
+
+  private static final Logger LOG = Log.getLogger(Journal.class);
+
+  /**
+   * Average record size the index of a segment is dimensioned for.
+   */
+  private static final int INDEX_RECORD_BYTES = 64;
+
+  private final Path directory;
+  private final int segmentBytes;
+  private final long syncIntervalNanos;
+  private final int maxSegments;
+  private final Deque<Long> unopened;
+  private final Deque<JournalSegment> segments;
+  private final RingBuffer<Slot> queue;
+  private final AtomicLong dropped;
+  private final Thread writer;
+  private volatile boolean closed;
+  private volatile boolean idle;
+
+  /**
+   * Open the journal in the given directory, keeping all segments, and start its writer.
+   *
+   * @param directory          the directory of the segment files, created if missing
+   * @param segmentBytes       size of a single segment file
+   * @param syncIntervalMillis maximum time between two syncs of written records, 0 syncs after
+   *                           every batch
+   * @param queueCapacity      number of records that may wait for the writer
+   * @throws IOException if the directory or a segment cannot be opened
+   */
+  public Journal(Path directory, int segmentBytes, long syncIntervalMillis, int queueCapacity)
+      throws IOException {
+    this(directory, segmentBytes, syncIntervalMillis, queueCapacity, 0);
+  }
+
+  /**
+   * Open the journal in the given directory and start its writer. Segments beyond the limit are
+   * deleted, and the newest one is validated and continued.
+   *
+   * @param directory          the directory of the segment files, created if missing
+   * @param segmentBytes       size of a single segment file
+   * @param syncIntervalMillis maximum time between two syncs of written records, 0 syncs after
+   *                           every batch
+   * @param queueCapacity      number of records that may wait for the writer
+   * @param maxSegments        number of segments that are kept, 0 keeps all
+   * @throws IOException if the directory or a segment cannot be opened
+   */
+  public Journal(Path directory, int segmentBytes, long syncIntervalMillis, int queueCapacity,
+      int maxSegments) throws IOException {
+    this.directory = Files.createDirectories(directory);
+    this.segmentBytes = segmentBytes;
+    this.syncIntervalNanos = TimeUnit.MILLISECONDS.toNanos(syncIntervalMillis);
+    this.maxSegments = maxSegments;
+    this.unopened = new ArrayDeque<>();
+    this.segments = new ArrayDeque<>();
+    try (Stream<Path> files = Files.list(directory)) {
+      files.mapToLong(JournalSegment::sequenceOf).filter(sequence -> sequence >= 0).sorted()
+          .forEach(unopened::addLast);
+    }
+    segments.addLast(openSegment(unopened.isEmpty() ? 0 : unopened.removeLast()));
+    deleteOldSegments();
+    this.queue = new RingBuffer<>(queueCapacity, Slot::new);
+    this.dropped = new AtomicLong();
+    this.writer = new Thread(this, "journal-writer");
+    writer.setDaemon(true);
+    writer.start();
+  }
+
+  private JournalSegment openSegment(long firstSequence) throws IOException {
+    return JournalSegment.open(directory, firstSequence, segmentBytes,
+        segmentBytes / INDEX_RECORD_BYTES);
+  }
+
+  /**
+   * Delete the oldest segments beyond the limit.
+   */
+  private void deleteOldSegments() {
+    while (maxSegments > 0 && unopened.size() + segments.size() > maxSegments) {
+      long sequence = unopened.isEmpty()
+          ? segments.removeFirst().getFirstSequence() : unopened.removeFirst();
+      try {
+        JournalSegment.delete(directory, sequence);
+      } catch (IOException e) {
+        LOG.warn("Could not delete the journal segment {}", sequence, e);
+      }
+    }
+  }
+
+  /**
+   * Return the most recent records, oldest first. Only the index and the requested records are
+   * read, and older segments are only opened if the newer ones do not hold enough records, so
+   * the cost does not depend on the size of the journal.
+   *
+   * @param limit maximum number of records
+   * @return copies of the records
+   */
+  public synchronized List<ByteBuffer> recent(int limit) {
+    Deque<ByteBuffer> records = new ArrayDeque<>();
+    Iterator<JournalSegment> descending = segments.descendingIterator();
+    while (records.size() < limit) {
+      JournalSegment segment;
+      if (descending.hasNext()) {
+        segment = descending.next();
+      } else if (!unopened.isEmpty()) {
+        segment = openOlderSegment();
+        if (segment == null) {
+          break;
+        }
+      } else {
+        break;
+      }
+      for (int i = segment.getCount() - 1; i >= 0 && records.size() < limit; i--) {
+        ByteBuffer record = segment.read(i);
+        records.addFirst(ByteBuffer.allocate(record.remaining()).put(record).flip());
+      }
+    }
+    return new ArrayList<>(records);
+  }
+
+  /**
+   * Open the newest segment that has not been opened yet. It is closed right away, as it is only
+   * read from, and its records stay readable.
+   *
+   * @return the segment, or null if it cannot be opened
+   */
+  private JournalSegment openOlderSegment() {
+    long sequence = unopened.removeLast();
+    try {
+      JournalSegment segment = openSegment(sequence);
+      segment.close();
+      segments.addFirst(segment);
+      return segment;
+    } catch (IOException e) {
+      LOG.warn("Could not open the journal segment {}", sequence, e);
+      unopened.clear();
+      return null;
+    }
+  }
+
+  /**
+   * Queue an encoded frame for the journal without blocking. The frame must not be modified
+   * afterwards.
+   *
+   * @param frame the frame to be written
+   * @return false, if the record was dropped because the writer is too far behind or the journal
+   *         has been closed
+   */
+  public boolean append(ByteBuffer frame) {
+    if (closed) {
+      dropped.incrementAndGet();
+      return false;
+    }
+    long sequence = queue.claim();
+    if (sequence < 0) {
+      dropped.incrementAndGet();
+      return false;
+    }
+    queue.get(sequence).frame = frame;
+    queue.publish(sequence);
+    if (idle) {
+      LockSupport.unpark(writer);
+    }
+    return true;
+  }
+
+  @Override
+  public void run() {
+    long lastSync = System.nanoTime();
+    boolean dirty = false;
+    while (true) {
+      long sequence = queue.next();
+      if (sequence >= 0) {
+        Slot slot = queue.get(sequence);
+        write(slot.frame);
+        slot.frame = null;
+        queue.release(sequence);
+        dirty = true;
+        continue;
+      }
+      if (dirty && System.nanoTime() - lastSync >= syncIntervalNanos) {
+        sync();
+        lastSync = System.nanoTime();
+        dirty = false;
+      }
+      if (closed && queue.isEmpty()) {
+        sync();
+        return;
+      }
+      idle = true;
+      if (queue.next() < 0) {
+        LockSupport.parkNanos(this, dirty ? syncIntervalNanos : TimeUnit.SECONDS.toNanos(1));
+      }
+      idle = false;
+    }
+  }
+
+  private synchronized void write(ByteBuffer frame) {
+    if (frame.remaining() + JournalSegment.HEADER_BYTES > segmentBytes) {
+      LOG.warn("Record of {} bytes exceeds the journal segment size", frame.remaining());
+      return;
+    }
+    JournalSegment current = segments.getLast();
+    if (current.append(frame)) {
+      return;
+    }
+    try {
+      current.close();
+      JournalSegment next = openSegment(current.getFirstSequence() + current.getCount());
+      segments.addLast(next);
+      next.append(frame);
+      deleteOldSegments();
+    } catch (IOException e) {
+      LOG.error("Could not start a new journal segment", e);
+    }
+  }
+
+  private synchronized void sync() {
+    segments.getLast().force();
+  }
+
+  /**
+   * Write all queued records, sync them and close the current segment.
+   *
+   * @throws IOException if a segment cannot be closed
+   */
+  public void close() throws IOException {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    LockSupport.unpark(writer);
+    try {
+      writer.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    synchronized (this) {
+      segments.getLast().close();
+    }
+  }
+
+  /**
+   * Return how many records were dropped because the writer fell behind or the journal was
+   * closed.
+   *
+   * @return number of dropped records
+   */
+  public long getDropped() {
+    return dropped.get();
+  }
+
+  /**
+   * A queue slot referencing a frame that waits to be written.
+   */
+  private static final class Slot {
+
+    private ByteBuffer frame;
+  }
+}
@@ -0,0 +1,223 @@
+package chat.journal;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32C;
+
+/**
+ * A single file of the {@link Journal} together with its index, both mapped into memory with a
+ * fixed size. The log holds the records back to back, each as
+ *
+ * <pre>
+ *   int length | int crc32c | byte[length] frame
+ * </pre>
+ *
+ * <p>A length of zero marks the end of the log. The index holds the end offset of every record as
+ * int, so the records near the end of a segment can be located without scanning the log.
+ */
+class JournalSegment {
+
+  static final int HEADER_BYTES = 8;
+  private static final String LOG_SUFFIX = ".log";
+  private static final String INDEX_SUFFIX = ".idx";
+
+  private final long firstSequence;
+  private final FileChannel logChannel;
+  private final FileChannel indexChannel;
+  private final MappedByteBuffer log;
+  private final MappedByteBuffer indexBytes;
+  private final IntBuffer index;
+  private final CRC32C checksum = new CRC32C();
+  private int count;
+  private int position;
+
+  private JournalSegment(long firstSequence, FileChannel logChannel, FileChannel indexChannel,
+      int logBytes, int indexEntries) throws IOException {
+    this.firstSequence = firstSequence;
+    this.logChannel = logChannel;
+    this.indexChannel = indexChannel;
+    this.log = logChannel.map(FileChannel.MapMode.READ_WRITE, 0, logBytes);
+    this.indexBytes = indexChannel.map(FileChannel.MapMode.READ_WRITE, 0, 4L * indexEntries);
+    this.index = indexBytes.asIntBuffer();
+  }
+
+  /**
+   * Create or open the segment whose first record has the given sequence number. An existing
+   * segment keeps its size and is validated: index entries without an intact record are
+   * discarded, and intact records that did not make it into the index are added.
+   *
+   * @param directory      the directory of the journal
+   * @param firstSequence  the sequence number of the first record
+   * @param logBytes       size of the log file
+   * @param indexEntries   number of records the index can hold
+   * @return the opened segment
+   * @throws IOException if the files cannot be opened or mapped
+   */
+  static JournalSegment open(Path directory, long firstSequence, int logBytes, int indexEntries)
+      throws IOException {
+    String name = String.format("%020d", firstSequence);
+    FileChannel logChannel = FileChannel.open(directory.resolve(name + LOG_SUFFIX),
+        StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    FileChannel indexChannel = FileChannel.open(directory.resolve(name + INDEX_SUFFIX),
+        StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    int existingBytes = (int) Math.min(logChannel.size(), Integer.MAX_VALUE);
+    int existingEntries = (int) Math.min(indexChannel.size() / 4, Integer.MAX_VALUE);
+    JournalSegment segment = new JournalSegment(firstSequence, logChannel, indexChannel,
+        existingBytes > 0 ? existingBytes : logBytes,
+        existingEntries > 0 ? existingEntries : indexEntries);
+    segment.recover();
+    return segment;
+  }
+
+  /**
+   * Return the sequence number encoded in the name of a log file.
+   *
+   * @param file a file of the journal directory
+   * @return the sequence number, or -1 if the file is no log segment
+   */
+  static long sequenceOf(Path file) {
+    String name = file.getFileName().toString();
+    if (!name.endsWith(LOG_SUFFIX)) {
+      return -1;
+    }
+    try {
+      return Long.parseLong(name.substring(0, name.length() - LOG_SUFFIX.length()));
+    } catch (NumberFormatException e) {
+      return -1;
+    }
+  }
+
+  private void recover() {
+    // the index is a prefix of non-zero offsets followed by zeros
+    int low = 0;
+    int high = index.capacity();
+    while (low < high) {
+      int middle = (low + high) >>> 1;
+      if (index.get(middle) != 0) {
+        low = middle + 1;
+      } else {
+        high = middle;
+      }
+    }
+    count = low;
+    while (count > 0 && !isIntact(startOf(count - 1), index.get(count - 1))) {
+      index.put(--count, 0);
+    }
+    position = count == 0 ? 0 : index.get(count - 1);
+    int length;
+    while (count < index.capacity() && (length = recordLength(position)) > 0
+        && isIntact(position, position + HEADER_BYTES + length)) {
+      position += HEADER_BYTES + length;
+      index.put(count++, position);
+    }
+    terminate();
+  }
+
+  private int startOf(int record) {
+    return record == 0 ? 0 : index.get(record - 1);
+  }
+
+  private int recordLength(int start) {
+    if (start + HEADER_BYTES > log.capacity()) {
+      return 0;
+    }
+    int length = log.getInt(start);
+    return length > 0 && length <= log.capacity() - start - HEADER_BYTES ? length : 0;
+  }
+
+  private boolean isIntact(int start, int end) {
+    int length = recordLength(start);
+    if (length == 0 || start + HEADER_BYTES + length != end) {
+      return false;
+    }
+    checksum.reset();
+    checksum.update(log.duplicate().position(start + HEADER_BYTES).limit(end));
+    return (int) checksum.getValue() == log.getInt(start + 4);
+  }
+
+  /**
+   * Append a record, unless the segment is full.
+   *
+   * @param frame the bytes of the record, between position and limit
+   * @return false, if the record does not fit into this segment anymore
+   */
+  boolean append(ByteBuffer frame) {
+    int length = frame.remaining();
+    if (count == index.capacity() || position + HEADER_BYTES + length > log.capacity()) {
+      return false;
+    }
+    checksum.reset();
+    checksum.update(frame.duplicate());
+    log.putInt(position + 4, (int) checksum.getValue());
+    log.put(position + HEADER_BYTES, frame, frame.position(), length);
+    // the length is written last, so a torn record is never taken for a complete one
+    log.putInt(position, length);
+    position += HEADER_BYTES + length;
+    index.put(count++, position);
+    terminate();
+    return true;
+  }
+
+  private void terminate() {
+    if (position + 4 <= log.capacity()) {
+      log.putInt(position, 0);
+    }
+  }
+
+  /**
+   * Return a view of a record.
+   *
+   * @param record the number of the record within this segment
+   * @return the bytes of the record, backed by the mapped file
+   */
+  ByteBuffer read(int record) {
+    int start = startOf(record);
+    return log.duplicate().position(start + HEADER_BYTES).limit(index.get(record)).slice();
+  }
+
+  /**
+   * Write all appended records and their index entries to the storage device.
+   */
+  void force() {
+    log.force();
+    indexBytes.force();
+  }
+
+  /**
+   * Force the segment and close its files. The records stay readable.
+   *
+   * @throws IOException if closing fails
+   */
+  void close() throws IOException {
+    force();
+    logChannel.close();
+    indexChannel.close();
+  }
+
+  /**
+   * Delete the files of a segment, which must have been closed if it was opened.
+   *
+   * @param directory     the directory of the journal
+   * @param firstSequence the sequence number of the first record of the segment
+   * @throws IOException if a file cannot be deleted
+   */
+  static void delete(Path directory, long firstSequence) throws IOException {
+    String name = String.format("%020d", firstSequence);
+    Files.deleteIfExists(directory.resolve(name + LOG_SUFFIX));
+    Files.deleteIfExists(directory.resolve(name + INDEX_SUFFIX));
+  }
+
+  long getFirstSequence() {
+    return firstSequence;
+  }
+
+  int getCount() {
+    return count;
+  }
+}
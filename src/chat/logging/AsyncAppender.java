@@ -0,0 +1,141 @@
+package chat.logging;
+
+import chat.util.RingBuffer;
+import java.io.PrintStream;
+import java.time.Instant;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Writes log records on a background thread. Logging threads only copy the references of a record
+ * into a preallocated {@link RingBuffer} slot; rendering and printing happen on the appender
+ * thread. When the buffer is full the record is dropped and counted instead of blocking the
+ * logging thread.
+ */
+public class AsyncAppender implements Runnable {
+
+  private static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern("HH:mm:ss.SSS");
+  private static final long MAX_IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+  private final RingBuffer<LogRecord> records;
+  private final PrintStream output;
+  private final AtomicLong dropped;
+  private final Thread thread;
+  private volatile boolean idle;
+
+  /**
+   * Create an appender and start its thread.
+   *
+   * @param capacity number of records that may wait to be written
+   * @param output   the stream the records are written to
+   */
+  public AsyncAppender(int capacity, PrintStream output) {
+    this.records = new RingBuffer<>(capacity, LogRecord::new);
+    this.output = output;
+    this.dropped = new AtomicLong();
+    this.thread = new Thread(this, "log-appender");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  /**
+   * Queue a record for writing without blocking.
+   */
+  void append(Level level, String logger, String template, Object firstArgument,
+      Object secondArgument, Throwable throwable) {
+    long sequence = records.claim();
+    if (sequence < 0) {
+      dropped.incrementAndGet();
+      return;
+    }
+    LogRecord record = records.get(sequence);
+    record.timeMillis = System.currentTimeMillis();
+    record.level = level;
+    record.logger = logger;
+    record.thread = Thread.currentThread().getName();
+    record.template = template;
+    record.firstArgument = firstArgument;
+    record.secondArgument = secondArgument;
+    record.throwable = throwable;
+    records.publish(sequence);
+    if (idle) {
+      LockSupport.unpark(thread);
+    }
+  }
+
+  @Override
+  public void run() {
+    StringBuilder line = new StringBuilder();
+    while (true) {
+      long sequence = records.next();
+      if (sequence < 0) {
+        idle = true;
+        if (records.next() < 0) {
+          output.flush();
+          LockSupport.parkNanos(this, MAX_IDLE_NANOS);
+        }
+        idle = false;
+        continue;
+      }
+      LogRecord record = records.get(sequence);
+      line.setLength(0);
+      render(record, line);
+      output.println(line);
+      if (record.throwable != null) {
+        record.throwable.printStackTrace(output);
+      }
+      record.clear();
+      records.release(sequence);
+    }
+  }
+
+  private static void render(LogRecord record, StringBuilder line) {
+    line.append(TIME_FORMAT.format(
+            LocalTime.ofInstant(Instant.ofEpochMilli(record.timeMillis), ZoneId.systemDefault())))
+        .append(' ').append(record.level)
+        .append(" [").append(record.thread).append("] ")
+        .append(record.logger).append(": ");
+    String template = record.template;
+    Object[] arguments = {record.firstArgument, record.secondArgument};
+    int argument = 0;
+    int start = 0;
+    int placeholder;
+    while (argument < arguments.length && (placeholder = template.indexOf("{}", start)) >= 0) {
+      line.append(template, start, placeholder).append(arguments[argument++]);
+      start = placeholder + 2;
+    }
+    line.append(template, start, template.length());
+  }
+
+  /**
+   * Wait until all queued records have been written.
+   *
+   * @param timeoutMillis maximum time to wait
+   * @return true, if everything was written in time
+   */
+  public boolean flush(long timeoutMillis) {
+    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+    while (!records.isEmpty()) {
+      if (System.nanoTime() - deadline > 0) {
+        return false;
+      }
+      LockSupport.unpark(thread);
+      LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+    }
+    output.flush();
+    return true;
+  }
+
+  /**
+   * Return how many records were dropped because the buffer was full.
+   *
+   * @return number of dropped records
+   */
+  public long getDropped() {
+    return dropped.get();
+  }
+}
@@ -0,0 +1,8 @@
+package chat.logging;
+
+/**
+ * The severity of a log record. A logger only records messages of its configured level or above.
+ */
+public enum Level {
+  DEBUG, INFO, WARN, ERROR, OFF
+}
@@ -0,0 +1,73 @@
+package chat.logging;
+
+/**
+ * Entry point of the logging. All loggers share one level and one {@link AsyncAppender} that
+ * writes to standard output.
+ *
+ * <p>The initial level is read from the system property {@code chat.log.level} and defaults to
+ * {@link Level#INFO}, which keeps per-message records off the hot path.
+ */
+public final class Log {
+
+  private static final int APPENDER_CAPACITY = 8192;
+
+  private static volatile Level level = initialLevel();
+
+  private Log() {
+  }
+
+  private static Level initialLevel() {
+    String property = System.getProperty("chat.log.level");
+    return property == null ? Level.INFO : Level.valueOf(property.toUpperCase());
+  }
+
+  /**
+   * Return a logger for the given class.
+   *
+   * @param type the class that logs
+   * @return the logger named after the class
+   */
+  public static Logger getLogger(Class<?> type) {
+    return new Logger(type.getSimpleName());
+  }
+
+  public static Level getLevel() {
+    return level;
+  }
+
+  public static void setLevel(Level level) {
+    Log.level = level;
+  }
+
+  /**
+   * Return how many records were dropped because they were produced faster than written.
+   *
+   * @return number of dropped records
+   */
+  public static long getDropped() {
+    return appender().getDropped();
+  }
+
+  /**
+   * Wait until all records logged so far have been written.
+   *
+   * @param timeoutMillis maximum time to wait
+   * @return true, if everything was written in time
+   */
+  public static boolean flush(long timeoutMillis) {
+    return appender().flush(timeoutMillis);
+  }
+
+  static AsyncAppender appender() {
+    return Holder.APPENDER;
+  }
+
+  /**
+   * Starts the appender thread when the first record is logged.
+   */
+  private static final class Holder {
+
+    private static final AsyncAppender APPENDER =
+        new AsyncAppender(APPENDER_CAPACITY, System.out);
+  }
+}
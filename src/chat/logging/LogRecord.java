@@ -0,0 +1,29 @@
+package chat.logging;
+
+/**
+ * A reusable slot of the {@link AsyncAppender}. The message is kept as template with its arguments
+ * and only rendered on the appender thread.
+ */
+final class LogRecord {
+
+  long timeMillis;
+  Level level;
+  String logger;
+  String thread;
+  String template;
+  Object firstArgument;
+  Object secondArgument;
+  Throwable throwable;
+
+  /**
+   * Drop the references of a written record, so that it does not keep messages alive.
+   */
+  void clear() {
+    logger = null;
+    thread = null;
+    template = null;
+    firstArgument = null;
+    secondArgument = null;
+    throwable = null;
+  }
+}
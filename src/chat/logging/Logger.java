@@ -0,0 +1,87 @@
+package chat.logging;
+
+/**
+ * A named logger. Messages are templates in which each {@code {}} is replaced by the next argument;
+ * they are only rendered on the appender thread, and a disabled level costs a single comparison.
+ */
+public class Logger {
+
+  private final String name;
+
+  Logger(String name) {
+    this.name = name;
+  }
+
+  /**
+   * Return whether messages of the given level are currently recorded.
+   *
+   * @param level the level to check
+   * @return true, if the level is enabled
+   */
+  public boolean isEnabled(Level level) {
+    return level.compareTo(Log.getLevel()) >= 0;
+  }
+
+  public void debug(String message) {
+    log(Level.DEBUG, message, null, null, null);
+  }
+
+  public void debug(String template, Object argument) {
+    log(Level.DEBUG, template, argument, null, null);
+  }
+
+  public void debug(String template, Object first, Object second) {
+    log(Level.DEBUG, template, first, second, null);
+  }
+
+  public void info(String message) {
+    log(Level.INFO, message, null, null, null);
+  }
+
+  public void info(String template, Object argument) {
+    log(Level.INFO, template, argument, null, null);
+  }
+
+  public void info(String template, Object first, Object second) {
+    log(Level.INFO, template, first, second, null);
+  }
+
+  public void warn(String message) {
+    log(Level.WARN, message, null, null, null);
+  }
+
+  public void warn(String template, Object argument) {
+    log(Level.WARN, template, argument, null, null);
+  }
+
+  public void warn(String template, Object first, Object second) {
+    log(Level.WARN, template, first, second, null);
+  }
+
+  public void warn(String message, Throwable throwable) {
+    log(Level.WARN, message, null, null, throwable);
+  }
+
+  public void warn(String template, Object argument, Throwable throwable) {
+    log(Level.WARN, template, argument, null, throwable);
+  }
+
+  public void error(String message, Throwable throwable) {
+    log(Level.ERROR, message, null, null, throwable);
+  }
+
+  public void error(String template, Object argument, Throwable throwable) {
+    log(Level.ERROR, template, argument, null, throwable);
+  }
+
+  private void log(Level level, String template, Object first, Object second,
+      Throwable throwable) {
+    if (isEnabled(level)) {
+      Log.appender().append(level, name, template, first, second, throwable);
+    }
+  }
+
+  public String getName() {
+    return name;
+  }
+}
@@ -0,0 +1,112 @@
+package chat.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of durations in nanoseconds with a fixed set of buckets allocated up front, so
+ * recording is a single atomic increment without allocation. Durations below 32 ns get a bucket
+ * each; above, every power of two is split into 16 buckets, which bounds the relative error of a
+ * percentile to about 6 %. Durations beyond the configured maximum fall into the last bucket.
+ */
+public class LatencyHistogram {
+
+  private static final int LINEAR_BUCKETS = 32;
+  private static final int SUB_BUCKET_BITS = 4;
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+  private static final int FIRST_EXPONENT = 5;
+
+  private final AtomicLongArray counts;
+  private final AtomicLong max;
+
+  /**
+   * Create an empty histogram.
+   *
+   * @param maxNanos the largest duration that is distinguished from longer ones
+   */
+  public LatencyHistogram(long maxNanos) {
+    this.counts = new AtomicLongArray(indexOf(Math.max(LINEAR_BUCKETS, maxNanos)) + 1);
+    this.max = new AtomicLong();
+  }
+
+  private static int indexOf(long nanos) {
+    if (nanos < LINEAR_BUCKETS) {
+      return (int) Math.max(0, nanos);
+    }
+    int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+    int subBucket = (int) (nanos >>> (exponent - SUB_BUCKET_BITS)) - SUB_BUCKETS;
+    return LINEAR_BUCKETS + (exponent - FIRST_EXPONENT) * SUB_BUCKETS + subBucket;
+  }
+
+  private static long upperBoundOf(int index) {
+    if (index < LINEAR_BUCKETS) {
+      return index;
+    }
+    int exponent = FIRST_EXPONENT + (index - LINEAR_BUCKETS) / SUB_BUCKETS;
+    long subBucket = SUB_BUCKETS + (index - LINEAR_BUCKETS) % SUB_BUCKETS;
+    return ((subBucket + 1) << (exponent - SUB_BUCKET_BITS)) - 1;
+  }
+
+  /**
+   * Record a duration.
+   *
+   * @param nanos the duration in nanoseconds
+   */
+  public void record(long nanos) {
+    counts.incrementAndGet(Math.min(indexOf(nanos), counts.length() - 1));
+    long current;
+    while (nanos > (current = max.get()) && !max.compareAndSet(current, nanos)) {
+      // retry until the maximum is at least this duration
+    }
+  }
+
+  /**
+   * Return the duration that the given fraction of all recorded durations does not exceed,
+   * rounded up to the end of its bucket.
+   *
+   * @param quantile the fraction, e.g. 0.99
+   * @return the duration in nanoseconds, 0 if nothing was recorded
+   */
+  public long percentile(double quantile) {
+    long total = getCount();
+    if (total == 0) {
+      return 0;
+    }
+    long rank = Math.max(1, (long) Math.ceil(quantile * total));
+    long seen = 0;
+    for (int i = 0; i < counts.length(); i++) {
+      seen += counts.get(i);
+      if (seen >= rank) {
+        return i == counts.length() - 1 ? max.get() : Math.min(upperBoundOf(i), max.get());
+      }
+    }
+    return max.get();
+  }
+
+  /**
+   * Return the number of recorded durations.
+   *
+   * @return number of durations
+   */
+  public long getCount() {
+    long total = 0;
+    for (int i = 0; i < counts.length(); i++) {
+      total += counts.get(i);
+    }
+    return total;
+  }
+
+  public long getMax() {
+    return max.get();
+  }
+
+  /**
+   * Forget all recorded durations. Durations recorded concurrently may be kept.
+   */
+  public void reset() {
+    for (int i = 0; i < counts.length(); i++) {
+      counts.set(i, 0);
+    }
+    max.set(0);
+  }
+}
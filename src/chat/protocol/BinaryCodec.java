@@ -0,0 +1,217 @@
+package chat.protocol;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Reads and writes the messages of the chat protocol in a compact binary format. Every frame is
+ * prefixed with its length, so a reader never has to scan for a separator, and strings are stored
+ * as plain UTF-8 without escaping:
+ *
+ * <pre>
+ *   int length | byte type | field...
+ * </pre>
+ *
+ * <p>The length counts the bytes after the prefix. The type is the tag of the
+ * {@link MessageType}, followed by the fields of the message in the order of its record
+ * components, each as unsigned LEB128 varint byte count and UTF-8 bytes; numbers are written as
+ * decimal strings. The heartbeat of a login is an optional last field holding
+ * {@code heartbeat}. The codec is stateless and can be shared by all threads.
+ */
+public final class BinaryCodec implements Codec {
+
+  /**
+   * Size of the length prefix of a frame.
+   */
+  public static final int PREFIX_BYTES = 4;
+
+  /**
+   * Maximum length of a frame after the prefix, so a whole frame fits into a line buffer.
+   */
+  public static final int MAX_BODY_LENGTH = LineReader.MAX_LINE_LENGTH - PREFIX_BYTES;
+
+  private static final byte[][] NO_FIELDS = new byte[0][];
+  private static final String HEARTBEAT = "heartbeat";
+
+  @Override
+  public Message decode(ByteBuffer body) throws ProtocolException {
+    Cursor cursor = new Cursor(body);
+    int tag = cursor.readByte();
+    MessageType type = MessageType.fromTag(tag);
+    if (type == null) {
+      throw new ProtocolException("Unknown type of message: " + tag);
+    }
+    Message message = switch (type) {
+      case LOGIN -> new Login(cursor.readString(), JsonCodec.formatOf(cursor.readString()),
+          cursor.position < body.limit() && cursor.readString().equals(HEARTBEAT));
+      case LOGIN_SUCCESS -> new LoginSuccess();
+      case LOGIN_FAILED -> new LoginFailed();
+      case USER_JOINED -> new UserJoined(cursor.readString());
+      case USER_LEFT -> new UserLeft(cursor.readString());
+      case POST_MESSAGE -> new PostMessage(cursor.readString());
+      case MESSAGE -> new TextMessage(cursor.readString(), cursor.readString(),
+          cursor.readString(), cursor.readLong());
+      case JOIN_ROOM -> new JoinRoom(cursor.readString());
+      case LEAVE_ROOM -> new LeaveRoom(cursor.readString());
+      case POST_ROOM_MESSAGE -> new PostRoomMessage(cursor.readString(), cursor.readString());
+      case ROOM_MESSAGE -> new RoomMessage(cursor.readString(), cursor.readString(),
+          cursor.readString(), cursor.readString(), cursor.readLong());
+      case PING -> new Ping();
+      case PONG -> new Pong();
+      case SHUTDOWN -> new Shutdown();
+      case POST_DIRECT_MESSAGE -> new PostDirectMessage(cursor.readString(), cursor.readString());
+      case DIRECT_MESSAGE -> new DirectMessage(cursor.readString(), cursor.readString(),
+          cursor.readString());
+    };
+    if (cursor.position != body.limit()) {
+      throw new ProtocolException("Unexpected data after message");
+    }
+    return message;
+  }
+
+  @Override
+  public Message decodeFrame(ByteBuffer frame) throws ProtocolException {
+    int start = frame.position();
+    if (frame.remaining() < PREFIX_BYTES
+        || frame.getInt(start) != frame.remaining() - PREFIX_BYTES) {
+      throw new ProtocolException("Frame length does not match its prefix");
+    }
+    return decode(frame.duplicate().position(start + PREFIX_BYTES));
+  }
+
+  @Override
+  public ByteBuffer encodeFrame(Message message) {
+    byte[][] fields = fieldsOf(message);
+    int length = 1;
+    for (byte[] field : fields) {
+      length += varintSize(field.length) + field.length;
+    }
+    ByteBuffer frame = ByteBuffer.allocate(PREFIX_BYTES + length);
+    frame.putInt(length).put(message.getType().getTag());
+    for (byte[] field : fields) {
+      putVarint(frame, field.length);
+      frame.put(field);
+    }
+    return frame.flip().asReadOnlyBuffer();
+  }
+
+  /**
+   * Return the UTF-8 encoded string fields of a message in the order they are written.
+   */
+  private static byte[][] fieldsOf(Message message) {
+    if (message instanceof Login login) {
+      return login.heartbeat()
+          ? utf8(login.nick(), login.format().getName(), HEARTBEAT)
+          : utf8(login.nick(), login.format().getName());
+    } else if (message instanceof UserJoined joined) {
+      return utf8(joined.nick());
+    } else if (message instanceof UserLeft left) {
+      return utf8(left.nick());
+    } else if (message instanceof PostMessage post) {
+      return utf8(post.content());
+    } else if (message instanceof TextMessage text) {
+      return utf8(text.time(), text.nick(), text.content(), Long.toString(text.id()));
+    } else if (message instanceof JoinRoom join) {
+      return utf8(join.room());
+    } else if (message instanceof LeaveRoom leave) {
+      return utf8(leave.room());
+    } else if (message instanceof PostRoomMessage post) {
+      return utf8(post.room(), post.content());
+    } else if (message instanceof RoomMessage text) {
+      return utf8(text.time(), text.nick(), text.room(), text.content(),
+          Long.toString(text.id()));
+    } else if (message instanceof PostDirectMessage post) {
+      return utf8(post.to(), post.content());
+    } else if (message instanceof DirectMessage text) {
+      return utf8(text.time(), text.nick(), text.content());
+    }
+    return NO_FIELDS;
+  }
+
+  private static byte[][] utf8(String... values) {
+    byte[][] fields = new byte[values.length][];
+    for (int i = 0; i < values.length; i++) {
+      fields[i] = values[i].getBytes(UTF_8);
+    }
+    return fields;
+  }
+
+  private static int varintSize(int value) {
+    int size = 1;
+    while ((value >>>= 7) != 0) {
+      size++;
+    }
+    return size;
+  }
+
+  private static void putVarint(ByteBuffer out, int value) {
+    while ((value & ~0x7f) != 0) {
+      out.put((byte) (value & 0x7f | 0x80));
+      value >>>= 7;
+    }
+    out.put((byte) value);
+  }
+
+  /**
+   * Reads the fields of a frame body with absolute access, leaving the buffer untouched.
+   */
+  private static final class Cursor {
+
+    private final ByteBuffer body;
+    private int position;
+
+    private Cursor(ByteBuffer body) {
+      this.body = body;
+      this.position = body.position();
+    }
+
+    private int readByte() throws ProtocolException {
+      if (position >= body.limit()) {
+        throw new ProtocolException("Truncated message");
+      }
+      return body.get(position++) & 0xff;
+    }
+
+    private int readVarint() throws ProtocolException {
+      int value = 0;
+      for (int shift = 0; shift < 32; shift += 7) {
+        int b = readByte();
+        value |= (b & 0x7f) << shift;
+        if ((b & 0x80) == 0) {
+          if (value < 0) {
+            break;
+          }
+          return value;
+        }
+      }
+      throw new ProtocolException("Invalid field length");
+    }
+
+    private String readString() throws ProtocolException {
+      int length = readVarint();
+      if (length > body.limit() - position) {
+        throw new ProtocolException("Truncated field");
+      }
+      String value;
+      if (body.hasArray()) {
+        value = new String(body.array(), body.arrayOffset() + position, length, UTF_8);
+      } else {
+        byte[] bytes = new byte[length];
+        body.get(position, bytes);
+        value = new String(bytes, UTF_8);
+      }
+      position += length;
+      return value;
+    }
+
+    private long readLong() throws ProtocolException {
+      String value = readString();
+      try {
+        return Long.parseLong(value);
+      } catch (NumberFormatException e) {
+        throw new ProtocolException("Invalid number: " + value);
+      }
+    }
+  }
+}
@@ -0,0 +1,90 @@
+package chat.protocol;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Date;
+
+/**
+ * Renders and parses the timestamps of chat messages
+ * ({@code <day>.<month>.<year> <hour>:<minute>:<second>}). As the format has a resolution of one
+ * second, the rendered text of the current second and the result of the last parse are cached, so a
+ * burst of messages costs one formatting or parsing operation per second. The clock can be
+ * replaced, e.g. by a fixed clock in tests.
+ */
+public class ChatClock {
+
+  public static final DateTimeFormatter FORMAT = DateTimeFormatter.ofPattern("dd.MM.yyyy HH:mm:ss");
+
+  private final Clock clock;
+  private volatile Formatted lastFormatted;
+  private volatile Parsed lastParsed;
+
+  /**
+   * A rendered second.
+   */
+  private record Formatted(long epochSecond, String text) {
+
+  }
+
+  /**
+   * A parsed timestamp.
+   */
+  private record Parsed(String text, long epochMillis) {
+
+  }
+
+  /**
+   * Create a clock that uses the system time in the default time zone.
+   */
+  public ChatClock() {
+    this(Clock.systemDefaultZone());
+  }
+
+  public ChatClock(Clock clock) {
+    this.clock = clock;
+  }
+
+  /**
+   * Return the current time in the message format.
+   *
+   * @return the rendered current second
+   */
+  public String now() {
+    long epochSecond = clock.millis() / 1000;
+    Formatted formatted = lastFormatted;
+    if (formatted == null || formatted.epochSecond() != epochSecond) {
+      String text = FORMAT.format(
+          LocalDateTime.ofInstant(Instant.ofEpochSecond(epochSecond), clock.getZone()));
+      formatted = new Formatted(epochSecond, text);
+      lastFormatted = formatted;
+    }
+    return formatted.text();
+  }
+
+  /**
+   * Parse a timestamp of a received message.
+   *
+   * @param text the timestamp in the message format
+   * @return the point in time, interpreted in the time zone of this clock
+   * @throws ProtocolException if the text is not in the message format
+   */
+  public Date parse(String text) throws ProtocolException {
+    Parsed parsed = lastParsed;
+    if (parsed == null || !parsed.text().equals(text)) {
+      try {
+        ZoneId zone = clock.getZone();
+        long epochMillis = LocalDateTime.parse(text, FORMAT).atZone(zone).toInstant()
+            .toEpochMilli();
+        parsed = new Parsed(text, epochMillis);
+        lastParsed = parsed;
+      } catch (DateTimeParseException e) {
+        throw new ProtocolException("Invalid time: " + text);
+      }
+    }
+    return new Date(parsed.epochMillis());
+  }
+}
@@ -0,0 +1,74 @@
+package chat.protocol;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads and writes the messages of the chat protocol in one {@link WireFormat}. Implementations
+ * are stateless and can be shared by all threads.
+ */
+public interface Codec {
+
+  /**
+   * Parse the body of a single frame, i.e. the message without separator or length prefix.
+   *
+   * @param body the encoded message between the position and the limit of the buffer; the buffer
+   *             itself is not modified
+   * @return the parsed message
+   * @throws ProtocolException if the bytes are not a valid message
+   */
+  Message decode(ByteBuffer body) throws ProtocolException;
+
+  /**
+   * Parse a complete frame as returned by {@link #encodeFrame(Message)}.
+   *
+   * @param frame the frame between the position and the limit of the buffer; the buffer itself is
+   *              not modified
+   * @return the parsed message
+   * @throws ProtocolException if the bytes are not a valid frame
+   */
+  Message decodeFrame(ByteBuffer frame) throws ProtocolException;
+
+  /**
+   * Encode a message into a frame that is ready to be sent.
+   *
+   * @param message the message to be encoded
+   * @return read-only buffer holding exactly the frame
+   */
+  ByteBuffer encodeFrame(Message message);
+
+  /**
+   * Encode messages that are sent together, like a replayed history. Formats may combine them;
+   * by default the frames of the messages simply follow each other.
+   *
+   * @param messages the messages to be encoded
+   * @return read-only buffer holding the frames
+   */
+  default ByteBuffer encodeFrames(List<Message> messages) {
+    List<ByteBuffer> frames = new ArrayList<>(messages.size());
+    int size = 0;
+    for (Message message : messages) {
+      ByteBuffer frame = encodeFrame(message);
+      frames.add(frame);
+      size += frame.remaining();
+    }
+    ByteBuffer result = ByteBuffer.allocate(size);
+    for (ByteBuffer frame : frames) {
+      result.put(frame);
+    }
+    return result.flip().asReadOnlyBuffer();
+  }
+
+  /**
+   * Parse the body of a frame that may hold several messages, as written by
+   * {@link #encodeFrames(List)}.
+   *
+   * @param body the encoded messages between the position and the limit of the buffer
+   * @return the parsed messages
+   * @throws ProtocolException if the bytes are not valid
+   */
+  default List<Message> decodeAll(ByteBuffer body) throws ProtocolException {
+    return List.of(decode(body));
+  }
+}
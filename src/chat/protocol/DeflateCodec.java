@@ -0,0 +1,225 @@
+package chat.protocol;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * The {@link BinaryCodec binary format} with compression of large frames. A frame whose body
+ * reaches {@link #THRESHOLD_BYTES} is replaced by a compressed frame
+ *
+ * <pre>
+ *   int length | byte 0xff | int inflated length | deflated binary frames
+ * </pre>
+ *
+ * <p>which inflates to one or more complete binary frames, so a replayed history can be
+ * compressed as a whole. Smaller frames are sent as plain binary frames. Every compressed frame
+ * is a raw deflate stream of its own that starts from a fixed preset dictionary of common chat
+ * fragments. Frames therefore do not depend on the connection they are sent to: a broadcast is
+ * compressed once and the same bytes are queued for every recipient.
+ *
+ * <p>Compressors hold native zlib state of a few hundred kilobytes. They are borrowed from a small
+ * pool shared by all threads for a single frame, so the memory does not grow with the number of
+ * threads that serve connections; compressors beyond the pool size are ended right after use.
+ */
+public final class DeflateCodec implements Codec {
+
+  /**
+   * Minimum size of a binary frame body that is compressed.
+   */
+  public static final int THRESHOLD_BYTES = 256;
+
+  private static final int COMPRESSED = 0xff;
+  private static final int HEADER_BYTES = 1 + 4;
+
+  private static final byte[] DICTIONARY = ("login success login failed user joined user left "
+      + "http://https://www. .com .de .org the and you that have for not with this but what "
+      + "und die der das ist nicht ich mit sie auf ein eine zu :-) ;-) :D ok okay thanks hello "
+      + "hi yes no :00 .2026 .2025 01.01.").getBytes(UTF_8);
+
+  private static final int POOL_SIZE = Math.max(2, Runtime.getRuntime().availableProcessors());
+  private static final Queue<Deflater> DEFLATERS = new ArrayBlockingQueue<>(POOL_SIZE);
+  private static final Queue<Inflater> INFLATERS = new ArrayBlockingQueue<>(POOL_SIZE);
+
+  private final BinaryCodec binary = new BinaryCodec();
+
+  @Override
+  public Message decode(ByteBuffer body) throws ProtocolException {
+    if (!isCompressed(body)) {
+      return binary.decode(body);
+    }
+    List<Message> messages = decodeAll(body);
+    if (messages.size() != 1) {
+      throw new ProtocolException("Expected a single message, got " + messages.size());
+    }
+    return messages.get(0);
+  }
+
+  @Override
+  public List<Message> decodeAll(ByteBuffer body) throws ProtocolException {
+    if (!isCompressed(body)) {
+      return List.of(binary.decode(body));
+    }
+    ByteBuffer frames = inflate(body);
+    List<Message> messages = new ArrayList<>();
+    while (frames.hasRemaining()) {
+      if (frames.remaining() < BinaryCodec.PREFIX_BYTES) {
+        throw new ProtocolException("Truncated frame in compressed data");
+      }
+      int length = frames.getInt();
+      if (length < 0 || length > frames.remaining()) {
+        throw new ProtocolException("Truncated frame in compressed data");
+      }
+      int end = frames.position() + length;
+      messages.add(binary.decode(frames.duplicate().limit(end)));
+      frames.position(end);
+    }
+    return messages;
+  }
+
+  @Override
+  public Message decodeFrame(ByteBuffer frame) throws ProtocolException {
+    int start = frame.position();
+    if (frame.remaining() < BinaryCodec.PREFIX_BYTES
+        || frame.getInt(start) != frame.remaining() - BinaryCodec.PREFIX_BYTES) {
+      throw new ProtocolException("Frame length does not match its prefix");
+    }
+    return decode(frame.duplicate().position(start + BinaryCodec.PREFIX_BYTES));
+  }
+
+  @Override
+  public ByteBuffer encodeFrame(Message message) {
+    ByteBuffer frame = binary.encodeFrame(message);
+    if (frame.remaining() - BinaryCodec.PREFIX_BYTES < THRESHOLD_BYTES) {
+      return frame;
+    }
+    return compress(List.of(frame), frame.remaining());
+  }
+
+  /**
+   * Encode messages into as few compressed frames as possible, or into plain binary frames if
+   * they are small altogether.
+   *
+   * @param messages the messages to be encoded
+   * @return read-only buffer holding the frames
+   */
+  @Override
+  public ByteBuffer encodeFrames(List<Message> messages) {
+    List<ByteBuffer> output = new ArrayList<>();
+    List<ByteBuffer> batch = new ArrayList<>();
+    int batchBytes = 0;
+    for (Message message : messages) {
+      ByteBuffer frame = binary.encodeFrame(message);
+      if (!batch.isEmpty()
+          && batchBytes + frame.remaining() > BinaryCodec.MAX_BODY_LENGTH - HEADER_BYTES) {
+        output.add(encodeBatch(batch, batchBytes));
+        batch.clear();
+        batchBytes = 0;
+      }
+      batch.add(frame);
+      batchBytes += frame.remaining();
+    }
+    if (!batch.isEmpty()) {
+      output.add(encodeBatch(batch, batchBytes));
+    }
+    int size = output.stream().mapToInt(ByteBuffer::remaining).sum();
+    ByteBuffer result = ByteBuffer.allocate(size);
+    output.forEach(result::put);
+    return result.flip().asReadOnlyBuffer();
+  }
+
+  private ByteBuffer encodeBatch(List<ByteBuffer> frames, int size) {
+    if (size < THRESHOLD_BYTES) {
+      ByteBuffer plain = ByteBuffer.allocate(size);
+      frames.forEach(frame -> plain.put(frame.duplicate()));
+      return plain.flip();
+    }
+    return compress(frames, size);
+  }
+
+  /**
+   * Compress consecutive binary frames into a single frame. Returns the frames unchanged if
+   * compression does not make them smaller.
+   */
+  private static ByteBuffer compress(List<ByteBuffer> frames, int size) {
+    byte[] input = new byte[size];
+    ByteBuffer in = ByteBuffer.wrap(input);
+    frames.forEach(frame -> in.put(frame.duplicate()));
+    Deflater deflater = DEFLATERS.poll();
+    if (deflater == null) {
+      deflater = new Deflater(Deflater.BEST_SPEED, true);
+    }
+    byte[] output = new byte[BinaryCodec.PREFIX_BYTES + HEADER_BYTES + size];
+    int length = BinaryCodec.PREFIX_BYTES + HEADER_BYTES;
+    boolean finished;
+    try {
+      deflater.setDictionary(DICTIONARY);
+      deflater.setInput(input);
+      deflater.finish();
+      while (!deflater.finished() && length < output.length) {
+        length += deflater.deflate(output, length, output.length - length);
+      }
+      finished = deflater.finished();
+    } finally {
+      deflater.reset();
+      if (!DEFLATERS.offer(deflater)) {
+        deflater.end();
+      }
+    }
+    if (!finished) {
+      return ByteBuffer.wrap(input).asReadOnlyBuffer();
+    }
+    ByteBuffer.wrap(output).putInt(length - BinaryCodec.PREFIX_BYTES).put((byte) COMPRESSED)
+        .putInt(size);
+    return ByteBuffer.wrap(output, 0, length).slice().asReadOnlyBuffer();
+  }
+
+  private static ByteBuffer inflate(ByteBuffer body) throws ProtocolException {
+    if (body.remaining() < HEADER_BYTES) {
+      throw new ProtocolException("Truncated compressed frame");
+    }
+    int size = body.getInt(body.position() + 1);
+    if (size < 0 || size > BinaryCodec.MAX_BODY_LENGTH) {
+      throw new ProtocolException("Invalid inflated length: " + size);
+    }
+    byte[] output = new byte[size];
+    Inflater inflater = INFLATERS.poll();
+    if (inflater == null) {
+      inflater = new Inflater(true);
+    }
+    try {
+      inflater.setDictionary(DICTIONARY);
+      inflater.setInput(body.duplicate().position(body.position() + HEADER_BYTES));
+      int length = 0;
+      while (length < size && !inflater.finished()) {
+        int inflated = inflater.inflate(output, length, size - length);
+        if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+          break;
+        }
+        length += inflated;
+      }
+      if (length != size) {
+        throw new ProtocolException("Inflated length does not match");
+      }
+    } catch (DataFormatException e) {
+      throw new ProtocolException("Invalid compressed data: " + e.getMessage());
+    } finally {
+      inflater.reset();
+      if (!INFLATERS.offer(inflater)) {
+        inflater.end();
+      }
+    }
+    return ByteBuffer.wrap(output);
+  }
+
+  private static boolean isCompressed(ByteBuffer body) {
+    return body.hasRemaining() && (body.get(body.position()) & 0xff) == COMPRESSED;
+  }
+}
@@ -0,0 +1,19 @@
+package chat.protocol;
+
+/**
+ * Chat message delivered by the server to the single user it was addressed to.
+ *
+ * <pre>
+ * { "type" : "direct message",
+ *   "time" : "&lt;day&gt;.&lt;month&gt;.&lt;year&gt; &lt;hour&gt;:&lt;minute&gt;:&lt;second&gt;",
+ *   "nick" : "&lt;sender&gt;",
+ *   "content" : "&lt;message content&gt;" }
+ * </pre>
+ */
+public record DirectMessage(String time, String nick, String content) implements Message {
+
+  @Override
+  public MessageType getType() {
+    return MessageType.DIRECT_MESSAGE;
+  }
+}
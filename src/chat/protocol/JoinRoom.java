@@ -0,0 +1,16 @@
+package chat.protocol;
+
+/**
+ * Request of a client to receive the messages of a room. Unknown rooms are created.
+ *
+ * <pre>
+ * { "type" : "join room", "room" : "&lt;room&gt;" }
+ * </pre>
+ */
+public record JoinRoom(String room) implements Message {
+
+  @Override
+  public MessageType getType() {
+    return MessageType.JOIN_ROOM;
+  }
+}
@@ -0,0 +1,545 @@
+package chat.protocol;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Reads and writes the messages of the chat protocol as UTF-8 encoded JSON. Unlike a general JSON
+ * library the codec knows the fixed set of messages: it parses directly from the received bytes
+ * into the typed {@link Message} records, only decoding the string values it needs, and writes the
+ * records straight into an output buffer. The codec is stateless and can be shared by all threads.
+ */
+public final class JsonCodec implements Codec {
+
+  private static final byte[] TYPE = "type".getBytes(UTF_8);
+  private static final byte[] NICK = "nick".getBytes(UTF_8);
+  private static final byte[] CONTENT = "content".getBytes(UTF_8);
+  private static final byte[] TIME = "time".getBytes(UTF_8);
+  private static final byte[] ROOM = "room".getBytes(UTF_8);
+  private static final byte[] TO = "to".getBytes(UTF_8);
+  private static final byte[] ID = "id".getBytes(UTF_8);
+  private static final byte[] FORMAT = "format".getBytes(UTF_8);
+  private static final byte[] HEARTBEAT = "heartbeat".getBytes(UTF_8);
+  private static final byte[] TRUE = "true".getBytes(UTF_8);
+  private static final byte[] HEX = "0123456789abcdef".getBytes(UTF_8);
+  private static final int INITIAL_SCRATCH_SIZE = 1024;
+
+  private static final ThreadLocal<ByteBuffer> SCRATCH =
+      ThreadLocal.withInitial(() -> ByteBuffer.allocate(INITIAL_SCRATCH_SIZE));
+
+  /**
+   * The fields of a message that are collected while parsing.
+   */
+  private static final class Fields {
+
+    private MessageType type;
+    private String nick;
+    private String content;
+    private String time;
+    private String room;
+    private String to;
+    private String format;
+    private boolean heartbeat;
+    private long id;
+  }
+
+  /**
+   * Parse a single message.
+   *
+   * @param line the encoded message between the position and the limit of the buffer, without
+   *             the separator; the buffer itself is not modified
+   * @return the parsed message
+   * @throws ProtocolException if the bytes are not a valid message
+   */
+  @Override
+  public Message decode(ByteBuffer line) throws ProtocolException {
+    Fields fields = new Fields();
+    int end = line.limit();
+    int i = skipWhitespace(line, line.position(), end);
+    i = expect(line, i, end, '{');
+    i = skipWhitespace(line, i, end);
+    if (i < end && line.get(i) == '}') {
+      i++;
+    } else {
+      while (true) {
+        i = expect(line, i, end, '"');
+        int keyStart = i;
+        i = endOfString(line, i, end);
+        int keyEnd = i - 1;
+        i = expect(line, skipWhitespace(line, i, end), end, ':');
+        i = skipWhitespace(line, i, end);
+        i = parseValue(line, i, end, keyStart, keyEnd, fields);
+        i = skipWhitespace(line, i, end);
+        if (i < end && line.get(i) == ',') {
+          i = skipWhitespace(line, i + 1, end);
+          continue;
+        }
+        i = expect(line, i, end, '}');
+        break;
+      }
+    }
+    if (skipWhitespace(line, i, end) != end) {
+      throw new ProtocolException("Unexpected data after message");
+    }
+    return toMessage(fields);
+  }
+
+  /**
+   * Parse a frame consisting of a message and its newline separator.
+   *
+   * @param frame the frame between the position and the limit of the buffer
+   * @return the parsed message
+   * @throws ProtocolException if the bytes are not a valid frame
+   */
+  @Override
+  public Message decodeFrame(ByteBuffer frame) throws ProtocolException {
+    int end = frame.limit();
+    if (end == frame.position() || frame.get(end - 1) != '\n') {
+      throw new ProtocolException("Frame without separator");
+    }
+    return decode(frame.duplicate().limit(end - 1));
+  }
+
+  /**
+   * Parse a single message from a string.
+   *
+   * @param line the message without separator
+   * @return the parsed message
+   * @throws ProtocolException if the string is not a valid message
+   */
+  public Message decode(String line) throws ProtocolException {
+    return decode(ByteBuffer.wrap(line.getBytes(UTF_8)));
+  }
+
+  /**
+   * Parse the value of a field and store it if the field is known.
+   *
+   * @return index after the value
+   */
+  private static int parseValue(ByteBuffer line, int i, int end, int keyStart, int keyEnd,
+      Fields fields) throws ProtocolException {
+    if (i >= end) {
+      throw new ProtocolException("Missing value");
+    }
+    if (line.get(i) != '"') {
+      int valueEnd = skipValue(line, i, end);
+      if (equalsBytes(line, keyStart, keyEnd, ID)) {
+        fields.id = parseId(line, i, valueEnd);
+      } else if (equalsBytes(line, keyStart, keyEnd, HEARTBEAT)) {
+        fields.heartbeat = isTrue(line, i, valueEnd);
+      }
+      return valueEnd;
+    }
+    int valueStart = i + 1;
+    int valueEnd = endOfString(line, valueStart, end) - 1;
+    if (equalsBytes(line, keyStart, keyEnd, TYPE)) {
+      fields.type = MessageType.fromEncodedName(line, valueStart, valueEnd);
+      if (fields.type == null) {
+        throw new ProtocolException(
+            "Unknown type of message: " + decodeString(line, valueStart, valueEnd));
+      }
+    } else if (equalsBytes(line, keyStart, keyEnd, NICK)) {
+      fields.nick = decodeString(line, valueStart, valueEnd);
+    } else if (equalsBytes(line, keyStart, keyEnd, CONTENT)) {
+      fields.content = decodeString(line, valueStart, valueEnd);
+    } else if (equalsBytes(line, keyStart, keyEnd, TIME)) {
+      fields.time = decodeString(line, valueStart, valueEnd);
+    } else if (equalsBytes(line, keyStart, keyEnd, ROOM)) {
+      fields.room = decodeString(line, valueStart, valueEnd);
+    } else if (equalsBytes(line, keyStart, keyEnd, TO)) {
+      fields.to = decodeString(line, valueStart, valueEnd);
+    } else if (equalsBytes(line, keyStart, keyEnd, FORMAT)) {
+      fields.format = decodeString(line, valueStart, valueEnd);
+    }
+    return valueEnd + 1;
+  }
+
+  /**
+   * Create the message record from the collected fields.
+   */
+  private static Message toMessage(Fields fields) throws ProtocolException {
+    if (fields.type == null) {
+      throw new ProtocolException("Message without type");
+    }
+    return switch (fields.type) {
+      case LOGIN -> new Login(require(fields.nick, "nick"), formatOf(fields.format),
+          fields.heartbeat);
+      case LOGIN_SUCCESS -> new LoginSuccess();
+      case LOGIN_FAILED -> new LoginFailed();
+      case USER_JOINED -> new UserJoined(require(fields.nick, "nick"));
+      case USER_LEFT -> new UserLeft(require(fields.nick, "nick"));
+      case POST_MESSAGE -> new PostMessage(require(fields.content, "content"));
+      case MESSAGE -> new TextMessage(require(fields.time, "time"), require(fields.nick, "nick"),
+          require(fields.content, "content"), fields.id);
+      case JOIN_ROOM -> new JoinRoom(require(fields.room, "room"));
+      case LEAVE_ROOM -> new LeaveRoom(require(fields.room, "room"));
+      case POST_ROOM_MESSAGE -> new PostRoomMessage(require(fields.room, "room"),
+          require(fields.content, "content"));
+      case ROOM_MESSAGE -> new RoomMessage(require(fields.time, "time"),
+          require(fields.nick, "nick"), require(fields.room, "room"),
+          require(fields.content, "content"), fields.id);
+      case PING -> new Ping();
+      case PONG -> new Pong();
+      case SHUTDOWN -> new Shutdown();
+      case POST_DIRECT_MESSAGE -> new PostDirectMessage(require(fields.to, "to"),
+          require(fields.content, "content"));
+      case DIRECT_MESSAGE -> new DirectMessage(require(fields.time, "time"),
+          require(fields.nick, "nick"), require(fields.content, "content"));
+    };
+  }
+
+  /**
+   * Return the requested format of a login; unknown formats fall back to JSON.
+   */
+  static WireFormat formatOf(String name) {
+    WireFormat format = name == null ? null : WireFormat.fromName(name);
+    return format == null ? WireFormat.JSON : format;
+  }
+
+  private static String require(String value, String field) throws ProtocolException {
+    if (value == null) {
+      throw new ProtocolException("Missing field: " + field);
+    }
+    return value;
+  }
+
+  private static int skipWhitespace(ByteBuffer line, int i, int end) {
+    while (i < end) {
+      byte b = line.get(i);
+      if (b != ' ' && b != '\t' && b != '\r' && b != '\n') {
+        break;
+      }
+      i++;
+    }
+    return i;
+  }
+
+  private static int expect(ByteBuffer line, int i, int end, char expected)
+      throws ProtocolException {
+    if (i >= end || line.get(i) != expected) {
+      throw new ProtocolException("Expected '" + expected + "' at index " + i);
+    }
+    return i + 1;
+  }
+
+  /**
+   * Find the end of a string whose opening quote has already been consumed.
+   *
+   * @return index after the closing quote
+   */
+  private static int endOfString(ByteBuffer line, int i, int end) throws ProtocolException {
+    while (i < end) {
+      byte b = line.get(i);
+      if (b == '"') {
+        return i + 1;
+      }
+      i += b == '\\' ? 2 : 1;
+    }
+    throw new ProtocolException("Unterminated string");
+  }
+
+  /**
+   * Check whether a literal value is {@code true}.
+   */
+  private static boolean isTrue(ByteBuffer line, int start, int end) {
+    while (end > start && skipWhitespace(line, end - 1, end) == end) {
+      end--;
+    }
+    return equalsBytes(line, start, end, TRUE);
+  }
+
+  /**
+   * Parse a message id, a non-negative integer.
+   */
+  private static long parseId(ByteBuffer line, int start, int end) throws ProtocolException {
+    while (end > start && skipWhitespace(line, end - 1, end) == end) {
+      end--;
+    }
+    if (start == end || end - start > 18) {
+      throw new ProtocolException("Invalid message id");
+    }
+    long id = 0;
+    for (int i = start; i < end; i++) {
+      byte b = line.get(i);
+      if (b < '0' || b > '9') {
+        throw new ProtocolException("Invalid message id");
+      }
+      id = id * 10 + (b - '0');
+    }
+    return id;
+  }
+
+  /**
+   * Skip a value that is not a string: a number, literal, object or array.
+   *
+   * @return index after the value
+   */
+  private static int skipValue(ByteBuffer line, int i, int end) throws ProtocolException {
+    int depth = 0;
+    while (i < end) {
+      byte b = line.get(i);
+      if (b == '"') {
+        i = endOfString(line, i + 1, end);
+        continue;
+      }
+      if (b == '{' || b == '[') {
+        depth++;
+      } else if (b == '}' || b == ']') {
+        if (depth == 0) {
+          return i;
+        }
+        depth--;
+      } else if (b == ',' && depth == 0) {
+        return i;
+      }
+      i++;
+    }
+    if (depth != 0) {
+      throw new ProtocolException("Unterminated value");
+    }
+    return i;
+  }
+
+  /**
+   * Decode the content of a string value, resolving escape sequences.
+   */
+  private static String decodeString(ByteBuffer line, int start, int end)
+      throws ProtocolException {
+    int escape = start;
+    while (escape < end && line.get(escape) != '\\') {
+      escape++;
+    }
+    if (escape == end) {
+      return utf8(line, start, end);
+    }
+    StringBuilder builder = new StringBuilder(end - start);
+    int runStart = start;
+    int i = escape;
+    while (i < end) {
+      if (line.get(i) != '\\') {
+        i++;
+        continue;
+      }
+      builder.append(utf8(line, runStart, i));
+      if (i + 1 >= end) {
+        throw new ProtocolException("Incomplete escape sequence");
+      }
+      byte escaped = line.get(i + 1);
+      i += 2;
+      switch (escaped) {
+        case '"', '\\', '/' -> builder.append((char) escaped);
+        case 'b' -> builder.append('\b');
+        case 'f' -> builder.append('\f');
+        case 'n' -> builder.append('\n');
+        case 'r' -> builder.append('\r');
+        case 't' -> builder.append('\t');
+        case 'u' -> {
+          if (i + 4 > end) {
+            throw new ProtocolException("Incomplete unicode escape");
+          }
+          int code = 0;
+          for (int k = 0; k < 4; k++) {
+            int digit = Character.digit(line.get(i + k), 16);
+            if (digit < 0) {
+              throw new ProtocolException("Invalid unicode escape");
+            }
+            code = code * 16 + digit;
+          }
+          builder.append((char) code);
+          i += 4;
+        }
+        default -> throw new ProtocolException("Invalid escape sequence: \\" + (char) escaped);
+      }
+      runStart = i;
+    }
+    builder.append(utf8(line, runStart, end));
+    return builder.toString();
+  }
+
+  private static String utf8(ByteBuffer line, int start, int end) {
+    if (line.hasArray()) {
+      return new String(line.array(), line.arrayOffset() + start, end - start, UTF_8);
+    }
+    byte[] bytes = new byte[end - start];
+    line.get(start, bytes);
+    return new String(bytes, UTF_8);
+  }
+
+  /**
+   * Compare a range of a buffer with the given bytes.
+   *
+   * @return true, if the range holds exactly the expected bytes
+   */
+  static boolean equalsBytes(ByteBuffer buffer, int start, int end, byte[] expected) {
+    if (end - start != expected.length) {
+      return false;
+    }
+    for (int i = 0; i < expected.length; i++) {
+      if (buffer.get(start + i) != expected[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Encode a message into a frame that is ready to be sent: the JSON object followed by a newline.
+   * Frames that do not fit into the scratch buffer of the thread are encoded into a larger buffer,
+   * which is left to the garbage collector afterwards, so a single large message does not pin
+   * memory to the thread for good.
+   *
+   * @param message the message to be encoded
+   * @return read-only buffer holding exactly the frame
+   */
+  @Override
+  public ByteBuffer encodeFrame(Message message) {
+    ByteBuffer scratch = SCRATCH.get();
+    while (true) {
+      scratch.clear();
+      try {
+        encode(message, scratch);
+        scratch.put((byte) '\n');
+        break;
+      } catch (BufferOverflowException e) {
+        scratch = ByteBuffer.allocate(scratch.capacity() * 2);
+      }
+    }
+    byte[] frame = Arrays.copyOf(scratch.array(), scratch.position());
+    return ByteBuffer.wrap(frame).asReadOnlyBuffer();
+  }
+
+  /**
+   * Encode a message as JSON object into the given buffer.
+   *
+   * @param message the message to be encoded
+   * @param out     the buffer the JSON object is appended to
+   * @throws BufferOverflowException if the buffer is too small
+   */
+  public void encode(Message message, ByteBuffer out) {
+    out.put((byte) '{');
+    writeField(out, TYPE, message.getType().getEncodedName());
+    if (message instanceof Login login) {
+      writeField(out, NICK, login.nick());
+      if (login.format() != WireFormat.JSON) {
+        writeField(out, FORMAT, login.format().getName());
+      }
+      if (login.heartbeat()) {
+        writeKey(out, HEARTBEAT);
+        out.put(TRUE);
+      }
+    } else if (message instanceof UserJoined joined) {
+      writeField(out, NICK, joined.nick());
+    } else if (message instanceof UserLeft left) {
+      writeField(out, NICK, left.nick());
+    } else if (message instanceof PostMessage post) {
+      writeField(out, CONTENT, post.content());
+    } else if (message instanceof TextMessage text) {
+      if (text.id() != 0) {
+        writeKey(out, ID);
+        writeNumber(out, text.id());
+      }
+      writeField(out, TIME, text.time());
+      writeField(out, NICK, text.nick());
+      writeField(out, CONTENT, text.content());
+    } else if (message instanceof JoinRoom join) {
+      writeField(out, ROOM, join.room());
+    } else if (message instanceof LeaveRoom leave) {
+      writeField(out, ROOM, leave.room());
+    } else if (message instanceof PostRoomMessage post) {
+      writeField(out, ROOM, post.room());
+      writeField(out, CONTENT, post.content());
+    } else if (message instanceof RoomMessage text) {
+      if (text.id() != 0) {
+        writeKey(out, ID);
+        writeNumber(out, text.id());
+      }
+      writeField(out, TIME, text.time());
+      writeField(out, NICK, text.nick());
+      writeField(out, ROOM, text.room());
+      writeField(out, CONTENT, text.content());
+    } else if (message instanceof PostDirectMessage post) {
+      writeField(out, TO, post.to());
+      writeField(out, CONTENT, post.content());
+    } else if (message instanceof DirectMessage text) {
+      writeField(out, TIME, text.time());
+      writeField(out, NICK, text.nick());
+      writeField(out, CONTENT, text.content());
+    }
+    out.put((byte) '}');
+  }
+
+  private static void writeField(ByteBuffer out, byte[] key, byte[] encodedValue) {
+    writeKey(out, key);
+    out.put((byte) '"').put(encodedValue).put((byte) '"');
+  }
+
+  private static void writeField(ByteBuffer out, byte[] key, String value) {
+    writeKey(out, key);
+    writeString(out, value);
+  }
+
+  private static void writeNumber(ByteBuffer out, long value) {
+    String digits = Long.toString(value);
+    for (int i = 0; i < digits.length(); i++) {
+      out.put((byte) digits.charAt(i));
+    }
+  }
+
+  private static void writeKey(ByteBuffer out, byte[] key) {
+    if (out.get(out.position() - 1) != '{') {
+      out.put((byte) ',');
+    }
+    out.put((byte) '"').put(key).put((byte) '"').put((byte) ':');
+  }
+
+  /**
+   * Write a string as quoted JSON string, escaping quotes, backslashes and control characters and
+   * encoding everything else as UTF-8.
+   */
+  private static void writeString(ByteBuffer out, String value) {
+    out.put((byte) '"');
+    int length = value.length();
+    for (int i = 0; i < length; i++) {
+      char c = value.charAt(i);
+      if (c == '"' || c == '\\') {
+        out.put((byte) '\\').put((byte) c);
+      } else if (c < 0x20) {
+        switch (c) {
+          case '\b' -> out.put((byte) '\\').put((byte) 'b');
+          case '\f' -> out.put((byte) '\\').put((byte) 'f');
+          case '\n' -> out.put((byte) '\\').put((byte) 'n');
+          case '\r' -> out.put((byte) '\\').put((byte) 'r');
+          case '\t' -> out.put((byte) '\\').put((byte) 't');
+          default -> writeUnicodeEscape(out, c);
+        }
+      } else if (c < 0x80) {
+        out.put((byte) c);
+      } else if (c < 0x800) {
+        out.put((byte) (0xc0 | c >> 6)).put((byte) (0x80 | c & 0x3f));
+      } else if (Character.isHighSurrogate(c) && i + 1 < length
+          && Character.isLowSurrogate(value.charAt(i + 1))) {
+        int codePoint = Character.toCodePoint(c, value.charAt(++i));
+        out.put((byte) (0xf0 | codePoint >> 18))
+            .put((byte) (0x80 | codePoint >> 12 & 0x3f))
+            .put((byte) (0x80 | codePoint >> 6 & 0x3f))
+            .put((byte) (0x80 | codePoint & 0x3f));
+      } else if (Character.isSurrogate(c)) {
+        // a lone surrogate has no UTF-8 representation, but survives as escape sequence
+        writeUnicodeEscape(out, c);
+      } else {
+        out.put((byte) (0xe0 | c >> 12))
+            .put((byte) (0x80 | c >> 6 & 0x3f))
+            .put((byte) (0x80 | c & 0x3f));
+      }
+    }
+    out.put((byte) '"');
+  }
+
+  private static void writeUnicodeEscape(ByteBuffer out, char c) {
+    out.put((byte) '\\').put((byte) 'u')
+        .put(HEX[c >> 12 & 0xf]).put(HEX[c >> 8 & 0xf]).put(HEX[c >> 4 & 0xf]).put(HEX[c & 0xf]);
+  }
+}
@@ -0,0 +1,16 @@
+package chat.protocol;
+
+/**
+ * Request of a client to no longer receive the messages of a room.
+ *
+ * <pre>
+ * { "type" : "leave room", "room" : "&lt;room&gt;" }
+ * </pre>
+ */
+public record LeaveRoom(String room) implements Message {
+
+  @Override
+  public MessageType getType() {
+    return MessageType.LEAVE_ROOM;
+  }
+}
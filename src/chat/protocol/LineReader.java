@@ -0,0 +1,110 @@
+package chat.protocol;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Splits a blocking input stream into newline-delimited or length-prefixed frames without decoding
+ * them. Both kinds can follow each other on the same stream, as when a connection switches its
+ * {@link WireFormat} after the login. The returned buffers are views of an internal buffer that is
+ * reused, so the bytes of a frame are only valid until the next call to {@link #readLine()} or
+ * {@link #readFrame()}.
+ */
+public class LineReader {
+
+  public static final int MAX_LINE_LENGTH = 1024 * 1024;
+  private static final int INITIAL_BUFFER_SIZE = 8 * 1024;
+
+  private final InputStream input;
+  private byte[] buffer;
+  private int start;
+  private int end;
+
+  public LineReader(InputStream input) {
+    this.input = input;
+    this.buffer = new byte[INITIAL_BUFFER_SIZE];
+  }
+
+  /**
+   * Read the next line.
+   *
+   * @return the bytes of the line without its separator, or null at the end of the stream
+   * @throws ProtocolException if a line exceeds {@link #MAX_LINE_LENGTH}
+   * @throws IOException       if reading from the stream fails
+   */
+  public ByteBuffer readLine() throws IOException {
+    int scanned = start;
+    while (true) {
+      for (int i = scanned; i < end; i++) {
+        if (buffer[i] == '\n') {
+          int lineEnd = i > start && buffer[i - 1] == '\r' ? i - 1 : i;
+          ByteBuffer line = ByteBuffer.wrap(buffer, start, lineEnd - start);
+          start = i + 1;
+          return line;
+        }
+      }
+      scanned = end - start;
+      if (!fill(end - start + 1)) {
+        return null;
+      }
+    }
+  }
+
+  /**
+   * Read the next frame of the {@link BinaryCodec binary format}.
+   *
+   * @return the body of the frame without its length prefix, or null at the end of the stream
+   * @throws ProtocolException if the length prefix is invalid
+   * @throws IOException       if reading from the stream fails
+   */
+  public ByteBuffer readFrame() throws IOException {
+    while (end - start < BinaryCodec.PREFIX_BYTES) {
+      if (!fill(BinaryCodec.PREFIX_BYTES)) {
+        return null;
+      }
+    }
+    int length = ByteBuffer.wrap(buffer, start, BinaryCodec.PREFIX_BYTES).getInt();
+    if (length < 0 || length > BinaryCodec.MAX_BODY_LENGTH) {
+      throw new ProtocolException("Invalid frame length: " + length);
+    }
+    int frameLength = BinaryCodec.PREFIX_BYTES + length;
+    while (end - start < frameLength) {
+      if (!fill(frameLength)) {
+        return null;
+      }
+    }
+    ByteBuffer body = ByteBuffer.wrap(buffer, start + BinaryCodec.PREFIX_BYTES, length);
+    start += frameLength;
+    return body;
+  }
+
+  /**
+   * Move the unread bytes to the front of the buffer, grow it if it cannot hold the given number
+   * of unread bytes and read more bytes from the stream.
+   *
+   * @param needed the number of unread bytes the buffer must be able to hold
+   * @return false at the end of the stream
+   */
+  private boolean fill(int needed) throws IOException {
+    if (start > 0) {
+      System.arraycopy(buffer, start, buffer, 0, end - start);
+      end -= start;
+      start = 0;
+    }
+    if (needed > buffer.length) {
+      if (buffer.length >= MAX_LINE_LENGTH) {
+        throw new ProtocolException("Line exceeds " + MAX_LINE_LENGTH + " bytes");
+      }
+      buffer = Arrays.copyOf(buffer, Math.min(MAX_LINE_LENGTH,
+          Math.max(buffer.length * 2, Integer.highestOneBit(needed - 1) << 1)));
+    }
+    int read = input.read(buffer, end, buffer.length - end);
+    if (read < 0) {
+      return false;
+    }
+    end += read;
+    return true;
+  }
+}
@@ -0,0 +1,38 @@
+package chat.protocol;
+
+/**
+ * Login request of a client. The optional format asks the server to switch the connection to
+ * another {@link WireFormat}; a server that does not know the format keeps using JSON. With the
+ * optional heartbeat, the client declares that it answers a {@link Ping} with a {@link Pong}, so
+ * the server may disconnect it once it stops answering. Clients without it are never pinged.
+ *
+ * <pre>
+ * { "type" : "login", "nick" : "&lt;nick&gt;", "format" : "binary", "heartbeat" : true }
+ * </pre>
+ */
+public record Login(String nick, WireFormat format, boolean heartbeat) implements Message {
+
+  /**
+   * Create a login request that keeps the connection in JSON, without heartbeat.
+   *
+   * @param nick the requested nickname
+   */
+  public Login(String nick) {
+    this(nick, WireFormat.JSON);
+  }
+
+  /**
+   * Create a login request without heartbeat.
+   *
+   * @param nick   the requested nickname
+   * @param format the requested format
+   */
+  public Login(String nick, WireFormat format) {
+    this(nick, format, false);
+  }
+
+  @Override
+  public MessageType getType() {
+    return MessageType.LOGIN;
+  }
+}
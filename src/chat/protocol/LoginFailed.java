@@ -0,0 +1,16 @@
+package chat.protocol;
+
+/**
+ * Answer to a login with a nickname that is already taken.
+ *
+ * <pre>
+ * { "type" : "login failed" }
+ * </pre>
+ */
+public record LoginFailed() implements Message {
+
+  @Override
+  public MessageType getType() {
+    return MessageType.LOGIN_FAILED;
+  }
+}
@@ -0,0 +1,16 @@
+package chat.protocol;
+
+/**
+ * Answer to a successful login.
+ *
+ * <pre>
+ * { "type" : "login success" }
+ * </pre>
+ */
+public record LoginSuccess() implements Message {
+
+  @Override
+  public MessageType getType() {
+    return MessageType.LOGIN_SUCCESS;
+  }
+}
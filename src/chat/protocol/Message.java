@@ -0,0 +1,15 @@
+package chat.protocol;
+
+/**
+ * A single message of the chat protocol, sent either from a client to the server or the other way
+ * round.
+ */
+public interface Message {
+
+  /**
+   * The type of the message as it appears in the {@code type} field on the wire.
+   *
+   * @return the type of this message
+   */
+  MessageType getType();
+}
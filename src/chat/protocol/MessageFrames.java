@@ -0,0 +1,76 @@
+package chat.protocol;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The frames of a single message in every {@link WireFormat}. A frame is only encoded when the
+ * first recipient needs it and then shared with all others, so a broadcast to recipients with
+ * mixed formats encodes each format at most once.
+ */
+public final class MessageFrames {
+
+  private static final int FORMATS = WireFormat.values().length;
+
+  private final ByteBuffer[] frames;
+  private Message message;
+
+  /**
+   * Create the frames of a message that has not been encoded yet.
+   *
+   * @param message the message
+   */
+  public MessageFrames(Message message) {
+    this.frames = new ByteBuffer[FORMATS];
+    this.message = message;
+  }
+
+  /**
+   * Create the frames of a message that is only known in encoded form. The message is decoded
+   * once another format is requested.
+   *
+   * @param format the format of the frame
+   * @param frame  the complete frame, which must not be modified afterwards
+   * @return the frames of the message
+   */
+  public static MessageFrames ofEncoded(WireFormat format, ByteBuffer frame) {
+    MessageFrames frames = new MessageFrames(null);
+    frames.frames[format.ordinal()] = frame;
+    return frames;
+  }
+
+  /**
+   * Return the frame in the given format, encoding it on first use.
+   *
+   * @param format the format
+   * @return read-only frame that is shared by all callers
+   * @throws ProtocolException if the message is only known in another format and that frame is
+   *                           not valid
+   */
+  public synchronized ByteBuffer get(WireFormat format) throws ProtocolException {
+    ByteBuffer frame = frames[format.ordinal()];
+    if (frame == null) {
+      frame = format.getCodec().encodeFrame(getMessage());
+      frames[format.ordinal()] = frame;
+    }
+    return frame;
+  }
+
+  /**
+   * Return the message, decoding it from one of the known frames if necessary.
+   *
+   * @return the message
+   * @throws ProtocolException if the known frame is not valid
+   */
+  public synchronized Message getMessage() throws ProtocolException {
+    if (message == null) {
+      for (WireFormat format : WireFormat.values()) {
+        ByteBuffer frame = frames[format.ordinal()];
+        if (frame != null) {
+          message = format.getCodec().decodeFrame(frame);
+          break;
+        }
+      }
+    }
+    return message;
+  }
+}
@@ -0,0 +1,83 @@
+package chat.protocol;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The types of messages of the chat protocol, together with their names on the wire. The binary
+ * format identifies a type by its position in this enum, so new types are only ever appended.
+ */
+public enum MessageType {
+
+  LOGIN("login"),
+  LOGIN_SUCCESS("login success"),
+  LOGIN_FAILED("login failed"),
+  USER_JOINED("user joined"),
+  USER_LEFT("user left"),
+  POST_MESSAGE("post message"),
+  MESSAGE("message"),
+  JOIN_ROOM("join room"),
+  LEAVE_ROOM("leave room"),
+  POST_ROOM_MESSAGE("post room message"),
+  ROOM_MESSAGE("room message"),
+  PING("ping"),
+  PONG("pong"),
+  SHUTDOWN("shutdown"),
+  POST_DIRECT_MESSAGE("post direct message"),
+  DIRECT_MESSAGE("direct message");
+
+  private static final MessageType[] VALUES = values();
+
+  private final String jsonName;
+  private final byte[] encodedName;
+
+  MessageType(String jsonName) {
+    this.jsonName = jsonName;
+    this.encodedName = jsonName.getBytes(UTF_8);
+  }
+
+  public String getJsonName() {
+    return jsonName;
+  }
+
+  byte[] getEncodedName() {
+    return encodedName;
+  }
+
+  /**
+   * Return the tag that identifies the type in the binary format.
+   *
+   * @return the tag
+   */
+  byte getTag() {
+    return (byte) ordinal();
+  }
+
+  /**
+   * Find the type with the given tag of the binary format.
+   *
+   * @param tag the tag
+   * @return the matching type, or null if there is none
+   */
+  static MessageType fromTag(int tag) {
+    return tag >= 0 && tag < VALUES.length ? VALUES[tag] : null;
+  }
+
+  /**
+   * Find the type whose UTF-8 encoded name equals the given bytes, without decoding them.
+   *
+   * @param buffer the buffer holding the name
+   * @param start  index of the first byte of the name
+   * @param end    index after the last byte of the name
+   * @return the matching type, or null if there is none
+   */
+  static MessageType fromEncodedName(ByteBuffer buffer, int start, int end) {
+    for (MessageType type : VALUES) {
+      if (JsonCodec.equalsBytes(buffer, start, end, type.encodedName)) {
+        return type;
+      }
+    }
+    return null;
+  }
+}
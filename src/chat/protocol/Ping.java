@@ -0,0 +1,17 @@
+package chat.protocol;
+
+/**
+ * Heartbeat that asks the other side to prove it is still connected. Sent by the server to
+ * clients that have been silent for a while; the receiver answers with a {@link Pong}.
+ *
+ * <pre>
+ * { "type" : "ping" }
+ * </pre>
+ */
+public record Ping() implements Message {
+
+  @Override
+  public MessageType getType() {
+    return MessageType.PING;
+  }
+}
@@ -0,0 +1,16 @@
+package chat.protocol;
+
+/**
+ * Answer to a {@link Ping}.
+ *
+ * <pre>
+ * { "type" : "pong" }
+ * </pre>
+ */
+public record Pong() implements Message {
+
+  @Override
+  public MessageType getType() {
+    return MessageType.PONG;
+  }
+}
@@ -0,0 +1,18 @@
+package chat.protocol;
+
+/**
+ * Chat message of a client to a single other user, addressed by nickname.
+ *
+ * <pre>
+ * { "type" : "post direct message",
+ *   "to" : "&lt;recipient&gt;",
+ *   "content" : "&lt;message content&gt;" }
+ * </pre>
+ */
+public record PostDirectMessage(String to, String content) implements Message {
+
+  @Override
+  public MessageType getType() {
+    return MessageType.POST_DIRECT_MESSAGE;
+  }
+}
@@ -0,0 +1,16 @@
+package chat.protocol;
+
+/**
+ * Chat message of a client.
+ *
+ * <pre>
+ * { "type" : "post message", "content" : "&lt;message content&gt;" }
+ * </pre>
+ */
+public record PostMessage(String content) implements Message {
+
+  @Override
+  public MessageType getType() {
+    return MessageType.POST_MESSAGE;
+  }
+}
@@ -0,0 +1,16 @@
+package chat.protocol;
+
+/**
+ * Chat message of a client to the members of a room it has joined.
+ *
+ * <pre>
+ * { "type" : "post room message", "room" : "&lt;room&gt;", "content" : "&lt;message content&gt;" }
+ * </pre>
+ */
+public record PostRoomMessage(String room, String content) implements Message {
+
+  @Override
+  public MessageType getType() {
+    return MessageType.POST_ROOM_MESSAGE;
+  }
+}
@@ -0,0 +1,15 @@
+package chat.protocol;
+
+import java.io.IOException;
+
+/**
+ * Signals that a peer has sent data that does not follow the chat protocol.
+ */
+public class ProtocolException extends IOException {
+
+  private static final long serialVersionUID = 1L;
+
+  public ProtocolException(String message) {
+    super(message);
+  }
+}
@@ -0,0 +1,38 @@
+package chat.protocol;
+
+/**
+ * Chat message distributed by the server to the other members of a room. Messages of the default
+ * room are distributed as {@link TextMessage} instead.
+ *
+ * <pre>
+ * { "type" : "room message",
+ *   "id" : &lt;message id&gt;,
+ *   "time" : "&lt;day&gt;.&lt;month&gt;.&lt;year&gt; &lt;hour&gt;:&lt;minute&gt;:&lt;second&gt;",
+ *   "nick" : "&lt;sender&gt;",
+ *   "room" : "&lt;room&gt;",
+ *   "content" : "&lt;message content&gt;" }
+ * </pre>
+ *
+ * <p>The id is only present if the server orders the messages through its sequencer, and is
+ * numbered together with the {@link TextMessage messages} of the default room; 0 stands for no id.
+ */
+public record RoomMessage(String time, String nick, String room, String content, long id)
+    implements Message {
+
+  /**
+   * Create a message without id.
+   *
+   * @param time    the time the message was sent
+   * @param nick    the nickname of the sender
+   * @param room    the room the message was posted to
+   * @param content the content of the message
+   */
+  public RoomMessage(String time, String nick, String room, String content) {
+    this(time, nick, room, content, 0);
+  }
+
+  @Override
+  public MessageType getType() {
+    return MessageType.ROOM_MESSAGE;
+  }
+}
@@ -0,0 +1,17 @@
+package chat.protocol;
+
+/**
+ * Notice that the server is shutting down and will close the connection once the messages sent
+ * before have been delivered.
+ *
+ * <pre>
+ * { "type" : "shutdown" }
+ * </pre>
+ */
+public record Shutdown() implements Message {
+
+  @Override
+  public MessageType getType() {
+    return MessageType.SHUTDOWN;
+  }
+}
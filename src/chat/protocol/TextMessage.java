@@ -0,0 +1,37 @@
+package chat.protocol;
+
+/**
+ * Chat message distributed by the server to all other clients.
+ *
+ * <pre>
+ * { "type" : "message",
+ *   "id" : &lt;message id&gt;,
+ *   "time" : "&lt;day&gt;.&lt;month&gt;.&lt;year&gt; &lt;hour&gt;:&lt;minute&gt;:&lt;second&gt;",
+ *   "nick" : "&lt;sender&gt;",
+ *   "content" : "&lt;message content&gt;" }
+ * </pre>
+ *
+ * <p>The id is only present if the server orders the messages through its sequencer. Ids then
+ * increase by one per message in the order every client receives them; 0 stands for no id. The
+ * ids are shared with the {@link RoomMessage room messages}, so a client sees gaps where messages
+ * of rooms it has not joined were sent. Only posts are ordered: joins, leaves and direct messages
+ * have no id and may be received in a different order relative to the posts.
+ */
+public record TextMessage(String time, String nick, String content, long id) implements Message {
+
+  /**
+   * Create a message without id.
+   *
+   * @param time    the time the message was sent
+   * @param nick    the nickname of the sender
+   * @param content the content of the message
+   */
+  public TextMessage(String time, String nick, String content) {
+    this(time, nick, content, 0);
+  }
+
+  @Override
+  public MessageType getType() {
+    return MessageType.MESSAGE;
+  }
+}
@@ -0,0 +1,16 @@
+package chat.protocol;
+
+/**
+ * Notification that a user has joined the chat.
+ *
+ * <pre>
+ * { "type" : "user joined", "nick" : "&lt;nick&gt;" }
+ * </pre>
+ */
+public record UserJoined(String nick) implements Message {
+
+  @Override
+  public MessageType getType() {
+    return MessageType.USER_JOINED;
+  }
+}
@@ -0,0 +1,16 @@
+package chat.protocol;
+
+/**
+ * Notification that a user has left the chat.
+ *
+ * <pre>
+ * { "type" : "user left", "nick" : "&lt;nick&gt;" }
+ * </pre>
+ */
+public record UserLeft(String nick) implements Message {
+
+  @Override
+  public MessageType getType() {
+    return MessageType.USER_LEFT;
+  }
+}
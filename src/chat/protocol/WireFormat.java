@@ -0,0 +1,63 @@
+package chat.protocol;
+
+/**
+ * The formats a connection can exchange messages in. Every connection starts with
+ * newline-delimited JSON; a client may ask for another format in its {@link Login}, which then
+ * applies to all further frames in both directions, starting with the answer to the login.
+ */
+public enum WireFormat {
+
+  JSON("json", new JsonCodec(), false),
+  BINARY("binary", new BinaryCodec(), true),
+  DEFLATE("deflate", new DeflateCodec(), true);
+
+  private static final WireFormat[] VALUES = values();
+
+  private final String name;
+  private final Codec codec;
+  private final boolean lengthPrefixed;
+
+  WireFormat(String name, Codec codec, boolean lengthPrefixed) {
+    this.name = name;
+    this.codec = codec;
+    this.lengthPrefixed = lengthPrefixed;
+  }
+
+  /**
+   * Return the name of the format as it appears in the {@code format} field of a login.
+   *
+   * @return the name of the format
+   */
+  public String getName() {
+    return name;
+  }
+
+  public Codec getCodec() {
+    return codec;
+  }
+
+  /**
+   * Return whether the frames start with their length, as read by
+   * {@link LineReader#readFrame()}, instead of ending with a newline.
+   *
+   * @return true, if the frames are length-prefixed
+   */
+  public boolean isLengthPrefixed() {
+    return lengthPrefixed;
+  }
+
+  /**
+   * Find the format with the given name.
+   *
+   * @param name the name from a login request
+   * @return the format, or null if the name is unknown
+   */
+  public static WireFormat fromName(String name) {
+    for (WireFormat format : VALUES) {
+      if (format.name.equals(name)) {
+        return format;
+      }
+    }
+    return null;
+  }
+}
@@ -0,0 +1,256 @@
+package chat.server;
+
+import chat.protocol.BinaryCodec;
+import chat.util.BufferPool;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A client connection served by a non-blocking {@link SocketChannel} that is owned by a single
+ * {@link NioReactor}. Outgoing messages may be sent from any thread; they are queued and written
+ * by the reactor whenever the channel accepts more data.
+ *
+ * <p>The read buffer is taken from a {@link BufferPool} shared by all connections and returned as
+ * soon as every received frame has been handled, so an idle connection holds no buffer at all.
+ * Only a partially received frame keeps the buffer, which is replaced by a larger one if the
+ * frame does not fit.
+ */
+public class ChannelClientConnection extends ClientConnection {
+
+  private static final int READ_BUFFER_SIZE = 8 * 1024;
+  private static final int MAX_LINE_LENGTH = 1024 * 1024;
+  private static final int MAX_WRITE_BATCH = 16;
+
+  private final SocketChannel channel;
+  private final NioReactor reactor;
+  private final BufferPool readBuffers;
+  private final AtomicBoolean flushScheduled = new AtomicBoolean();
+  private final ByteBuffer[] writeBatch;
+  private int writeBatchStart;
+  private int writeBatchEnd;
+  private ByteBuffer readBuffer;
+  private SelectionKey key;
+  private boolean paused;
+  private volatile int unwritten;
+
+  /**
+   * Create a connection for an accepted channel.
+   *
+   * @param channel     the non-blocking channel to the client
+   * @param outbound    the queue of outgoing messages
+   * @param rateLimiter the limiter of the incoming messages
+   * @param metrics     the counters of the server
+   * @param reactor     the reactor that serves the channel
+   * @param readBuffers the pool of the read buffers
+   */
+  public ChannelClientConnection(SocketChannel channel, OutboundQueue outbound,
+      RateLimiter rateLimiter, ServerMetrics metrics, NioReactor reactor,
+      BufferPool readBuffers) {
+    super(outbound, rateLimiter, metrics);
+    this.channel = channel;
+    this.reactor = reactor;
+    this.readBuffers = readBuffers;
+    this.writeBatch = new ByteBuffer[MAX_WRITE_BATCH];
+  }
+
+  /**
+   * Create a pool for the read buffers of the connections, with size classes from the initial
+   * buffer size up to the maximum line length.
+   *
+   * @param maxPooledBytes number of bytes the pool keeps for reuse
+   * @return the pool
+   */
+  static BufferPool newReadBufferPool(long maxPooledBytes) {
+    return new BufferPool(READ_BUFFER_SIZE, MAX_LINE_LENGTH, maxPooledBytes);
+  }
+
+  @Override
+  protected boolean mayBlock() {
+    return !NioReactor.isReactorThread();
+  }
+
+  @Override
+  protected void messageQueued() {
+    reactor.requestFlush(this);
+  }
+
+  @Override
+  protected void closeSocket() throws IOException {
+    reactor.connectionClosed();
+    if (key != null) {
+      key.cancel();
+    }
+    channel.close();
+    // the reactor may still be reading into the buffer
+    reactor.execute(this::releaseReadBuffer);
+  }
+
+  private void releaseReadBuffer() {
+    if (readBuffer != null) {
+      readBuffers.release(readBuffer);
+      readBuffer = null;
+    }
+  }
+
+  /**
+   * Mark the connection as scheduled for a flush by its reactor.
+   *
+   * @return false, if it already was scheduled
+   */
+  boolean scheduleFlush() {
+    return !flushScheduled.get() && flushScheduled.compareAndSet(false, true);
+  }
+
+  /**
+   * Note that the reactor has taken the connection from its pending flushes.
+   */
+  void flushDone() {
+    flushScheduled.set(false);
+  }
+
+  void setKey(SelectionKey key) {
+    this.key = key;
+  }
+
+  SocketChannel getChannel() {
+    return channel;
+  }
+
+  /**
+   * Read the available bytes from the channel and hand every complete frame to the handler. The
+   * format of the connection is checked before each frame, as the login may switch it. Only
+   * called on the reactor thread. When the connection exceeds its rate limit, the remaining
+   * frames stay in the buffer and the reactor stops reading from the channel until the limiter
+   * allows the next frame. The buffer goes back to the pool once it holds no unhandled bytes.
+   *
+   * @param handler the handler for the received frames
+   * @return false, when the client has closed the connection
+   * @throws IOException if reading from the channel fails, a frame exceeds the maximum length or
+   *                     is not a valid message
+   */
+  boolean readLines(ChatHandler handler) throws IOException {
+    if (isClosed()) {
+      return false;
+    }
+    if (readBuffer == null) {
+      readBuffer = readBuffers.acquire(READ_BUFFER_SIZE);
+    }
+    int read = channel.read(readBuffer);
+    if (read < 0) {
+      return false;
+    }
+    readBuffer.flip();
+    int frameStart = 0;
+    int scanned = 0;
+    paused = false;
+    while (true) {
+      int bodyStart = frameStart;
+      int bodyEnd;
+      int next;
+      if (getFormat().isLengthPrefixed()) {
+        if (readBuffer.limit() - frameStart < BinaryCodec.PREFIX_BYTES) {
+          break;
+        }
+        int length = readBuffer.getInt(frameStart);
+        if (length < 0 || length > BinaryCodec.MAX_BODY_LENGTH) {
+          throw new IOException("Invalid frame length " + length + ": " + this);
+        }
+        bodyStart = frameStart + BinaryCodec.PREFIX_BYTES;
+        bodyEnd = bodyStart + length;
+        if (bodyEnd > readBuffer.limit()) {
+          break;
+        }
+        next = bodyEnd;
+      } else {
+        int newline = Math.max(scanned, frameStart);
+        while (newline < readBuffer.limit() && readBuffer.get(newline) != '\n') {
+          newline++;
+        }
+        scanned = newline;
+        if (newline == readBuffer.limit()) {
+          break;
+        }
+        bodyEnd = newline > frameStart && readBuffer.get(newline - 1) == '\r'
+            ? newline - 1 : newline;
+        next = newline + 1;
+      }
+      long wait = getRateLimiter().acquire(bodyEnd - bodyStart);
+      if (wait > 0) {
+        paused = true;
+        reactor.pauseReading(this, wait);
+        break;
+      }
+      handler.handleLine(this, readBuffer.duplicate().position(bodyStart).limit(bodyEnd));
+      if (isClosed()) {
+        return false;
+      }
+      frameStart = next;
+    }
+    readBuffer.position(frameStart);
+    readBuffer.compact();
+    if (readBuffer.position() == 0) {
+      releaseReadBuffer();
+    } else if (!readBuffer.hasRemaining() && !paused) {
+      if (readBuffer.capacity() >= MAX_LINE_LENGTH) {
+        throw new IOException("Line exceeds " + MAX_LINE_LENGTH + " bytes: " + this);
+      }
+      ByteBuffer larger = readBuffers.acquire(readBuffer.capacity() * 2);
+      readBuffer.flip();
+      larger.put(readBuffer);
+      readBuffers.release(readBuffer);
+      readBuffer = larger;
+    }
+    return true;
+  }
+
+  /**
+   * Write as many queued messages as the channel accepts, gathering several frames into a single
+   * write. If data remains, the reactor is asked to report when the channel becomes writable
+   * again. Only called on the reactor thread.
+   *
+   * @throws IOException if writing to the channel fails
+   */
+  void flush() throws IOException {
+    while (true) {
+      ByteBuffer next;
+      while (writeBatchEnd < MAX_WRITE_BATCH && (next = getOutbound().poll()) != null) {
+        writeBatch[writeBatchEnd++] = next;
+      }
+      if (writeBatchStart == writeBatchEnd) {
+        key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+        unwritten = 0;
+        return;
+      }
+      channel.write(writeBatch, writeBatchStart, writeBatchEnd - writeBatchStart);
+      while (writeBatchStart < writeBatchEnd && !writeBatch[writeBatchStart].hasRemaining()) {
+        writeBatch[writeBatchStart++] = null;
+      }
+      if (writeBatchStart < writeBatchEnd) {
+        key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+        unwritten = writeBatchEnd - writeBatchStart;
+        return;
+      }
+      writeBatchStart = 0;
+      writeBatchEnd = 0;
+    }
+  }
+
+  /**
+   * Return the pending messages including those taken from the queue that the channel has not
+   * accepted yet.
+   *
+   * @return number of pending messages
+   */
+  @Override
+  public int getPendingMessages() {
+    return super.getPendingMessages() + unwritten;
+  }
+
+  @Override
+  public String toString() {
+    return channel.toString();
+  }
+}
@@ -0,0 +1,987 @@
+package chat.server;
+
+import chat.journal.Journal;
+import chat.logging.Log;
+import chat.logging.Logger;
+import chat.protocol.ChatClock;
+import chat.protocol.DirectMessage;
+import chat.protocol.JoinRoom;
+import chat.protocol.LeaveRoom;
+import chat.protocol.Login;
+import chat.protocol.LoginFailed;
+import chat.protocol.LoginSuccess;
+import chat.protocol.Message;
+import chat.protocol.MessageFrames;
+import chat.protocol.Pong;
+import chat.protocol.PostDirectMessage;
+import chat.protocol.PostMessage;
+import chat.protocol.PostRoomMessage;
+import chat.protocol.ProtocolException;
+import chat.protocol.RoomMessage;
+import chat.protocol.Shutdown;
+import chat.protocol.TextMessage;
+import chat.protocol.UserJoined;
+import chat.protocol.UserLeft;
+import chat.protocol.WireFormat;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The message handling of the chat server. Processes the lines received on any
+ * {@link ClientConnection} and distributes the resulting messages, regardless of the I/O model
+ * that delivered them.
+ *
+ * <p>Chat messages are only distributed to the members of a {@link Room}. Every user is a member
+ * of the default room, whose messages are exchanged as plain {@code message}, so clients that do
+ * not know rooms keep working. The distribution of a room runs on the calling thread or, if room
+ * workers are configured, on the worker the room is assigned to, which keeps the messages of a
+ * room in order while different rooms are served in parallel. With fan-out workers, the members
+ * of every room are partitioned into stripes and a message is delivered to all stripes in
+ * parallel, each on its own thread, so very large rooms are not limited to a single core.
+ *
+ * <p>With a sequencer, the posts of all clients are put into a single order first and distributed
+ * by the sequencer thread, so every client receives the messages in the same order, numbered by
+ * their id. The messages of all rooms share one numbering. Only posts are ordered this way; joins,
+ * leaves and direct messages bypass the sequencer.
+ *
+ * <p>Direct messages bypass the rooms: the recipient is looked up by nickname and only its
+ * connection is touched, regardless of the number of logged-in users.
+ *
+ * <p>Clients may use different {@link WireFormat wire formats}. A distributed message is encoded
+ * once per format that one of its recipients uses; the history, the journal and the cluster keep
+ * the JSON frames.
+ */
+public class ChatHandler {
+
+  private static final Logger LOG = Log.getLogger(ChatHandler.class);
+  private static final MessageFrames PONG = new MessageFrames(new Pong());
+  private static final MessageFrames SHUTDOWN = new MessageFrames(new Shutdown());
+
+  private final UserRegistry users;
+  private final RoomRegistry rooms;
+  private final ExecutorService[] roomWorkers;
+  private final FanOut fanOut;
+  private final Sequencer sequencer;
+  private final AtomicLong deliveries;
+  private final AtomicInteger activeConnections;
+  private final ChatClock clock;
+  private final MessageHistory history;
+  private final Journal journal;
+  private final ServerMetrics metrics;
+  private volatile Cluster cluster;
+  private volatile Heartbeat heartbeat;
+  private volatile boolean draining;
+
+  /**
+   * Creates a handler without any logged-in users that stamps messages with the system time and
+   * keeps no history.
+   */
+  public ChatHandler() {
+    this(new ChatClock(), new MessageHistory(0, 1), null, 0);
+  }
+
+  /**
+   * Creates a handler without any logged-in users.
+   *
+   * @param clock       the clock used to stamp the distributed messages
+   * @param history     the recent events replayed to newly logged-in clients
+   * @param journal     the journal that keeps the events across restarts, or null
+   * @param roomWorkers number of threads the rooms are distributed over, 0 distributes messages
+   *                    on the thread that received them
+   */
+  public ChatHandler(ChatClock clock, MessageHistory history, Journal journal, int roomWorkers) {
+    this(clock, history, journal, roomWorkers, 0);
+  }
+
+  /**
+   * Creates a handler without any logged-in users.
+   *
+   * @param clock         the clock used to stamp the distributed messages
+   * @param history       the recent events replayed to newly logged-in clients
+   * @param journal       the journal that keeps the events across restarts, or null
+   * @param roomWorkers   number of threads the rooms are distributed over, 0 distributes messages
+   *                      on the thread that received them
+   * @param fanOutWorkers number of threads that deliver the stripes of a room in parallel, 0
+   *                      delivers on the distributing thread
+   */
+  public ChatHandler(ChatClock clock, MessageHistory history, Journal journal, int roomWorkers,
+      int fanOutWorkers) {
+    this(clock, history, journal, roomWorkers, fanOutWorkers, 0);
+  }
+
+  /**
+   * Creates a handler without any logged-in users.
+   *
+   * @param clock          the clock used to stamp the distributed messages
+   * @param history        the recent events replayed to newly logged-in clients
+   * @param journal        the journal that keeps the events across restarts, or null
+   * @param roomWorkers    number of threads the rooms are distributed over, 0 distributes
+   *                       messages on the thread that received them
+   * @param fanOutWorkers  number of threads that deliver the stripes of a room in parallel, 0
+   *                       delivers on the distributing thread
+   * @param sequencerQueue number of posts that may wait for the sequencer, 0 distributes posts
+   *                       without a total order
+   */
+  public ChatHandler(ChatClock clock, MessageHistory history, Journal journal, int roomWorkers,
+      int fanOutWorkers, int sequencerQueue) {
+    this.users = new UserRegistry();
+    this.rooms = new RoomRegistry(Math.max(1, fanOutWorkers));
+    this.roomWorkers = new ExecutorService[roomWorkers];
+    for (int i = 0; i < roomWorkers; i++) {
+      String name = "chat-room-" + i;
+      this.roomWorkers[i] = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, name);
+        thread.setDaemon(true);
+        return thread;
+      });
+    }
+    this.fanOut = fanOutWorkers == 0 ? null : new FanOut(fanOutWorkers);
+    this.sequencer =
+        sequencerQueue == 0 ? null : new Sequencer(sequencerQueue, this::sendSequencedMessage);
+    this.deliveries = new AtomicLong();
+    this.activeConnections = new AtomicInteger();
+    this.clock = clock;
+    this.history = history;
+    this.journal = journal;
+    this.metrics = new ServerMetrics();
+  }
+
+  /**
+   * Register a newly accepted connection.
+   *
+   * @param connection the accepted connection
+   */
+  public void handleConnect(ClientConnection connection) {
+    activeConnections.incrementAndGet();
+    Heartbeat current = heartbeat;
+    if (current != null) {
+      current.watch(connection);
+    }
+  }
+
+  /**
+   * Return the number of connections that have been accepted and not yet closed, including those
+   * that have not logged in.
+   *
+   * @return number of open connections
+   */
+  public int getActiveConnections() {
+    return activeConnections.get();
+  }
+
+  /**
+   * Return the logged-in users for inspection. The collection is a live view.
+   *
+   * @return the logged-in users
+   */
+  Collection<User> getUsers() {
+    return users.all();
+  }
+
+  public ServerMetrics getMetrics() {
+    return metrics;
+  }
+
+  /**
+   * Handle a single frame received from a client.
+   *
+   * @param connection the connection the frame was received on
+   * @param line       the received bytes without separator or length prefix, between position
+   *                   and limit, in the current format of the connection
+   * @throws ProtocolException if the message don't have appropriate format
+   */
+  public void handleLine(ClientConnection connection, ByteBuffer line) throws ProtocolException {
+    metrics.received(line.remaining());
+    connection.touch();
+    if (draining) {
+      return;
+    }
+    Message message = connection.getFormat().getCodec().decode(line);
+    if (connection.isLoginPending()) {
+      if (message instanceof Login) {
+        LOG.debug("Refused a second login of {}", connection);
+        sendLoginFailedMessage(connection);
+        return;
+      }
+      if (connection.holdBack(message)) {
+        return;
+      }
+    }
+    handleMessage(connection, message);
+  }
+
+  private void handleMessage(ClientConnection connection, Message message)
+      throws ProtocolException {
+    User user = connection.getUser();
+    if (user == null) {
+      handleLoginRequest(connection, message);
+    } else {
+      handleUserMessage(user, message);
+    }
+  }
+
+  /**
+   * Handles a message from a client that is not logged in yet. With a cluster, the login completes
+   * once the nickname has been reserved; the messages the client sends in the meantime are held
+   * back by the connection, and a second login is refused.
+   *
+   * @param connection the connection of the client
+   * @param message    the received message
+   * @throws ProtocolException if the message is not a login request
+   */
+  private void handleLoginRequest(ClientConnection connection, Message message)
+      throws ProtocolException {
+    LOG.debug("Message from client: {}", message);
+    if (!(message instanceof Login login)) {
+      throw new ProtocolException("Client not logged in");
+    }
+    // switched before the reader continues, as the next frame may already use the new format
+    connection.setFormat(login.format());
+    connection.setHeartbeat(login.heartbeat());
+    String nickname = login.nick().trim();
+    if (nickname.equals("")) {
+      return;
+    }
+    Cluster current = cluster;
+    if (current == null) {
+      login(new User(nickname, connection));
+      return;
+    }
+    connection.startLogin();
+    current.reserve(nickname).whenComplete((reserved, error) -> {
+      if (Boolean.TRUE.equals(reserved)) {
+        // announced first, so the release of a failed or ended login always follows
+        current.announce(nickname);
+        if (!login(new User(nickname, connection))) {
+          current.release(nickname);
+        }
+        handleHeldBack(connection);
+      } else {
+        // ended before the answer, so the client may try again right away
+        connection.cancelLogin();
+        sendLoginFailedMessage(connection);
+      }
+    });
+  }
+
+  /**
+   * Handle the messages a client sent while its login was pending, until none are left. If the
+   * login failed, they are dropped, as they were sent for a login that did not happen.
+   *
+   * @param connection the connection of the client
+   */
+  private void handleHeldBack(ClientConnection connection) {
+    List<Message> messages;
+    while (!(messages = connection.takeHeldBack()).isEmpty()) {
+      if (connection.getUser() == null) {
+        LOG.debug("Dropped {} messages of {} after its login failed", messages.size(), connection);
+        continue;
+      }
+      for (Message message : messages) {
+        try {
+          handleMessage(connection, message);
+        } catch (ProtocolException e) {
+          LOG.debug("Connection {} failed: {}", connection, e);
+          handleDisconnect(connection);
+          return;
+        }
+      }
+    }
+  }
+
+  /**
+   * Log in a user whose nickname is free in the cluster.
+   *
+   * @param loggedUser the user that logs in
+   * @return false, if the nickname is taken or the client disconnected in the meantime
+   */
+  private boolean login(User loggedUser) {
+    ClientConnection connection = loggedUser.getConnection();
+    loggedUser.startReplay();
+    if (!users.reserve(loggedUser)) {
+      sendLoginFailedMessage(connection);
+      return false;
+    }
+    handleLoginSuccess(loggedUser);
+    if (connection.isClosed()) {
+      // the disconnect may have been handled before the user was attached to the connection
+      if (users.release(loggedUser)) {
+        rooms.leaveAll(loggedUser);
+        return false;
+      }
+      return true;
+    }
+    sendUserJoinedMessage(loggedUser);
+    return true;
+  }
+
+  /**
+   * Send a message to the client, that login is failed.
+   *
+   * @param connection connection to the client
+   */
+  private void sendLoginFailedMessage(ClientConnection connection) {
+    try {
+      connection.send(connection.getFormat().getCodec().encodeFrame(new LoginFailed()));
+    } catch (IOException e) {
+      LOG.warn("Could not send login failure to {}", connection, e);
+    }
+  }
+
+  /**
+   * Executes routines upon successful connection. The history is copied together with the
+   * sequence number of the last recorded delivery and the user joins the default room at the
+   * same moment, so every later delivery reaches the user and every earlier one is part of the
+   * copy. Messages sent to the user before the copy has been queued are held back by the user, so
+   * neither the replayed history nor the messages sent afterwards overtake each other, and no
+   * other login or delivery waits for the replay.
+   *
+   * @param loggedUser the user whose nickname has been reserved
+   */
+  private void handleLoginSuccess(User loggedUser) {
+    ClientConnection connection = loggedUser.getConnection();
+    ByteBuffer backlog;
+    synchronized (history) {
+      loggedUser.setJoinSequence(deliveries.get());
+      rooms.join(loggedUser, RoomRegistry.DEFAULT_ROOM);
+      backlog = history.replay();
+    }
+    connection.setUser(loggedUser);
+    metrics.loggedIn();
+    try {
+      sendLoginSuccessMessage(connection);
+      sendHistory(connection, backlog);
+    } catch (IOException e) {
+      LOG.warn("Could not send login success to {}", loggedUser.getName(), e);
+    }
+    sendHeldBack(loggedUser);
+  }
+
+  /**
+   * Send the messages held back during the replay of the history until none are left.
+   *
+   * @param user the user that has been sent the history
+   */
+  private void sendHeldBack(User user) {
+    ClientConnection connection = user.getConnection();
+    List<ByteBuffer> frames;
+    while (!(frames = user.takeHeldBack()).isEmpty()) {
+      for (ByteBuffer frame : frames) {
+        try {
+          connection.send(frame);
+        } catch (SlowConsumerException e) {
+          LOG.warn(e.getMessage());
+          connection.writeFailed();
+          handleDisconnect(connection);
+        } catch (IOException e) {
+          // The connection is closing, its reader will remove the user
+        }
+      }
+    }
+  }
+
+  /**
+   * Send a message to the client, that login is successful.
+   *
+   * @param connection connection to the client
+   * @throws IOException if the output stream is not open
+   */
+  private void sendLoginSuccessMessage(ClientConnection connection) throws IOException {
+    connection.send(connection.getFormat().getCodec().encodeFrame(new LoginSuccess()));
+  }
+
+  /**
+   * Send the recent chat events to a client in a single write. The history holds JSON frames,
+   * which are converted for clients that use another format.
+   *
+   * @param connection connection to the client
+   * @param backlog    the recorded frames
+   * @throws IOException if the output stream is not open
+   */
+  private void sendHistory(ClientConnection connection, ByteBuffer backlog) throws IOException {
+    if (backlog.hasRemaining() && connection.getFormat() != WireFormat.JSON) {
+      backlog = convert(backlog, connection.getFormat());
+    }
+    if (backlog.hasRemaining()) {
+      connection.send(backlog);
+    }
+  }
+
+  /**
+   * Convert consecutive JSON frames into another format, which may combine them, e.g. into a
+   * single compressed frame.
+   *
+   * @param frames the JSON frames
+   * @param format the target format
+   * @return read-only buffer holding the converted frames
+   * @throws ProtocolException if a frame is not valid
+   */
+  private static ByteBuffer convert(ByteBuffer frames, WireFormat format)
+      throws ProtocolException {
+    List<Message> messages = new ArrayList<>();
+    int start = frames.position();
+    for (int i = start; i < frames.limit(); i++) {
+      if (frames.get(i) == '\n') {
+        messages.add(WireFormat.JSON.getCodec().decode(
+            frames.duplicate().position(start).limit(i)));
+        start = i + 1;
+      }
+    }
+    return format.getCodec().encodeFrames(messages);
+  }
+
+  /**
+   * Send a message to the clients, that user joined the chat.
+   *
+   * @param loggedUser joined client
+   */
+  private void sendUserJoinedMessage(User loggedUser) {
+    broadcast(loggedUser, new UserJoined(loggedUser.getName()));
+  }
+
+  /**
+   * Send a message to all clients in the chat except the source.
+   *
+   * @param source  source client
+   * @param message message to be sent
+   */
+  private void broadcast(User source, Message message) {
+    MessageFrames frames = new MessageFrames(message);
+    Cluster current = cluster;
+    if (current != null) {
+      current.relay(null, json(frames));
+    }
+    deliver(source, frames, rooms.getDefaultRoom(), true);
+  }
+
+  /**
+   * Send a message to the members of a room except the source, on the worker of the room.
+   *
+   * @param source  source client
+   * @param room    the room
+   * @param message message to be sent
+   */
+  private void sendToRoom(User source, Room room, Message message) {
+    dispatch(room, () -> distribute(source, room, message));
+  }
+
+  /**
+   * Send a message to the members of a room except the source and relay it to the cluster, on
+   * the calling thread.
+   *
+   * @param source  source client
+   * @param room    the room
+   * @param message message to be sent
+   */
+  private void distribute(User source, Room room, Message message) {
+    MessageFrames frames = new MessageFrames(message);
+    Cluster current = cluster;
+    if (current != null) {
+      current.relay(room.getName(), json(frames));
+    }
+    deliver(source, frames, room, room == rooms.getDefaultRoom());
+  }
+
+  /**
+   * Return the JSON frame of a message created by this server, which always encodes.
+   */
+  private static ByteBuffer json(MessageFrames frames) {
+    try {
+      return frames.get(WireFormat.JSON);
+    } catch (ProtocolException e) {
+      throw new IllegalStateException("Message without content", e);
+    }
+  }
+
+  /**
+   * Deliver an event relayed by another node of the cluster to the local clients.
+   *
+   * @param roomName the room of the event, or null for events visible to everyone
+   * @param frame    the encoded event including its separator
+   */
+  void deliverRemote(String roomName, ByteBuffer frame) {
+    MessageFrames frames = MessageFrames.ofEncoded(WireFormat.JSON, frame);
+    if (roomName == null) {
+      deliver(null, frames, rooms.getDefaultRoom(), true);
+      return;
+    }
+    Room room = rooms.get(roomName);
+    if (room != null) {
+      dispatch(room, () -> deliver(null, frames, room, room == rooms.getDefaultRoom()));
+    }
+  }
+
+  /**
+   * Tell the local clients that a user of another node of the cluster has left, because the node
+   * has been unreachable for too long.
+   *
+   * @param nickname the nickname of the user
+   */
+  void deliverRemoteUserLeft(String nickname) {
+    deliverRemote(null, json(new MessageFrames(new UserLeft(nickname))));
+  }
+
+  /**
+   * Return the nicknames of the users logged in at this node.
+   *
+   * @return the nicknames
+   */
+  List<String> getNicknames() {
+    List<String> nicknames = new ArrayList<>();
+    for (User user : users.all()) {
+      nicknames.add(user.getName());
+    }
+    return nicknames;
+  }
+
+  /**
+   * Run the delivery of a message to a room on the worker of the room. Deliveries after the room
+   * workers have been drained are dropped.
+   *
+   * @param room     the room
+   * @param delivery the delivery
+   */
+  private void dispatch(Room room, Runnable delivery) {
+    if (roomWorkers.length == 0) {
+      delivery.run();
+      return;
+    }
+    try {
+      roomWorkers[Math.floorMod(room.getName().hashCode(), roomWorkers.length)].execute(delivery);
+    } catch (RejectedExecutionException e) {
+      LOG.debug("Dropped a message to {} after the shutdown", room.getName());
+    }
+  }
+
+  /**
+   * Queue an encoded message for the members of a room except the source. The same bytes are
+   * queued for every recipient of a format and, for events visible to everyone, recorded in the
+   * history and handed to the journal. Every delivery is numbered; recording and numbering happen
+   * together under the lock of the history, which is never held while sending. Deliveries run
+   * concurrently and iterate the recipients without locking them, skipping users that logged in
+   * after the message had been recorded, since the history they were sent already contains it. A
+   * recipient whose outbound queue is full is disconnected without affecting the others.
+   *
+   * <p>With fan-out workers, the stripes of the room are delivered in parallel after the message
+   * has been recorded. The fan-out latency then covers the delivery to the last stripe.
+   *
+   * @param source source client
+   * @param frames the frames of the message
+   * @param room   the room whose members receive the message
+   * @param record whether the message belongs into the history
+   */
+  private void deliver(User source, MessageFrames frames, Room room, boolean record) {
+    long start = System.nanoTime();
+    long sequence;
+    try {
+      if (record) {
+        ByteBuffer frame = frames.get(WireFormat.JSON);
+        synchronized (history) {
+          sequence = deliveries.incrementAndGet();
+          history.record(frame);
+          if (journal != null) {
+            journal.append(frame);
+          }
+        }
+      } else {
+        sequence = deliveries.incrementAndGet();
+      }
+      if (fanOut == null) {
+        delivered(start, send(source, frames, room.members(), sequence));
+        return;
+      }
+    } catch (ProtocolException e) {
+      LOG.warn("Dropped an invalid relayed event: {}", e.getMessage());
+      return;
+    }
+    deliverStripes(source, frames, room, sequence, start);
+  }
+
+  /**
+   * Hand the delivery of a message to every stripe of a room to the fan-out thread of the stripe.
+   *
+   * @param source   source client
+   * @param frames   the frames of the message
+   * @param room     the room whose members receive the message
+   * @param sequence the number of the delivery
+   * @param start    the {@link System#nanoTime()} the delivery started
+   */
+  private void deliverStripes(User source, MessageFrames frames, Room room, long sequence,
+      long start) {
+    AtomicInteger remaining = new AtomicInteger(room.getStripes());
+    for (int i = 0; i < room.getStripes(); i++) {
+      Collection<User> stripe = room.members(i);
+      fanOut.execute(i, () -> {
+        List<ClientConnection> slowConsumers = null;
+        try {
+          slowConsumers = send(source, frames, stripe, sequence);
+        } catch (ProtocolException e) {
+          LOG.warn("Dropped an invalid relayed event: {}", e.getMessage());
+        }
+        if (remaining.decrementAndGet() == 0) {
+          delivered(start, slowConsumers);
+        } else if (slowConsumers != null) {
+          slowConsumers.forEach(this::handleDisconnect);
+        }
+      });
+    }
+  }
+
+  /**
+   * Queue a message for the given recipients except the source and those that logged in after
+   * the delivery started. Recipients that are still being sent the history hold the message back.
+   * Every format is looked up once, not once per recipient.
+   *
+   * @param source     source client
+   * @param frames     the frames of the message
+   * @param recipients the recipients
+   * @param sequence   the number of the delivery
+   * @return the connections whose outbound queue was full, or null
+   * @throws ProtocolException if the message cannot be encoded in the format of a recipient
+   */
+  private List<ClientConnection> send(User source, MessageFrames frames,
+      Collection<User> recipients, long sequence) throws ProtocolException {
+    ByteBuffer[] encoded = new ByteBuffer[WireFormat.values().length];
+    List<ClientConnection> slowConsumers = null;
+    for (User u : recipients) {
+      if (u == source || u.getJoinSequence() >= sequence) {
+        continue;
+      }
+      ClientConnection connection = u.getConnection();
+      int format = connection.getFormat().ordinal();
+      if (encoded[format] == null) {
+        encoded[format] = frames.get(connection.getFormat());
+      }
+      if (u.isReplaying() && u.holdBack(encoded[format])) {
+        continue;
+      }
+      try {
+        connection.send(encoded[format]);
+      } catch (SlowConsumerException e) {
+        LOG.warn(e.getMessage());
+        connection.writeFailed();
+        if (slowConsumers == null) {
+          slowConsumers = new ArrayList<>();
+        }
+        slowConsumers.add(connection);
+      } catch (IOException e) {
+        // The connection is closing, its reader will remove the user
+      }
+    }
+    return slowConsumers;
+  }
+
+  /**
+   * Record the fan-out latency of a completed delivery and disconnect its slow consumers.
+   */
+  private void delivered(long start, List<ClientConnection> slowConsumers) {
+    metrics.fannedOut(System.nanoTime() - start);
+    if (slowConsumers != null) {
+      slowConsumers.forEach(this::handleDisconnect);
+    }
+  }
+
+  /**
+   * Handles a message of a logged client.
+   *
+   * @param user    logged client
+   * @param message the received message
+   * @throws ProtocolException if the message is not expected from a logged client
+   */
+  private void handleUserMessage(User user, Message message) throws ProtocolException {
+    switch (message.getType()) {
+      case LOGIN -> throw new ProtocolException("The client is already logged in.");
+      case POST_MESSAGE ->
+          sendTextMessage(user, rooms.getDefaultRoom(), ((PostMessage) message).content());
+      case POST_ROOM_MESSAGE -> {
+        PostRoomMessage post = (PostRoomMessage) message;
+        sendTextMessage(user, rooms.get(post.room()), post.content());
+      }
+      case JOIN_ROOM -> joinRoom(user, ((JoinRoom) message).room());
+      case LEAVE_ROOM -> rooms.leave(user, ((LeaveRoom) message).room());
+      case POST_DIRECT_MESSAGE -> {
+        PostDirectMessage post = (PostDirectMessage) message;
+        sendDirectMessage(user, post.to(), post.content());
+      }
+      case PING -> sendPong(user.getConnection());
+      case PONG -> {
+        // the answer to a heartbeat, handleLine has already noted the activity
+      }
+      default -> throw new ProtocolException("Unknown type of message.");
+    }
+  }
+
+  /**
+   * Answer a ping of a client.
+   *
+   * @param connection connection to the client
+   */
+  private void sendPong(ClientConnection connection) {
+    try {
+      connection.send(PONG.get(connection.getFormat()));
+    } catch (IOException e) {
+      LOG.debug("Could not answer the ping of {}", connection);
+    }
+  }
+
+  /**
+   * Handles a closed connection. Logged clients are removed from the chat and the remaining
+   * clients are informed; for connections without a login only the socket is closed. Only the
+   * call that actually closes the connection does so, however many threads notice the disconnect.
+   *
+   * @param connection the disconnected connection
+   */
+  public void handleDisconnect(ClientConnection connection) {
+    try {
+      if (!connection.close()) {
+        return;
+      }
+    } catch (IOException e) {
+      LOG.warn("Could not close {}", connection, e);
+    }
+    activeConnections.decrementAndGet();
+    User user = connection.getUser();
+    if (user != null && users.release(user)) {
+      rooms.leaveAll(user);
+      Cluster current = cluster;
+      if (current != null) {
+        current.release(user.getName());
+      }
+      sendUserLeftMessage(user);
+    }
+  }
+
+  /**
+   * Send a message to the clients, that user left the chat.
+   *
+   * @param user disconnected client
+   */
+  private void sendUserLeftMessage(User user) {
+    broadcast(user, new UserLeft(user.getName()));
+  }
+
+  /**
+   * Add a user to a room.
+   *
+   * @param user the user
+   * @param name the name of the room, blank names are ignored
+   */
+  private void joinRoom(User user, String name) {
+    String room = name.trim();
+    if (!room.isEmpty()) {
+      rooms.join(user, room);
+    }
+  }
+
+  /**
+   * Send a message from the source-client to the other members of a room. Messages to rooms the
+   * source has not joined are ignored.
+   *
+   * @param source  source-client
+   * @param room    the room, or null if it does not exist
+   * @param content message
+   */
+  private void sendTextMessage(User source, Room room, String content) {
+    if (room == null || !room.contains(source)) {
+      LOG.debug("{} posted to a room it has not joined", source.getName());
+      return;
+    }
+    if (sequencer == null) {
+      sendToRoom(source, room, textMessage(source, room, content, 0));
+    } else if (!sequencer.publish(source, room, content)) {
+      LOG.debug("Dropped a message of {} after the shutdown", source.getName());
+    }
+  }
+
+  /**
+   * Distribute a message in the order of the sequencer. Runs on the sequencer thread, which
+   * distributes all messages itself, as room workers would break the total order.
+   *
+   * @param source  source-client
+   * @param room    the room
+   * @param content message
+   * @param id      the message id
+   */
+  private void sendSequencedMessage(User source, Room room, String content, long id) {
+    distribute(source, room, textMessage(source, room, content, id));
+  }
+
+  /**
+   * Create the message distributed for a post, stamped with the current time.
+   *
+   * @param source  source-client
+   * @param room    the room
+   * @param content message
+   * @param id      the message id, 0 for none
+   * @return the message
+   */
+  private Message textMessage(User source, Room room, String content, long id) {
+    String time = clock.now();
+    return room == rooms.getDefaultRoom()
+        ? new TextMessage(time, source.getName(), content, id)
+        : new RoomMessage(time, source.getName(), room.getName(), content, id);
+  }
+
+  /**
+   * Send a message from the source-client to a single other user. Users of other nodes are
+   * reached through the cluster; messages to unknown users and to the source itself are ignored.
+   *
+   * @param source   source-client
+   * @param nickname the nickname of the recipient
+   * @param content  message
+   */
+  private void sendDirectMessage(User source, String nickname, String content) {
+    User recipient = users.get(nickname);
+    if (recipient == source) {
+      return;
+    }
+    MessageFrames frames = new MessageFrames(new DirectMessage(clock.now(), source.getName(),
+        content));
+    Cluster current = cluster;
+    if (recipient != null) {
+      sendDirect(recipient, frames);
+    } else if (current != null) {
+      current.relayDirect(nickname, json(frames));
+    } else {
+      LOG.debug("{} sent a direct message to unknown user {}", source.getName(), nickname);
+    }
+  }
+
+  /**
+   * Deliver a direct message relayed by another node of the cluster, if its recipient is logged
+   * in at this node.
+   *
+   * @param nickname the nickname of the recipient
+   * @param frame    the encoded message including its separator
+   */
+  void deliverDirect(String nickname, ByteBuffer frame) {
+    User recipient = users.get(nickname);
+    if (recipient != null) {
+      sendDirect(recipient, MessageFrames.ofEncoded(WireFormat.JSON, frame));
+    }
+  }
+
+  /**
+   * Queue a message for a single recipient. With fan-out workers, the message is handed to the
+   * thread of the stripe of the recipient, so it cannot overtake the broadcasts that thread is
+   * still delivering.
+   *
+   * @param recipient the recipient
+   * @param frames    the frames of the message
+   */
+  private void sendDirect(User recipient, MessageFrames frames) {
+    if (fanOut == null) {
+      queueDirect(recipient, frames);
+    } else {
+      fanOut.execute(Room.stripeOf(recipient, fanOut.getStripes()),
+          () -> queueDirect(recipient, frames));
+    }
+  }
+
+  /**
+   * Queue a message for a single recipient on the current thread. A recipient that is just
+   * logging in holds the message back, so it cannot overtake the login success and the history.
+   *
+   * @param recipient the recipient
+   * @param frames    the frames of the message
+   */
+  private void queueDirect(User recipient, MessageFrames frames) {
+    ClientConnection connection = recipient.getConnection();
+    boolean slowConsumer = false;
+    try {
+      ByteBuffer frame = frames.get(connection.getFormat());
+      if (recipient.isReplaying() && recipient.holdBack(frame)) {
+        return;
+      }
+      connection.send(frame);
+    } catch (SlowConsumerException e) {
+      LOG.warn(e.getMessage());
+      connection.writeFailed();
+      slowConsumer = true;
+    } catch (ProtocolException e) {
+      LOG.warn("Dropped an invalid relayed event: {}", e.getMessage());
+    } catch (IOException e) {
+      // The connection is closing, its reader will remove the user
+    }
+    if (slowConsumer) {
+      handleDisconnect(connection);
+    }
+  }
+
+  /**
+   * Connect the handler to the other nodes of a cluster. Logins are then only accepted for
+   * nicknames that are free in the whole cluster, and the events of local clients are relayed.
+   *
+   * @param cluster the cluster this node belongs to
+   */
+  public void setCluster(Cluster cluster) {
+    this.cluster = cluster;
+  }
+
+  /**
+   * Watch all connections accepted from now on for clients that are silent for too long.
+   *
+   * @param heartbeat the heartbeat that watches the connections
+   */
+  public void setHeartbeat(Heartbeat heartbeat) {
+    this.heartbeat = heartbeat;
+  }
+
+  /**
+   * Prepare the shutdown of the server: stop handling received frames, let the deliveries that
+   * are in progress or queued for a room finish and then send a shutdown notice to every
+   * logged-in client. The notice is queued behind all messages the clients are still due.
+   *
+   * @param timeoutMillis how long to wait for the sequencer, the room and the fan-out workers
+   * @return the connections of the logged-in clients
+   * @throws InterruptedException if the thread is interrupted while waiting
+   */
+  public List<ClientConnection> drain(long timeoutMillis) throws InterruptedException {
+    draining = true;
+    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+    if (sequencer != null) {
+      sequencer.close(deadline);
+    }
+    for (ExecutorService worker : roomWorkers) {
+      worker.shutdown();
+    }
+    for (ExecutorService worker : roomWorkers) {
+      worker.awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+    }
+    List<ClientConnection> connections = new ArrayList<>();
+    for (User user : users.all()) {
+      connections.add(user.getConnection());
+    }
+    deliver(null, SHUTDOWN, rooms.getDefaultRoom(), false);
+    if (fanOut != null) {
+      fanOut.shutdown();
+      fanOut.awaitTermination(deadline);
+    }
+    return connections;
+  }
+
+  /**
+   * Stop the sequencer, the room and the fan-out workers. Messages that are still queued are
+   * dropped.
+   */
+  public void stop() {
+    if (sequencer != null) {
+      sequencer.stop();
+    }
+    for (ExecutorService worker : roomWorkers) {
+      worker.shutdownNow();
+    }
+    if (fanOut != null) {
+      fanOut.stop();
+    }
+  }
+}
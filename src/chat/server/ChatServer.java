@@ -1,6 +1,11 @@
 package chat.server;
 
+import chat.logging.Log;
+import chat.logging.Logger;
 import java.io.IOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 /**
  * The main class of the chat server. It starts the application to let clients connect themselves to
@@ -8,23 +13,64 @@ import java.io.IOException;
  */
 public class ChatServer {
 
+  private static final Logger LOG = Log.getLogger(ChatServer.class);
+
   /**
-   * Launch the chat server.
+   * Launch the chat server. The options are described in {@link ServerConfig#fromArgs(String[])},
+   * e.g. {@code --mode=nio --reactors=4} serves all clients with four selector threads.
    */
   public static void main(String[] args) throws IOException {
-    final ServerNetworkConnection connection = new ServerNetworkConnection();
+    ServerConfig config = ServerConfig.fromArgs(args);
+    Log.setLevel(config.getLogLevel());
+    final ServerNetworkConnection connection = new ServerNetworkConnection(config);
+    if (config.getStatusIntervalSeconds() > 0) {
+      reportActiveConnections(connection, config.getStatusIntervalSeconds());
+    }
+    // registered before start(), which only returns once the server is stopped
+    Runtime.getRuntime().addShutdownHook(new Thread(() -> drain(connection, config), "drain"));
     connection.start();
+  }
 
-    Runtime.getRuntime().addShutdownHook(new Thread() {
-      @Override
-      public void run() {
-        try {
-          connection.stop();
-        } catch (IOException e) {
-          e.printStackTrace();
-          throw new RuntimeException(e);
-        }
+  /**
+   * Shut the server down gracefully and report the outcome before the JVM exits.
+   *
+   * @param connection the running server
+   * @param config     the configuration of the server
+   */
+  private static void drain(ServerNetworkConnection connection, ServerConfig config) {
+    try {
+      LOG.info("Shutting down, draining for at most {} ms", config.getDrainTimeoutMillis());
+      ServerNetworkConnection.DrainReport report =
+          connection.drain(config.getDrainTimeoutMillis());
+      LOG.info("Drained {} clients in {} ms", report.clients(), report.durationMillis());
+      if (report.pendingMessages() > 0) {
+        LOG.warn("{} messages were still pending", report.pendingMessages());
       }
+    } catch (IOException e) {
+      LOG.error("Could not stop server", e);
+    }
+    Log.flush(1000);
+  }
+
+  /**
+   * Periodically print the number of open and throttled client connections.
+   *
+   * @param connection      the running server
+   * @param intervalSeconds seconds between two reports
+   */
+  private static void reportActiveConnections(ServerNetworkConnection connection,
+      int intervalSeconds) {
+    ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "status-reporter");
+      thread.setDaemon(true);
+      return thread;
     });
+    reporter.scheduleAtFixedRate(() -> {
+      LOG.info("{} active connections, {} log records dropped",
+          connection.getActiveConnections(), Log.getDropped());
+      RateLimits rateLimits = connection.getRateLimits();
+      LOG.info("{} connections throttled, {} messages delayed",
+          rateLimits.getThrottledConnections(), rateLimits.getDelayedMessages());
+    }, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
   }
 }
@@ -0,0 +1,246 @@
+package chat.server;
+
+import chat.protocol.Message;
+import chat.protocol.ProtocolException;
+import chat.protocol.WireFormat;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A single connection of a client to the server, independent of the I/O model that serves it. The
+ * connection exists from the moment the socket is accepted; a {@link User} is attached to it once
+ * the client has logged in successfully.
+ *
+ * <p>Sending a message only places it in the {@link OutboundQueue} of the connection. The queue
+ * is drained by whoever owns the socket, i.e. a writer thread or the selector thread.
+ *
+ * <p>Every connection starts in {@link WireFormat#JSON}; the format requested in the login applies
+ * to all frames read and sent afterwards.
+ *
+ * <p>While a login waits for the cluster to reserve the nickname, the messages the client sends
+ * are held back by the connection and handled once the login has completed, in their order.
+ */
+public abstract class ClientConnection {
+
+  private static final int MAX_HELD_BACK = 1024;
+
+  private final AtomicBoolean closed = new AtomicBoolean();
+  private final OutboundQueue outbound;
+  private final RateLimiter rateLimiter;
+  private final ServerMetrics metrics;
+  private volatile User user;
+  private volatile WireFormat format = WireFormat.JSON;
+  private volatile boolean heartbeat;
+  private volatile long lastActivity = System.nanoTime();
+  private volatile boolean loginPending;
+  private List<Message> heldBack;
+
+  /**
+   * Create a connection that queues its outgoing messages in the given queue.
+   *
+   * @param outbound    the queue of outgoing messages
+   * @param rateLimiter the limiter of the incoming messages
+   * @param metrics     the counters of the server
+   */
+  protected ClientConnection(OutboundQueue outbound, RateLimiter rateLimiter,
+      ServerMetrics metrics) {
+    this.outbound = outbound;
+    this.rateLimiter = rateLimiter;
+    this.metrics = metrics;
+  }
+
+  /**
+   * Send a single encoded message to the client. The frame is shared between all recipients of a
+   * broadcast and never modified; the connection queues its own view of it.
+   *
+   * @param frame the encoded message including its separator
+   * @throws SlowConsumerException if the client is too slow and has to be disconnected
+   * @throws IOException           if the connection is not open
+   */
+  public void send(ByteBuffer frame) throws IOException {
+    if (isClosed()) {
+      throw new IOException("Connection closed: " + this);
+    }
+    if (!outbound.offer(frame.duplicate(), mayBlock())) {
+      throw new SlowConsumerException(this);
+    }
+    metrics.sent(frame.remaining());
+    messageQueued();
+  }
+
+  /**
+   * Return whether the current thread may wait for free space in the outbound queue.
+   *
+   * @return true, if waiting does not stall other connections
+   */
+  protected abstract boolean mayBlock();
+
+  /**
+   * Notify the concrete I/O model that a message was added to the outbound queue.
+   */
+  protected abstract void messageQueued();
+
+  /**
+   * Count a message that could not be written to the client.
+   */
+  protected void writeFailed() {
+    metrics.writeFailed();
+  }
+
+  /**
+   * Close the underlying socket. Later calls have no effect.
+   *
+   * @return true, if this call closed the connection, false if it had been closed before
+   * @throws IOException if closing the socket fails; the connection counts as closed by this call
+   */
+  public boolean close() throws IOException {
+    if (!closed.compareAndSet(false, true)) {
+      return false;
+    }
+    rateLimiter.release();
+    closeSocket();
+    return true;
+  }
+
+  /**
+   * Close the underlying socket of the concrete I/O model.
+   *
+   * @throws IOException if closing the socket fails
+   */
+  protected abstract void closeSocket() throws IOException;
+
+  public boolean isClosed() {
+    return closed.get();
+  }
+
+  /**
+   * Return how many messages have been sent to the connection, but not yet written to the
+   * socket.
+   *
+   * @return number of pending messages
+   */
+  public int getPendingMessages() {
+    return outbound.size();
+  }
+
+  protected OutboundQueue getOutbound() {
+    return outbound;
+  }
+
+  public RateLimiter getRateLimiter() {
+    return rateLimiter;
+  }
+
+  public WireFormat getFormat() {
+    return format;
+  }
+
+  /**
+   * Switch the connection to another format. Called by the reader of the connection before it
+   * reads the next frame.
+   *
+   * @param format the format of all further frames
+   */
+  public void setFormat(WireFormat format) {
+    this.format = format;
+  }
+
+  /**
+   * Return whether the client asked for the heartbeat at its login and answers pings.
+   *
+   * @return true, if the client may be pinged
+   */
+  public boolean isHeartbeat() {
+    return heartbeat;
+  }
+
+  public void setHeartbeat(boolean heartbeat) {
+    this.heartbeat = heartbeat;
+  }
+
+  /**
+   * Start holding back the messages of the client, until its pending login has completed.
+   */
+  synchronized void startLogin() {
+    heldBack = new ArrayList<>();
+    loginPending = true;
+  }
+
+  /**
+   * Return whether a login of the client is waiting for the cluster.
+   *
+   * @return true, while the messages of the client are held back
+   */
+  boolean isLoginPending() {
+    return loginPending;
+  }
+
+  /**
+   * Keep a message of the client until the pending login has completed.
+   *
+   * @param message the received message
+   * @return false, if the login has completed and the message must be handled right away
+   * @throws ProtocolException if the client sent too many messages before the login completed
+   */
+  synchronized boolean holdBack(Message message) throws ProtocolException {
+    if (!loginPending) {
+      return false;
+    }
+    if (heldBack.size() >= MAX_HELD_BACK) {
+      throw new ProtocolException("Too many messages before the login completed");
+    }
+    heldBack.add(message);
+    return true;
+  }
+
+  /**
+   * End a pending login that failed, dropping the messages held back so far.
+   */
+  synchronized void cancelLogin() {
+    heldBack = null;
+    loginPending = false;
+  }
+
+  /**
+   * Take the messages held back so far. Once there are none left, the login is complete and
+   * further messages are handled right away.
+   *
+   * @return the held-back messages in the order they were received, empty once complete
+   */
+  synchronized List<Message> takeHeldBack() {
+    List<Message> messages = heldBack;
+    if (messages.isEmpty()) {
+      loginPending = false;
+      return messages;
+    }
+    heldBack = new ArrayList<>();
+    return messages;
+  }
+
+  /**
+   * Return when the client was last heard of.
+   *
+   * @return the {@link System#nanoTime()} of the last received message, or of the connect
+   */
+  public long getLastActivity() {
+    return lastActivity;
+  }
+
+  /**
+   * Note that a message was received from the client.
+   */
+  void touch() {
+    lastActivity = System.nanoTime();
+  }
+
+  public User getUser() {
+    return user;
+  }
+
+  public void setUser(User user) {
+    this.user = user;
+  }
+}
@@ -0,0 +1,490 @@
+package chat.server;
+
+import chat.logging.Log;
+import chat.logging.Logger;
+import chat.protocol.LineReader;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Connects a chat server to the other nodes of a cluster with a fixed set of members. Every node
+ * relays the events that originate from its own clients to all peers, which deliver them to their
+ * local clients. Each node keeps one outgoing {@link ClusterLink} per peer and reads the events of
+ * the peers from their incoming connections.
+ *
+ * <p>Direct messages to users that are not connected to the local node are relayed to all peers
+ * as well, and delivered by the one that has the recipient logged in.
+ *
+ * <p>Nicknames are unique in the whole cluster: every nickname is owned by one node, chosen by
+ * hash over the sorted member addresses, and a login is only accepted after the owner has
+ * reserved the nickname. Every node also announces its logged-in users to all peers. The owner is
+ * fixed by the membership, so while the owner of a nickname is unreachable, every login with that
+ * nickname waits for the reservation timeout of five seconds and then fails; the other nicknames
+ * are not affected.
+ *
+ * <p>When the incoming connection of a peer drops, its reservations and users are kept for a
+ * grace period, as the link may merely have failed. A peer that reconnects announces its current
+ * users again, followed by {@code SYNC}, and only the reservations it no longer holds are
+ * dropped; the events it queued in the meantime tell the clients about the users that left. If
+ * the peer stays away for the whole grace period, its reservations are dropped and its users are
+ * reported to the local clients as having left.
+ *
+ * <p>The nodes exchange text lines of the form {@code <command> <argument>...}; arguments are URL
+ * encoded, except for relayed frames, which are passed on unchanged as the last argument.
+ */
+public class Cluster {
+
+  static final String HELLO = "HELLO";
+  private static final String RESERVE = "RESERVE";
+  private static final String RESERVED = "RESERVED";
+  private static final String RELEASE = "RELEASE";
+  private static final String ONLINE = "ONLINE";
+  private static final String OFFLINE = "OFFLINE";
+  private static final String SYNC = "SYNC";
+  private static final String RELAY = "RELAY";
+  private static final String GLOBAL_SCOPE = "*";
+  private static final String ROOM_SCOPE = "#";
+  private static final String USER_SCOPE = "@";
+
+  private static final Logger LOG = Log.getLogger(Cluster.class);
+  private static final int LINK_QUEUE_CAPACITY = 16 * 1024;
+  private static final long RESERVE_TIMEOUT_MILLIS = 5000;
+
+  private final ChatHandler handler;
+  private final String localAddress;
+  private final List<String> members;
+  private final long graceMillis;
+  private final Map<String, ClusterLink> links;
+  private final ServerSocket listener;
+  private final Set<Socket> incoming;
+  private final ConcurrentMap<String, String> owners;
+  private final ConcurrentMap<String, Socket> connections;
+  private final ConcurrentMap<String, Set<String>> online;
+  private final ConcurrentMap<String, Object> graces;
+  private final ScheduledExecutorService expiry;
+  private final ConcurrentMap<Long, CompletableFuture<Boolean>> pending;
+  private final AtomicLong requestIds;
+
+  /**
+   * Join the cluster: listen for the peers and start connecting to them.
+   *
+   * @param localAddress the cluster address of this node as {@code host:port}
+   * @param peers        the cluster addresses of all other nodes
+   * @param graceMillis  how long the users of a disconnected peer are kept
+   * @param handler      the handler that delivers the events of the peers
+   * @throws IOException if the cluster port cannot be opened
+   */
+  public Cluster(String localAddress, List<String> peers, long graceMillis, ChatHandler handler)
+      throws IOException {
+    this.handler = handler;
+    this.localAddress = localAddress;
+    List<String> sorted = new ArrayList<>(peers);
+    sorted.add(localAddress);
+    Collections.sort(sorted);
+    this.members = List.copyOf(sorted);
+    this.graceMillis = graceMillis;
+    this.incoming = ConcurrentHashMap.newKeySet();
+    this.owners = new ConcurrentHashMap<>();
+    this.connections = new ConcurrentHashMap<>();
+    this.online = new ConcurrentHashMap<>();
+    this.graces = new ConcurrentHashMap<>();
+    this.expiry = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "cluster-grace");
+      thread.setDaemon(true);
+      return thread;
+    });
+    this.pending = new ConcurrentHashMap<>();
+    this.requestIds = new AtomicLong();
+    this.listener = new ServerSocket();
+    listener.setReuseAddress(true);
+    listener.bind(new InetSocketAddress(parseAddress(localAddress).getPort()));
+    Thread acceptor = new Thread(this::acceptPeers, "cluster-acceptor");
+    acceptor.setDaemon(true);
+    acceptor.start();
+    Map<String, ClusterLink> outgoing = new ConcurrentHashMap<>();
+    for (String peer : peers) {
+      outgoing.put(peer, new ClusterLink(localAddress, peer, this::greeting,
+          LINK_QUEUE_CAPACITY));
+    }
+    this.links = outgoing;
+  }
+
+  /**
+   * Parse an address of the form {@code host:port}.
+   *
+   * @param address the address
+   * @return the unresolved socket address
+   */
+  static InetSocketAddress parseAddress(String address) {
+    int separator = address.lastIndexOf(':');
+    if (separator < 0) {
+      throw new IllegalArgumentException("Address without port: " + address);
+    }
+    return new InetSocketAddress(address.substring(0, separator),
+        Integer.parseInt(address.substring(separator + 1)));
+  }
+
+  /**
+   * Reserve a nickname in the whole cluster. Completes immediately if this node owns the
+   * nickname, otherwise once the owner has answered.
+   *
+   * @param nickname the nickname
+   * @return completes with true, if the nickname was free and is now reserved for this node
+   */
+  public CompletableFuture<Boolean> reserve(String nickname) {
+    String owner = ownerOf(nickname);
+    if (owner.equals(localAddress)) {
+      boolean reserved = owners.putIfAbsent(nickname, localAddress) == null;
+      return CompletableFuture.completedFuture(reserved);
+    }
+    long id = requestIds.incrementAndGet();
+    CompletableFuture<Boolean> reply = new CompletableFuture<>();
+    pending.put(id, reply);
+    if (!links.get(owner).send(line(RESERVE, Long.toString(id), encode(nickname)))) {
+      reply.complete(false);
+    }
+    return reply.orTimeout(RESERVE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)
+        .whenComplete((reserved, error) -> {
+          pending.remove(id);
+          if (error != null) {
+            // the owner may still reserve the nickname after the timeout
+            release(nickname);
+          }
+        });
+  }
+
+  /**
+   * Tell all peers that a user with a reserved nickname logs in at this node.
+   *
+   * @param nickname the nickname
+   */
+  public void announce(String nickname) {
+    sendAll(line(ONLINE, encode(nickname)));
+  }
+
+  /**
+   * Release a nickname reserved by this node and tell all peers that its user is gone.
+   *
+   * @param nickname the nickname
+   */
+  public void release(String nickname) {
+    String owner = ownerOf(nickname);
+    if (owner.equals(localAddress)) {
+      owners.remove(nickname, localAddress);
+    } else {
+      links.get(owner).send(line(RELEASE, encode(nickname)));
+    }
+    sendAll(line(OFFLINE, encode(nickname)));
+  }
+
+  private void sendAll(ByteBuffer line) {
+    for (ClusterLink link : links.values()) {
+      if (!link.send(line.duplicate())) {
+        LOG.warn("Dropped event for cluster peer {}", link.getPeerAddress());
+      }
+    }
+  }
+
+  /**
+   * Return the lines every connection to a peer starts with: the users of this node and the end
+   * of the list.
+   */
+  private List<ByteBuffer> greeting() {
+    List<ByteBuffer> lines = new ArrayList<>();
+    for (String nickname : handler.getNicknames()) {
+      lines.add(line(ONLINE, encode(nickname)));
+    }
+    lines.add(line(SYNC));
+    return lines;
+  }
+
+  /**
+   * Pass an event of a local client on to all peers.
+   *
+   * @param room  the room of the event, or null for events visible to everyone
+   * @param frame the encoded event including its separator
+   */
+  public void relay(String room, ByteBuffer frame) {
+    relayScoped(room == null ? GLOBAL_SCOPE : ROOM_SCOPE + encode(room), frame);
+  }
+
+  /**
+   * Pass a direct message of a local client to a user of another node on to all peers.
+   *
+   * @param nickname the nickname of the recipient
+   * @param frame    the encoded message including its separator
+   */
+  public void relayDirect(String nickname, ByteBuffer frame) {
+    relayScoped(USER_SCOPE + encode(nickname), frame);
+  }
+
+  private void relayScoped(String scope, ByteBuffer frame) {
+    byte[] prefix = (RELAY + " " + scope + " ").getBytes(StandardCharsets.UTF_8);
+    sendAll(ByteBuffer.allocate(prefix.length + frame.remaining())
+        .put(prefix).put(frame.duplicate()).flip().asReadOnlyBuffer());
+  }
+
+  private String ownerOf(String nickname) {
+    return members.get(Math.floorMod(nickname.hashCode(), members.size()));
+  }
+
+  private void acceptPeers() {
+    while (!listener.isClosed()) {
+      try {
+        Socket socket = listener.accept();
+        Thread reader = new Thread(() -> readPeer(socket), "cluster-peer-" + socket);
+        reader.setDaemon(true);
+        reader.start();
+      } catch (IOException e) {
+        if (!listener.isClosed()) {
+          LOG.warn("Could not accept cluster peer", e);
+        }
+      }
+    }
+  }
+
+  /**
+   * Handle the lines of a peer until it disconnects.
+   *
+   * @param socket the incoming connection of the peer
+   */
+  private void readPeer(Socket socket) {
+    incoming.add(socket);
+    String peer = null;
+    Set<String> announced = new HashSet<>();
+    try (socket) {
+      LineReader reader = new LineReader(socket.getInputStream());
+      ByteBuffer line;
+      while ((line = reader.readLine()) != null) {
+        String[] fields = command(line);
+        if (!fields[0].equals(HELLO) && (peer == null || !links.containsKey(peer))) {
+          throw new IOException("Command from unknown peer " + peer);
+        }
+        switch (fields[0]) {
+          case HELLO -> {
+            peer = fields[1];
+            connections.put(peer, socket);
+            if (graces.remove(peer) != null) {
+              LOG.info("Cluster peer {} reconnected", peer);
+            }
+          }
+          case RESERVE -> {
+            ClusterLink link = links.get(peer);
+            boolean reserved = owners.putIfAbsent(decode(fields[2]), peer) == null;
+            link.send(line(RESERVED, fields[1], reserved ? "1" : "0"));
+          }
+          case RESERVED -> {
+            CompletableFuture<Boolean> reply = pending.get(Long.parseLong(fields[1]));
+            if (reply != null) {
+              reply.complete(fields[2].equals("1"));
+            }
+          }
+          case RELEASE -> owners.remove(decode(fields[1]), peer);
+          case ONLINE -> {
+            announced.add(decode(fields[1]));
+            online(peer, decode(fields[1]));
+          }
+          case OFFLINE -> offline(peer, decode(fields[1]));
+          case SYNC -> synced(peer, announced);
+          case RELAY -> relayed(fields[1], line);
+          default -> LOG.warn("Unknown cluster command from {}: {}", peer, fields[0]);
+        }
+      }
+    } catch (IOException e) {
+      LOG.debug("Cluster peer {} failed: {}", peer, e);
+    } finally {
+      incoming.remove(socket);
+      if (peer != null && connections.remove(peer, socket)) {
+        disconnected(peer);
+      }
+    }
+  }
+
+  /**
+   * Record a user logged in at a peer and restore its reservation, which may have expired while
+   * the peer was unreachable.
+   *
+   * @param peer     the peer
+   * @param nickname the nickname of the user
+   */
+  private void online(String peer, String nickname) {
+    online.computeIfAbsent(peer, key -> ConcurrentHashMap.newKeySet()).add(nickname);
+    if (ownerOf(nickname).equals(localAddress)) {
+      String holder = owners.putIfAbsent(nickname, peer);
+      if (holder != null && !holder.equals(peer)) {
+        LOG.warn("{} is logged in at two cluster nodes, {}", nickname, holder + " and " + peer);
+      }
+    }
+  }
+
+  private void offline(String peer, String nickname) {
+    Set<String> users = online.get(peer);
+    if (users != null) {
+      users.remove(nickname);
+    }
+  }
+
+  /**
+   * Drop the users and reservations a reconnected peer did not announce again.
+   *
+   * @param peer      the peer
+   * @param announced the nicknames the peer announced since it connected
+   */
+  private void synced(String peer, Set<String> announced) {
+    Set<String> users = online.get(peer);
+    if (users != null) {
+      users.retainAll(announced);
+    }
+    owners.entrySet().removeIf(
+        entry -> entry.getValue().equals(peer) && !announced.contains(entry.getKey()));
+  }
+
+  /**
+   * Keep the users of a peer whose connection dropped until the grace period has passed.
+   *
+   * @param peer the peer
+   */
+  private void disconnected(String peer) {
+    Object grace = new Object();
+    graces.put(peer, grace);
+    LOG.info("Cluster peer {} disconnected, keeping its users for {} ms", peer, graceMillis);
+    try {
+      expiry.schedule(() -> expire(peer, grace), graceMillis, TimeUnit.MILLISECONDS);
+    } catch (RejectedExecutionException e) {
+      // the cluster is stopped
+    }
+  }
+
+  /**
+   * Drop the reservations and users of a peer that has not reconnected within the grace period.
+   *
+   * @param peer  the peer
+   * @param grace the grace period that ends
+   */
+  private void expire(String peer, Object grace) {
+    if (!graces.remove(peer, grace)) {
+      return;
+    }
+    owners.values().removeIf(peer::equals);
+    Set<String> gone = online.remove(peer);
+    LOG.info("Cluster peer {} did not come back", peer);
+    if (gone != null) {
+      for (String nickname : gone) {
+        handler.deliverRemoteUserLeft(nickname);
+      }
+    }
+  }
+
+  /**
+   * Deliver an event relayed by a peer to the local clients.
+   *
+   * @param scope the scope of the event
+   * @param line  the rest of the line, positioned at the frame
+   */
+  private void relayed(String scope, ByteBuffer line) {
+    ByteBuffer frame = ByteBuffer.allocate(line.remaining() + 1).put(line).put((byte) '\n')
+        .flip().asReadOnlyBuffer();
+    if (scope.startsWith(USER_SCOPE)) {
+      handler.deliverDirect(decode(scope.substring(1)), frame);
+      return;
+    }
+    String room = scope.equals(GLOBAL_SCOPE) ? null : decode(scope.substring(1));
+    handler.deliverRemote(room, frame);
+  }
+
+  /**
+   * Split the command and its arguments off a line. For relayed events the line is left
+   * positioned at the frame.
+   */
+  private static String[] command(ByteBuffer line) {
+    List<String> fields = new ArrayList<>(3);
+    int start = line.position();
+    for (int i = start; i < line.limit() && fields.size() < 3; i++) {
+      if (line.get(i) == ' ') {
+        fields.add(ascii(line, start, i));
+        start = i + 1;
+        if (fields.get(0).equals(RELAY) && fields.size() == 2) {
+          line.position(start);
+          return fields.toArray(new String[0]);
+        }
+      }
+    }
+    fields.add(ascii(line, start, line.limit()));
+    return fields.toArray(new String[0]);
+  }
+
+  private static String ascii(ByteBuffer line, int start, int end) {
+    byte[] bytes = new byte[end - start];
+    line.get(start, bytes);
+    return new String(bytes, StandardCharsets.US_ASCII);
+  }
+
+  private static ByteBuffer line(String... fields) {
+    return ByteBuffer.wrap((String.join(" ", fields) + "\n").getBytes(StandardCharsets.UTF_8));
+  }
+
+  private static String encode(String value) {
+    return URLEncoder.encode(value, StandardCharsets.UTF_8);
+  }
+
+  private static String decode(String value) {
+    return URLDecoder.decode(value, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Return the number of peers this node currently has an outgoing link to.
+   *
+   * @return number of connected peers
+   */
+  public int getConnectedPeers() {
+    return (int) links.values().stream().filter(ClusterLink::isConnected).count();
+  }
+
+  /**
+   * Close the incoming connections of all peers, as a failing network would. The peers reconnect
+   * once they notice.
+   *
+   * @throws IOException if a connection cannot be closed
+   */
+  void dropIncoming() throws IOException {
+    for (Socket socket : incoming) {
+      socket.close();
+    }
+  }
+
+  /**
+   * Leave the cluster: close all links and the cluster port.
+   *
+   * @throws IOException if the cluster port cannot be closed
+   */
+  public void stop() throws IOException {
+    expiry.shutdownNow();
+    listener.close();
+    for (ClusterLink link : links.values()) {
+      link.stop();
+    }
+    for (Socket socket : incoming) {
+      socket.close();
+    }
+  }
+}
@@ -0,0 +1,188 @@
+package chat.server;
+
+import chat.logging.Log;
+import chat.logging.Logger;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * The persistent outgoing connection of a {@link Cluster} node to one of its peers. Lines are
+ * queued without blocking and written by a dedicated thread, which reconnects whenever the peer
+ * becomes unreachable. Lines queued while the peer is down are sent once it is back, as long as
+ * they fit into the queue. Every connection starts with a greeting, which announces the node and
+ * its current state to the peer.
+ *
+ * <p>The peer never writes to this connection, so the link checks for the end of the stream
+ * before every batch and while idle: a peer that closed the connection is noticed before lines
+ * are written into it, and the link reconnects. Lines that could not be written completely are
+ * sent again, from their start, on the next connection. Lines already handed to the socket when
+ * the connection breaks without a close by the peer may still be lost.
+ */
+public class ClusterLink implements Runnable {
+
+  private static final Logger LOG = Log.getLogger(ClusterLink.class);
+  private static final long RECONNECT_DELAY_MILLIS = 200;
+
+  private final String localAddress;
+  private final String peerAddress;
+  private final Supplier<List<ByteBuffer>> greeting;
+  private final BlockingQueue<ByteBuffer> queue;
+  private final AtomicLong dropped;
+  private final Thread thread;
+  private volatile SocketChannel socket;
+  private volatile boolean connected;
+  private volatile boolean stopped;
+
+  /**
+   * Create a link and start connecting to the peer.
+   *
+   * @param localAddress  the cluster address of this node, announced to the peer
+   * @param peerAddress   the cluster address of the peer as {@code host:port}
+   * @param greeting      supplies the lines sent after the hello of every connection
+   * @param queueCapacity number of lines that may wait to be sent
+   */
+  public ClusterLink(String localAddress, String peerAddress,
+      Supplier<List<ByteBuffer>> greeting, int queueCapacity) {
+    this.localAddress = localAddress;
+    this.peerAddress = peerAddress;
+    this.greeting = greeting;
+    this.queue = new ArrayBlockingQueue<>(queueCapacity);
+    this.dropped = new AtomicLong();
+    this.thread = new Thread(this, "cluster-link-" + peerAddress);
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  /**
+   * Queue a line for the peer without blocking.
+   *
+   * @param line the line including its separator
+   * @return false, if the line was dropped because the queue is full
+   */
+  public boolean send(ByteBuffer line) {
+    if (queue.offer(line)) {
+      return true;
+    }
+    dropped.incrementAndGet();
+    return false;
+  }
+
+  @Override
+  public void run() {
+    List<ByteBuffer> batch = new ArrayList<>();
+    ByteBuffer probe = ByteBuffer.allocate(1);
+    while (!stopped) {
+      try (SocketChannel peer = SocketChannel.open()) {
+        socket = peer;
+        peer.connect(Cluster.parseAddress(peerAddress));
+        peer.socket().setTcpNoDelay(true);
+        List<ByteBuffer> hello = new ArrayList<>();
+        hello.add(ByteBuffer.wrap((Cluster.HELLO + " " + localAddress + "\n")
+            .getBytes(StandardCharsets.UTF_8)));
+        hello.addAll(greeting.get());
+        write(peer, hello);
+        connected = true;
+        LOG.info("Connected to cluster peer {}", peerAddress);
+        if (!batch.isEmpty()) {
+          write(peer, batch);
+        }
+        while (!stopped) {
+          ByteBuffer line = queue.poll(1, TimeUnit.SECONDS);
+          if (line != null) {
+            batch.add(line);
+            queue.drainTo(batch);
+          }
+          checkOpen(peer, probe);
+          if (!batch.isEmpty()) {
+            write(peer, batch);
+          }
+        }
+      } catch (IOException e) {
+        if (connected) {
+          LOG.warn("Lost cluster peer {}", peerAddress, e);
+        }
+        // the partly written lines are sent again from their start
+        batch.removeIf(line -> !line.hasRemaining());
+        batch.forEach(ByteBuffer::rewind);
+      } catch (InterruptedException e) {
+        return;
+      } finally {
+        connected = false;
+      }
+      try {
+        Thread.sleep(RECONNECT_DELAY_MILLIS);
+      } catch (InterruptedException e) {
+        return;
+      }
+    }
+  }
+
+  /**
+   * Write all lines of a batch and clear it. If writing fails, the batch keeps its lines.
+   */
+  private static void write(SocketChannel peer, List<ByteBuffer> batch) throws IOException {
+    ByteBuffer[] lines = batch.toArray(new ByteBuffer[0]);
+    while (lines[lines.length - 1].hasRemaining()) {
+      peer.write(lines);
+    }
+    batch.clear();
+  }
+
+  /**
+   * Check without blocking whether the peer has closed the connection.
+   *
+   * @throws IOException if the peer has closed the connection
+   */
+  private static void checkOpen(SocketChannel peer, ByteBuffer probe) throws IOException {
+    peer.configureBlocking(false);
+    try {
+      if (peer.read(probe.clear()) < 0) {
+        throw new IOException("Connection closed by the peer");
+      }
+    } finally {
+      peer.configureBlocking(true);
+    }
+  }
+
+  public boolean isConnected() {
+    return connected;
+  }
+
+  public String getPeerAddress() {
+    return peerAddress;
+  }
+
+  /**
+   * Return how many lines were dropped because the peer could not keep up.
+   *
+   * @return number of dropped lines
+   */
+  public long getDropped() {
+    return dropped.get();
+  }
+
+  /**
+   * Close the connection and stop the link thread.
+   */
+  public void stop() {
+    stopped = true;
+    thread.interrupt();
+    SocketChannel current = socket;
+    if (current != null) {
+      try {
+        current.close();
+      } catch (IOException e) {
+        // the link is stopped anyway
+      }
+    }
+  }
+}
@@ -0,0 +1,86 @@
+package chat.server;
+
+import chat.logging.Log;
+import chat.logging.Logger;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The threads that deliver a message to the stripes of a {@link Room} in parallel. Every stripe is
+ * served by a single thread, which runs the deliveries in the order they were handed over, so each
+ * recipient receives its messages in order while a large room is written by all threads at once.
+ */
+class FanOut {
+
+  private static final Logger LOG = Log.getLogger(FanOut.class);
+
+  private final ExecutorService[] workers;
+
+  /**
+   * Create the fan-out and start its threads.
+   *
+   * @param stripes number of stripes and threads, at least one
+   */
+  FanOut(int stripes) {
+    this.workers = new ExecutorService[stripes];
+    for (int i = 0; i < stripes; i++) {
+      String name = "chat-fan-out-" + i;
+      this.workers[i] = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, name);
+        thread.setDaemon(true);
+        return thread;
+      });
+    }
+  }
+
+  int getStripes() {
+    return workers.length;
+  }
+
+  /**
+   * Run the delivery to a stripe on the thread of that stripe. Deliveries handed over after the
+   * shutdown are dropped.
+   *
+   * @param stripe   the index of the stripe
+   * @param delivery the delivery
+   */
+  void execute(int stripe, Runnable delivery) {
+    try {
+      workers[stripe].execute(delivery);
+    } catch (RejectedExecutionException e) {
+      LOG.debug("Dropped a delivery to stripe {} after the shutdown", stripe);
+    }
+  }
+
+  /**
+   * Stop accepting deliveries. Those already handed over are still run.
+   */
+  void shutdown() {
+    for (ExecutorService worker : workers) {
+      worker.shutdown();
+    }
+  }
+
+  /**
+   * Wait for the deliveries handed over before the {@link #shutdown()}.
+   *
+   * @param deadline the {@link System#nanoTime()} after which to stop waiting
+   * @throws InterruptedException if the thread is interrupted while waiting
+   */
+  void awaitTermination(long deadline) throws InterruptedException {
+    for (ExecutorService worker : workers) {
+      worker.awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+    }
+  }
+
+  /**
+   * Stop the threads. Deliveries that have not started are dropped.
+   */
+  void stop() {
+    for (ExecutorService worker : workers) {
+      worker.shutdownNow();
+    }
+  }
+}
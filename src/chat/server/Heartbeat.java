@@ -0,0 +1,125 @@
+package chat.server;
+
+import chat.logging.Log;
+import chat.logging.Logger;
+import chat.protocol.MessageFrames;
+import chat.protocol.Ping;
+import chat.util.HashedWheelTimer;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Detects clients that are gone without closing their connection, e.g. behind a half-open TCP
+ * connection, which the server would otherwise only notice once its writes fail. Every connection
+ * has a single pending check on a {@link HashedWheelTimer}. Receiving a message merely updates the
+ * time of the last activity of the connection; the check compares against it when it is due and
+ * schedules itself again, so activity costs no timer operation at all.
+ *
+ * <p>A logged-in client that has been silent for half of the idle timeout is sent a
+ * {@link Ping}. Clients that stay silent for the whole idle timeout, as well as connections that
+ * do not log in within the login timeout, are disconnected like any other client, so the
+ * remaining users are told that they left. Only clients that asked for the heartbeat at their
+ * login are pinged and held to the idle timeout; older clients do not know pings and may well
+ * listen without ever writing, so their connection is no longer checked once they logged in.
+ */
+public class Heartbeat {
+
+  private static final Logger LOG = Log.getLogger(Heartbeat.class);
+  private static final MessageFrames PING = new MessageFrames(new Ping());
+  private static final long TICK_MILLIS = 100;
+  private static final int WHEEL_SIZE = 512;
+
+  private final ChatHandler handler;
+  private final long idleTimeoutNanos;
+  private final long loginTimeoutNanos;
+  private final HashedWheelTimer timer;
+
+  /**
+   * Create the heartbeat and start its timer thread.
+   *
+   * @param handler            the handler that disconnects the clients
+   * @param idleTimeoutMillis  how long a client may stay silent, 0 for no limit
+   * @param loginTimeoutMillis how long a connection may take to log in, 0 for no limit
+   */
+  public Heartbeat(ChatHandler handler, long idleTimeoutMillis, long loginTimeoutMillis) {
+    this.handler = handler;
+    this.idleTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(idleTimeoutMillis);
+    this.loginTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(loginTimeoutMillis);
+    this.timer = new HashedWheelTimer("heartbeat", TICK_MILLIS, TimeUnit.MILLISECONDS,
+        WHEEL_SIZE);
+  }
+
+  /**
+   * Start watching a newly accepted connection until it is closed.
+   *
+   * @param connection the connection
+   */
+  public void watch(ClientConnection connection) {
+    long connectedAt = System.nanoTime();
+    check(connection, connectedAt, connectedAt);
+  }
+
+  /**
+   * Disconnect the connection if one of its timeouts has expired, otherwise ping it if necessary
+   * and check again at its next deadline.
+   */
+  private void check(ClientConnection connection, long connectedAt, long now) {
+    if (connection.isClosed()) {
+      return;
+    }
+    boolean loggedIn = connection.getUser() != null;
+    if (!loggedIn && loginTimeoutNanos > 0 && now - connectedAt >= loginTimeoutNanos) {
+      LOG.info("Closing {}, which did not log in in time", connection);
+      handler.handleDisconnect(connection);
+      return;
+    }
+    if (loggedIn && !connection.isHeartbeat()) {
+      return;
+    }
+    long lastActivity = connection.getLastActivity();
+    long idle = now - lastActivity;
+    if (idleTimeoutNanos > 0 && idle >= idleTimeoutNanos) {
+      LOG.info("Disconnecting {}, which did not answer in time", describe(connection));
+      handler.handleDisconnect(connection);
+      return;
+    }
+    long next = Long.MAX_VALUE;
+    if (!loggedIn && loginTimeoutNanos > 0) {
+      next = connectedAt + loginTimeoutNanos;
+    }
+    if (idleTimeoutNanos > 0) {
+      if (idle < idleTimeoutNanos / 2) {
+        next = Math.min(next, lastActivity + idleTimeoutNanos / 2);
+      } else {
+        if (loggedIn) {
+          ping(connection);
+        }
+        next = Math.min(next, lastActivity + idleTimeoutNanos);
+      }
+    }
+    if (next != Long.MAX_VALUE) {
+      timer.schedule(() -> check(connection, connectedAt, System.nanoTime()), next - now,
+          TimeUnit.NANOSECONDS);
+    }
+  }
+
+  private void ping(ClientConnection connection) {
+    try {
+      connection.send(PING.get(connection.getFormat()));
+    } catch (IOException e) {
+      handler.handleDisconnect(connection);
+    }
+  }
+
+  private static String describe(ClientConnection connection) {
+    User user = connection.getUser();
+    return user == null ? connection.toString() : user.getName();
+  }
+
+  /**
+   * Stop the timer thread. Connections are no longer checked afterwards.
+   */
+  public void stop() {
+    timer.stop();
+  }
+}
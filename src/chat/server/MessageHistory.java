@@ -0,0 +1,70 @@
+package chat.server;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The most recent chat events, kept as encoded frames so they can be replayed to a client that
+ * has just logged in. All memory is allocated up front: every entry owns a fixed-size slice of a
+ * single byte array, and frames that do not fit into a slice are not recorded.
+ */
+public class MessageHistory {
+
+  private final byte[] storage;
+  private final int[] lengths;
+  private final int entryBytes;
+  private int next;
+  private int size;
+
+  /**
+   * Create an empty history.
+   *
+   * @param capacity   number of entries that are kept, 0 disables the history
+   * @param entryBytes maximum size of a single encoded frame
+   */
+  public MessageHistory(int capacity, int entryBytes) {
+    this.storage = new byte[Math.multiplyExact(capacity, entryBytes)];
+    this.lengths = new int[capacity];
+    this.entryBytes = entryBytes;
+  }
+
+  /**
+   * Append an encoded frame, replacing the oldest entry once the history is full.
+   *
+   * @param frame the encoded message including its separator, between position and limit
+   * @return true, if the frame was recorded
+   */
+  public synchronized boolean record(ByteBuffer frame) {
+    int length = frame.remaining();
+    if (lengths.length == 0 || length > entryBytes) {
+      return false;
+    }
+    frame.duplicate().get(storage, next * entryBytes, length);
+    lengths[next] = length;
+    next = (next + 1) % lengths.length;
+    size = Math.min(size + 1, lengths.length);
+    return true;
+  }
+
+  /**
+   * Copy all recorded frames, oldest first, into one buffer that can be written at once.
+   *
+   * @return the concatenated frames, empty if nothing was recorded
+   */
+  public synchronized ByteBuffer replay() {
+    int first = (next - size + lengths.length) % Math.max(1, lengths.length);
+    int total = 0;
+    for (int i = 0; i < size; i++) {
+      total += lengths[(first + i) % lengths.length];
+    }
+    ByteBuffer backlog = ByteBuffer.allocate(total);
+    for (int i = 0; i < size; i++) {
+      int entry = (first + i) % lengths.length;
+      backlog.put(storage, entry * entryBytes, lengths[entry]);
+    }
+    return backlog.flip().asReadOnlyBuffer();
+  }
+
+  public synchronized int size() {
+    return size;
+  }
+}
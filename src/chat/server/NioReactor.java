@@ -0,0 +1,332 @@
+package chat.server;
+
+import chat.logging.Log;
+import chat.logging.Logger;
+import chat.util.BufferPool;
+import java.io.IOException;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A selector thread that serves many non-blocking client connections at once. Each accepted
+ * channel is owned by exactly one reactor, which performs all reads and writes on it; other
+ * threads only hand over work through {@link #execute(Runnable)}. Delayed work of the reactor
+ * itself, like resuming a throttled connection, is kept in a timer queue that bounds the time the
+ * selector waits.
+ *
+ * <p>Messages queued by other threads are written in batches: a connection is added to the
+ * pending flushes, and the selector woken, only when its first message since the last flush
+ * arrives, so a broadcast costs one wakeup per connection and burst rather than per message.
+ *
+ * <p>A task or connection that fails unexpectedly is logged; the connection is disconnected and
+ * the reactor keeps serving the others.
+ */
+public class NioReactor implements Runnable {
+
+  private static final Logger LOG = Log.getLogger(NioReactor.class);
+
+  private static final ThreadLocal<Boolean> REACTOR_THREAD =
+      ThreadLocal.withInitial(() -> false);
+
+  private final Selector selector;
+  private final ChatHandler handler;
+  private final ServerConfig config;
+  private final RateLimits rateLimits;
+  private final BufferPool readBuffers;
+  private final Queue<Runnable> tasks;
+  private final Queue<ChannelClientConnection> pendingFlushes;
+  private final PriorityQueue<Timer> timers;
+  private final AtomicInteger connections;
+  private final Thread thread;
+
+  /**
+   * Create a reactor and start its selector thread.
+   *
+   * @param name        the name of the selector thread
+   * @param handler     the handler for lines received on the served connections
+   * @param config      the configuration of the server
+   * @param rateLimits  the limits of the incoming messages
+   * @param readBuffers the pool of the read buffers of the connections
+   * @throws IOException if the selector cannot be opened
+   */
+  public NioReactor(String name, ChatHandler handler, ServerConfig config,
+      RateLimits rateLimits, BufferPool readBuffers) throws IOException {
+    this.selector = Selector.open();
+    this.handler = handler;
+    this.config = config;
+    this.rateLimits = rateLimits;
+    this.readBuffers = readBuffers;
+    this.tasks = new ConcurrentLinkedQueue<>();
+    this.pendingFlushes = new ConcurrentLinkedQueue<>();
+    this.timers = new PriorityQueue<>(Comparator.comparingLong(Timer::deadline));
+    this.connections = new AtomicInteger();
+    this.thread = new Thread(this, name);
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  /**
+   * Hand a newly accepted channel over to this reactor.
+   *
+   * @param channel the accepted channel
+   * @throws IOException if the channel cannot be switched to non-blocking mode
+   */
+  public void register(SocketChannel channel) throws IOException {
+    channel.configureBlocking(false);
+    ChannelClientConnection connection =
+        new ChannelClientConnection(channel, config.newOutboundQueue(), rateLimits.newLimiter(),
+            handler.getMetrics(), this, readBuffers);
+    connections.incrementAndGet();
+    handler.handleConnect(connection);
+    execute(() -> {
+      try {
+        connection.setKey(channel.register(selector, SelectionKey.OP_READ, connection));
+        LOG.debug("New connection via channel {}", channel);
+      } catch (IOException e) {
+        LOG.warn("Could not register {}", channel, e);
+        handler.handleDisconnect(connection);
+      }
+    });
+  }
+
+  /**
+   * Note that a connection served by this reactor has been closed.
+   */
+  void connectionClosed() {
+    connections.decrementAndGet();
+  }
+
+  /**
+   * Return the number of open connections served by this reactor, which new connections are
+   * balanced by.
+   *
+   * @return number of open connections
+   */
+  public int getConnections() {
+    return connections.get();
+  }
+
+  /**
+   * Make sure that the queued messages of a connection get written. Writes directly if called on
+   * the reactor thread; otherwise schedules the connection for a flush unless it already is.
+   *
+   * @param connection the connection with queued messages
+   */
+  void requestFlush(ChannelClientConnection connection) {
+    if (Thread.currentThread() == thread) {
+      flush(connection);
+    } else if (connection.scheduleFlush()) {
+      pendingFlushes.add(connection);
+      selector.wakeup();
+    }
+  }
+
+  /**
+   * Stop reading from a connection that exceeded its rate limit and continue with its buffered
+   * lines after the given delay. Only called on the reactor thread.
+   *
+   * @param connection the throttled connection
+   * @param waitNanos  the time until the connection may submit its next line
+   */
+  void pauseReading(ChannelClientConnection connection, long waitNanos) {
+    SelectionKey key = connection.getChannel().keyFor(selector);
+    if (key == null || !key.isValid()) {
+      return;
+    }
+    key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+    timers.add(new Timer(System.nanoTime() + waitNanos, () -> resumeReading(key)));
+  }
+
+  private void resumeReading(SelectionKey key) {
+    ChannelClientConnection connection = (ChannelClientConnection) key.attachment();
+    if (!key.isValid() || connection.isClosed()) {
+      return;
+    }
+    key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+    read(connection);
+  }
+
+  /**
+   * Return whether the current thread is the selector thread of any reactor.
+   *
+   * @return true, if called on a selector thread
+   */
+  static boolean isReactorThread() {
+    return REACTOR_THREAD.get();
+  }
+
+  /**
+   * Run a task on the reactor thread.
+   *
+   * @param task the task to be run
+   */
+  public void execute(Runnable task) {
+    tasks.add(task);
+    selector.wakeup();
+  }
+
+  @Override
+  public void run() {
+    REACTOR_THREAD.set(true);
+    try {
+      while (selector.isOpen()) {
+        Timer next = timers.peek();
+        if (next == null) {
+          selector.select();
+        } else {
+          long wait = TimeUnit.NANOSECONDS.toMillis(next.deadline() - System.nanoTime());
+          if (wait > 0) {
+            selector.select(wait);
+          } else {
+            selector.selectNow();
+          }
+        }
+        long now = System.nanoTime();
+        while (!timers.isEmpty() && timers.peek().deadline() - now <= 0) {
+          runTask(timers.poll().task());
+        }
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+          runTask(task);
+        }
+        ChannelClientConnection pending;
+        while ((pending = pendingFlushes.poll()) != null) {
+          // cleared first, so a message queued during the flush schedules the next one
+          pending.flushDone();
+          flush(pending);
+        }
+        Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+        while (keys.hasNext()) {
+          SelectionKey key = keys.next();
+          keys.remove();
+          process(key);
+        }
+      }
+    } catch (ClosedSelectorException e) {
+      // Reactor was stopped, exiting the thread
+    } catch (IOException e) {
+      LOG.error("Reactor failed", e);
+    }
+  }
+
+  /**
+   * Run a task or timer on the reactor thread. A failing task is logged and skipped, so the
+   * reactor keeps serving its other connections.
+   *
+   * @param task the task
+   */
+  private void runTask(Runnable task) {
+    try {
+      task.run();
+    } catch (ClosedSelectorException e) {
+      throw e;
+    } catch (RuntimeException e) {
+      LOG.error("Reactor task failed", e);
+    }
+  }
+
+  /**
+   * Serve a single ready channel.
+   *
+   * @param key the selection key of the channel
+   */
+  private void process(SelectionKey key) {
+    ChannelClientConnection connection = (ChannelClientConnection) key.attachment();
+    try {
+      if (key.isWritable()) {
+        connection.flush();
+      }
+    } catch (CancelledKeyException e) {
+      handler.handleDisconnect(connection);
+      return;
+    } catch (IOException e) {
+      LOG.debug("Connection {} failed: {}", connection, e);
+      connection.writeFailed();
+      handler.handleDisconnect(connection);
+      return;
+    } catch (RuntimeException e) {
+      failed(connection, e);
+      return;
+    }
+    if (key.isValid() && key.isReadable()) {
+      read(connection);
+    }
+  }
+
+  /**
+   * Disconnect a connection whose processing failed unexpectedly, without affecting the other
+   * connections of the reactor.
+   *
+   * @param connection the connection
+   * @param e          the failure
+   */
+  private void failed(ChannelClientConnection connection, RuntimeException e) {
+    LOG.error("Connection {} failed unexpectedly", connection, e);
+    handler.handleDisconnect(connection);
+  }
+
+  private void read(ChannelClientConnection connection) {
+    try {
+      if (!connection.readLines(handler)) {
+        LOG.debug("Client disconnected: {}", connection);
+        handler.handleDisconnect(connection);
+      }
+    } catch (CancelledKeyException e) {
+      handler.handleDisconnect(connection);
+    } catch (IOException e) {
+      LOG.debug("Connection {} failed: {}", connection, e);
+      handler.handleDisconnect(connection);
+    } catch (RuntimeException e) {
+      failed(connection, e);
+    }
+  }
+
+  private void flush(ChannelClientConnection connection) {
+    if (connection.isClosed()) {
+      return;
+    }
+    try {
+      connection.flush();
+    } catch (CancelledKeyException e) {
+      handler.handleDisconnect(connection);
+    } catch (IOException e) {
+      connection.writeFailed();
+      handler.handleDisconnect(connection);
+    } catch (RuntimeException e) {
+      failed(connection, e);
+    }
+  }
+
+  /**
+   * Close the selector and all channels served by this reactor. The reactor thread terminates
+   * afterwards.
+   */
+  public void stop() {
+    execute(() -> {
+      try {
+        for (SelectionKey key : selector.keys()) {
+          key.channel().close();
+        }
+        selector.close();
+      } catch (IOException e) {
+        LOG.warn("Could not close reactor", e);
+      }
+    });
+  }
+
+  /**
+   * A task that runs on the reactor thread once its deadline has passed.
+   */
+  private record Timer(long deadline, Runnable task) {
+  }
+}
@@ -0,0 +1,101 @@
+package chat.server;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The bounded queue of encoded messages that wait to be written to a single client. Senders only
+ * enqueue, so a client with a full TCP window delays nobody but itself; once the queue is full the
+ * {@link SlowConsumerPolicy} decides what happens.
+ */
+public class OutboundQueue {
+
+  private final BlockingQueue<ByteBuffer> messages;
+  private final SlowConsumerPolicy policy;
+  private final long blockTimeoutMillis;
+  private final AtomicLong dropped;
+
+  /**
+   * Create an empty queue.
+   *
+   * @param capacity           maximum number of queued messages
+   * @param policy             the policy applied when the queue is full
+   * @param blockTimeoutMillis how long a sender waits for space under
+   *                           {@link SlowConsumerPolicy#BLOCK}
+   */
+  public OutboundQueue(int capacity, SlowConsumerPolicy policy, long blockTimeoutMillis) {
+    this.messages = new ArrayBlockingQueue<>(capacity);
+    this.policy = policy;
+    this.blockTimeoutMillis = blockTimeoutMillis;
+    this.dropped = new AtomicLong();
+  }
+
+  /**
+   * Enqueue a message according to the slow-consumer policy.
+   *
+   * @param message  the encoded message
+   * @param mayBlock whether the calling thread is allowed to wait for free space
+   * @return false, when the client is too slow and has to be disconnected
+   */
+  public boolean offer(ByteBuffer message, boolean mayBlock) {
+    if (messages.offer(message)) {
+      return true;
+    }
+    switch (policy) {
+      case DROP_OLDEST -> {
+        do {
+          if (messages.poll() != null) {
+            dropped.incrementAndGet();
+          }
+        } while (!messages.offer(message));
+        return true;
+      }
+      case BLOCK -> {
+        if (!mayBlock) {
+          return false;
+        }
+        try {
+          return messages.offer(message, blockTimeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          return false;
+        }
+      }
+      default -> {
+        return false;
+      }
+    }
+  }
+
+  /**
+   * Remove the next message without waiting.
+   *
+   * @return the next message, or null if the queue is empty
+   */
+  public ByteBuffer poll() {
+    return messages.poll();
+  }
+
+  /**
+   * Remove the next message, waiting for one if necessary.
+   *
+   * @param timeout how long to wait
+   * @param unit    the unit of the timeout
+   * @return the next message, or null if none arrived in time
+   * @throws InterruptedException if interrupted while waiting
+   */
+  public ByteBuffer poll(long timeout, TimeUnit unit) throws InterruptedException {
+    return messages.poll(timeout, unit);
+  }
+
+  public int size() {
+    return messages.size();
+  }
+
+  public long getDropped() {
+    return dropped.get();
+  }
+}
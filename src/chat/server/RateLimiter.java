@@ -0,0 +1,55 @@
+package chat.server;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Limits the messages and bytes a single connection may submit per second. The reader of the
+ * connection asks for permission before it handles a line; while permission is refused it stops
+ * reading, so the client is slowed down by TCP flow control instead of being buffered.
+ */
+public class RateLimiter {
+
+  private final RateLimits limits;
+  private final TokenBucket messages;
+  private final TokenBucket bytes;
+  private final AtomicBoolean throttled;
+
+  RateLimiter(RateLimits limits, double messagesPerSecond, double bytesPerSecond) {
+    long now = System.nanoTime();
+    this.limits = limits;
+    this.messages = new TokenBucket(messagesPerSecond, Math.max(1, messagesPerSecond), now);
+    this.bytes = new TokenBucket(bytesPerSecond, Math.max(1, bytesPerSecond), now);
+    this.throttled = new AtomicBoolean();
+  }
+
+  /**
+   * Ask for permission to handle a line. Only called by the reader of the connection.
+   *
+   * @param length the length of the line in bytes
+   * @return 0 if the line may be handled now, otherwise the nanoseconds to pause reading before
+   *     asking again
+   */
+  public long acquire(int length) {
+    long now = System.nanoTime();
+    long wait = Math.max(messages.waitNanos(1, now), bytes.waitNanos(length, now));
+    if (wait > 0) {
+      if (throttled.compareAndSet(false, true)) {
+        limits.throttled();
+      }
+      return wait;
+    }
+    messages.take(1);
+    bytes.take(length);
+    release();
+    return 0;
+  }
+
+  /**
+   * End a throttling period, e.g. because the connection was closed while its reads were paused.
+   */
+  public void release() {
+    if (throttled.compareAndSet(true, false)) {
+      limits.resumed();
+    }
+  }
+}
@@ -0,0 +1,66 @@
+package chat.server;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The configured rate limits of the server, together with the statistics of all connections.
+ * Creates one {@link RateLimiter} per connection.
+ */
+public class RateLimits {
+
+  private final double messagesPerSecond;
+  private final double bytesPerSecond;
+  private final AtomicInteger throttledConnections;
+  private final LongAdder delayedMessages;
+
+  /**
+   * Create the limits.
+   *
+   * @param messagesPerSecond messages a connection may submit per second, 0 for no limit
+   * @param bytesPerSecond    bytes a connection may submit per second, 0 for no limit
+   */
+  public RateLimits(double messagesPerSecond, double bytesPerSecond) {
+    this.messagesPerSecond = messagesPerSecond;
+    this.bytesPerSecond = bytesPerSecond;
+    this.throttledConnections = new AtomicInteger();
+    this.delayedMessages = new LongAdder();
+  }
+
+  /**
+   * Create the limiter of a new connection. Each limiter allows bursts of up to one second of
+   * traffic.
+   *
+   * @return the limiter
+   */
+  public RateLimiter newLimiter() {
+    return new RateLimiter(this, messagesPerSecond, bytesPerSecond);
+  }
+
+  void throttled() {
+    throttledConnections.incrementAndGet();
+    delayedMessages.increment();
+  }
+
+  void resumed() {
+    throttledConnections.decrementAndGet();
+  }
+
+  /**
+   * Return the number of connections whose reads are currently paused.
+   *
+   * @return number of throttled connections
+   */
+  public int getThrottledConnections() {
+    return throttledConnections.get();
+  }
+
+  /**
+   * Return how many messages had to wait because their connection exceeded its limit.
+   *
+   * @return number of delayed messages
+   */
+  public long getDelayedMessages() {
+    return delayedMessages.sum();
+  }
+}
@@ -0,0 +1,129 @@
+package chat.server;
+
+import java.util.AbstractCollection;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A chat room and the users that receive its messages. Members are added and removed without
+ * locking, and a message to the room only visits its members.
+ *
+ * <p>The members are partitioned into a fixed number of stripes, so the delivery of a message can
+ * be split among several threads. A user always belongs to the same stripe of every room, which
+ * lets a single thread serve all messages of a user in order.
+ */
+public class Room {
+
+  private final String name;
+  private final Set<User>[] stripes;
+  private final Collection<User> members;
+
+  /**
+   * Create an empty room with a single stripe.
+   *
+   * @param name the name of the room
+   */
+  public Room(String name) {
+    this(name, 1);
+  }
+
+  /**
+   * Create an empty room.
+   *
+   * @param name    the name of the room
+   * @param stripes number of stripes the members are partitioned into, at least one
+   */
+  @SuppressWarnings("unchecked")
+  public Room(String name, int stripes) {
+    this.name = name;
+    this.stripes = (Set<User>[]) new Set<?>[stripes];
+    for (int i = 0; i < stripes; i++) {
+      this.stripes[i] = ConcurrentHashMap.newKeySet();
+    }
+    this.members = stripes == 1 ? Collections.unmodifiableSet(this.stripes[0]) : new Members();
+  }
+
+  /**
+   * Return the stripe a user belongs to.
+   *
+   * @param user    the user
+   * @param stripes number of stripes
+   * @return the index of the stripe
+   */
+  static int stripeOf(User user, int stripes) {
+    return Math.floorMod(user.hashCode(), stripes);
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  boolean add(User user) {
+    return stripes[stripeOf(user, stripes.length)].add(user);
+  }
+
+  boolean remove(User user) {
+    return stripes[stripeOf(user, stripes.length)].remove(user);
+  }
+
+  public boolean contains(User user) {
+    return stripes[stripeOf(user, stripes.length)].contains(user);
+  }
+
+  /**
+   * Return a live view of the members for iteration without locking. Users joining or leaving
+   * during the iteration may or may not be seen.
+   *
+   * @return the members of the room
+   */
+  public Collection<User> members() {
+    return members;
+  }
+
+  /**
+   * Return a live view of the members of a single stripe, like {@link #members()}.
+   *
+   * @param stripe the index of the stripe
+   * @return the members of the stripe
+   */
+  public Collection<User> members(int stripe) {
+    return Collections.unmodifiableSet(stripes[stripe]);
+  }
+
+  public int getStripes() {
+    return stripes.length;
+  }
+
+  public boolean isEmpty() {
+    for (Set<User> stripe : stripes) {
+      if (!stripe.isEmpty()) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * The members of all stripes.
+   */
+  private final class Members extends AbstractCollection<User> {
+
+    @Override
+    public Iterator<User> iterator() {
+      return Arrays.stream(stripes).flatMap(Set::stream).iterator();
+    }
+
+    @Override
+    public int size() {
+      int size = 0;
+      for (Set<User> stripe : stripes) {
+        size += stripe.size();
+      }
+      return size;
+    }
+  }
+}
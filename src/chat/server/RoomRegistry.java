@@ -0,0 +1,105 @@
+package chat.server;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The rooms of the chat, indexed by name. A room is created by its first member and removed with
+ * its last one, except for the default room that every user joins on login.
+ */
+public class RoomRegistry {
+
+  /**
+   * The name of the room whose messages are exchanged with clients that do not know rooms.
+   */
+  public static final String DEFAULT_ROOM = "lobby";
+
+  private final ConcurrentMap<String, Room> rooms;
+  private final Room defaultRoom;
+  private final int stripes;
+
+  /**
+   * Create a registry that only holds the empty default room.
+   */
+  public RoomRegistry() {
+    this(1);
+  }
+
+  /**
+   * Create a registry that only holds the empty default room.
+   *
+   * @param stripes number of stripes the members of every room are partitioned into
+   */
+  public RoomRegistry(int stripes) {
+    this.rooms = new ConcurrentHashMap<>();
+    this.stripes = stripes;
+    this.defaultRoom = new Room(DEFAULT_ROOM, stripes);
+    rooms.put(DEFAULT_ROOM, defaultRoom);
+  }
+
+  /**
+   * Add a user to a room, creating the room if necessary.
+   *
+   * @param user the user
+   * @param name the name of the room
+   * @return true, if the user was not a member before
+   */
+  public boolean join(User user, String name) {
+    boolean[] added = new boolean[1];
+    rooms.compute(name, (key, room) -> {
+      Room joined = room == null ? new Room(key, stripes) : room;
+      added[0] = joined.add(user);
+      return joined;
+    });
+    if (added[0]) {
+      user.getRooms().add(name);
+    }
+    return added[0];
+  }
+
+  /**
+   * Remove a user from a room. A room without members is removed, unless it is the default room.
+   *
+   * @param user the user
+   * @param name the name of the room
+   * @return true, if the user was a member
+   */
+  public boolean leave(User user, String name) {
+    boolean[] removed = new boolean[1];
+    rooms.computeIfPresent(name, (key, room) -> {
+      removed[0] = room.remove(user);
+      return room.isEmpty() && room != defaultRoom ? null : room;
+    });
+    user.getRooms().remove(name);
+    return removed[0];
+  }
+
+  /**
+   * Remove a user from all rooms it has joined.
+   *
+   * @param user the user that left the chat
+   */
+  public void leaveAll(User user) {
+    for (String name : user.getRooms()) {
+      leave(user, name);
+    }
+  }
+
+  /**
+   * Look up a room.
+   *
+   * @param name the name of the room
+   * @return the room, or null if it has no members
+   */
+  public Room get(String name) {
+    return rooms.get(name);
+  }
+
+  public Room getDefaultRoom() {
+    return defaultRoom;
+  }
+
+  public int size() {
+    return rooms.size();
+  }
+}
@@ -0,0 +1,155 @@
+package chat.server;
+
+import chat.util.RingBuffer;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Puts the chat messages of all clients into a single total order. The threads that read from the
+ * connections publish the posts into a preallocated {@link RingBuffer}; the only consumer, the
+ * sequencer thread, assigns each post the next message id and hands it to the delivery. As every
+ * message is delivered by this one thread, every recipient receives them in the order of their
+ * ids.
+ *
+ * <p>If the sequencer falls behind by more than the queue capacity, publishing waits for a free
+ * slot, which slows down the reading of the posting clients instead of dropping their messages.
+ */
+class Sequencer implements Runnable {
+
+  private static final long RETRY_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+
+  private final RingBuffer<Post> queue;
+  private final Delivery delivery;
+  private final Thread thread;
+  private long lastId;
+  private volatile boolean closed;
+  private volatile boolean stopped;
+  private volatile boolean idle;
+
+  /**
+   * The delivery of a sequenced message.
+   */
+  @FunctionalInterface
+  interface Delivery {
+
+    /**
+     * Deliver a message. Called by the sequencer thread only, in the order of the ids.
+     *
+     * @param source  the user that posted the message
+     * @param room    the room the message was posted to
+     * @param content the content of the message
+     * @param id      the message id
+     */
+    void deliver(User source, Room room, String content, long id);
+  }
+
+  /**
+   * A slot of the queue, reused for every post that passes it.
+   */
+  private static final class Post {
+
+    private User source;
+    private Room room;
+    private String content;
+  }
+
+  /**
+   * Create a sequencer and start its thread.
+   *
+   * @param queueCapacity number of posts that may wait for the sequencer
+   * @param delivery      the delivery of the sequenced messages
+   */
+  Sequencer(int queueCapacity, Delivery delivery) {
+    this.queue = new RingBuffer<>(queueCapacity, Post::new);
+    this.delivery = delivery;
+    this.thread = new Thread(this, "chat-sequencer");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  /**
+   * Queue a post for sequencing, waiting while the queue is full. Safe to call from any thread.
+   *
+   * @param source  the user that posted the message
+   * @param room    the room the message was posted to
+   * @param content the content of the message
+   * @return false, if the sequencer has been closed and the post is dropped
+   */
+  boolean publish(User source, Room room, String content) {
+    if (closed) {
+      return false;
+    }
+    long sequence;
+    while ((sequence = queue.claim()) < 0) {
+      if (closed) {
+        return false;
+      }
+      LockSupport.parkNanos(this, RETRY_NANOS);
+    }
+    Post post = queue.get(sequence);
+    post.source = source;
+    post.room = room;
+    post.content = content;
+    queue.publish(sequence);
+    if (idle) {
+      LockSupport.unpark(thread);
+    }
+    return true;
+  }
+
+  @Override
+  public void run() {
+    while (!stopped) {
+      long sequence = queue.next();
+      if (sequence >= 0) {
+        Post post = queue.get(sequence);
+        User source = post.source;
+        Room room = post.room;
+        String content = post.content;
+        post.source = null;
+        post.room = null;
+        post.content = null;
+        queue.release(sequence);
+        try {
+          delivery.deliver(source, room, content, ++lastId);
+        } catch (RuntimeException e) {
+          // a failing delivery must not stop the messages of everybody else
+        }
+        continue;
+      }
+      if (closed && queue.isEmpty()) {
+        return;
+      }
+      idle = true;
+      if (queue.next() < 0) {
+        LockSupport.parkNanos(this, TimeUnit.SECONDS.toNanos(1));
+      }
+      idle = false;
+    }
+  }
+
+  /**
+   * Deliver the queued posts and stop the sequencer thread. Posts published afterwards are
+   * dropped.
+   *
+   * @param deadline the {@link System#nanoTime()} after which to stop waiting for the thread
+   * @throws InterruptedException if the thread is interrupted while waiting
+   */
+  void close(long deadline) throws InterruptedException {
+    closed = true;
+    LockSupport.unpark(thread);
+    long remaining = deadline - System.nanoTime();
+    if (remaining > 0) {
+      thread.join(Math.max(1, TimeUnit.NANOSECONDS.toMillis(remaining)));
+    }
+  }
+
+  /**
+   * Stop the sequencer thread. Queued posts that have not been delivered are dropped.
+   */
+  void stop() {
+    closed = true;
+    stopped = true;
+    LockSupport.unpark(thread);
+  }
+}
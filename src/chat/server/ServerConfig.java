@@ -0,0 +1,629 @@
+package chat.server;
+
+import chat.journal.Journal;
+import chat.logging.Level;
+import chat.logging.Log;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.util.List;
+
+/**
+ * Startup options of the chat server. Every option has a default, so a new instance describes a
+ * server on port 8080 that serves each client with its own blocking thread.
+ */
+public class ServerConfig {
+
+  public static final int DEFAULT_PORT = 8080;
+
+  private int port = DEFAULT_PORT;
+  private ServerMode mode = ServerMode.BLOCKING;
+  private int reactorThreads = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+  private int acceptorThreads = 1;
+  private boolean reusePort;
+  private long bufferPoolBytes = 16 * 1024 * 1024;
+  private int statusIntervalSeconds = 60;
+  private int outboundQueueCapacity = 1024;
+  private SlowConsumerPolicy slowConsumerPolicy = SlowConsumerPolicy.DISCONNECT;
+  private long blockTimeoutMillis = 1000;
+  private Clock clock = Clock.systemDefaultZone();
+  private Level logLevel = Log.getLevel();
+  private int historyCapacity = 100;
+  private int historyEntryBytes = 4096;
+  private Path journalDirectory;
+  private int journalSegmentBytes = 64 * 1024 * 1024;
+  private long journalSyncMillis = 100;
+  private int journalQueueCapacity = 16 * 1024;
+  private int journalSegments = 16;
+  private int roomWorkers;
+  private int fanOutWorkers;
+  private int sequencerQueueCapacity;
+  private String clusterAddress;
+  private List<String> peers = List.of();
+  private long peerGraceMillis = 10_000;
+  private double messageRate;
+  private double byteRate;
+  private long idleTimeoutMillis;
+  private long loginTimeoutMillis = 30_000;
+  private long drainTimeoutMillis = 5_000;
+
+  /**
+   * Create a configuration from command line arguments of the form {@code --<option>=<value>}.
+   * Known options are {@code port}, {@code mode}, {@code reactors}, {@code acceptors},
+   * {@code reuse-port}, {@code buffer-pool-bytes}, {@code status-interval},
+   * {@code outbound-queue}, {@code slow-consumer}, {@code block-timeout}, {@code log-level},
+   * {@code history}, {@code history-entry-bytes}, {@code journal}, {@code journal-segment-bytes},
+   * {@code journal-sync-interval}, {@code journal-queue}, {@code journal-segments},
+   * {@code room-workers}, {@code fan-out-workers}, {@code sequencer-queue}, {@code cluster},
+   * {@code peers}, {@code peer-grace}, {@code rate-messages}, {@code rate-bytes},
+   * {@code idle-timeout}, {@code login-timeout} and {@code drain-timeout}.
+   *
+   * @param args the arguments passed to the server
+   * @return the resulting configuration
+   * @throws IllegalArgumentException if an argument is unknown or malformed
+   */
+  public static ServerConfig fromArgs(String[] args) {
+    ServerConfig config = new ServerConfig();
+    for (String arg : args) {
+      int separator = arg.indexOf('=');
+      if (!arg.startsWith("--") || separator < 0) {
+        throw new IllegalArgumentException("Malformed argument: " + arg);
+      }
+      String value = arg.substring(separator + 1);
+      switch (arg.substring(2, separator)) {
+        case "port" -> config.setPort(Integer.parseInt(value));
+        case "mode" -> config.setMode(ServerMode.valueOf(value.toUpperCase()));
+        case "reactors" -> config.setReactorThreads(Integer.parseInt(value));
+        case "acceptors" -> config.setAcceptorThreads(Integer.parseInt(value));
+        case "reuse-port" -> config.setReusePort(Boolean.parseBoolean(value));
+        case "buffer-pool-bytes" -> config.setBufferPoolBytes(Long.parseLong(value));
+        case "status-interval" -> config.setStatusIntervalSeconds(Integer.parseInt(value));
+        case "outbound-queue" -> config.setOutboundQueueCapacity(Integer.parseInt(value));
+        case "slow-consumer" ->
+            config.setSlowConsumerPolicy(SlowConsumerPolicy.valueOf(value.toUpperCase()));
+        case "block-timeout" -> config.setBlockTimeoutMillis(Long.parseLong(value));
+        case "log-level" -> config.setLogLevel(Level.valueOf(value.toUpperCase()));
+        case "history" -> config.setHistoryCapacity(Integer.parseInt(value));
+        case "history-entry-bytes" -> config.setHistoryEntryBytes(Integer.parseInt(value));
+        case "journal" -> config.setJournalDirectory(Path.of(value));
+        case "journal-segment-bytes" -> config.setJournalSegmentBytes(Integer.parseInt(value));
+        case "journal-sync-interval" -> config.setJournalSyncMillis(Long.parseLong(value));
+        case "journal-queue" -> config.setJournalQueueCapacity(Integer.parseInt(value));
+        case "journal-segments" -> config.setJournalSegments(Integer.parseInt(value));
+        case "room-workers" -> config.setRoomWorkers(Integer.parseInt(value));
+        case "fan-out-workers" -> config.setFanOutWorkers(Integer.parseInt(value));
+        case "sequencer-queue" -> config.setSequencerQueueCapacity(Integer.parseInt(value));
+        case "cluster" -> config.setClusterAddress(value);
+        case "peers" -> config.setPeers(List.of(value.split(",")));
+        case "peer-grace" -> config.setPeerGraceMillis(Long.parseLong(value));
+        case "rate-messages" -> config.setMessageRate(Double.parseDouble(value));
+        case "rate-bytes" -> config.setByteRate(Double.parseDouble(value));
+        case "idle-timeout" -> config.setIdleTimeoutMillis(Long.parseLong(value));
+        case "login-timeout" -> config.setLoginTimeoutMillis(Long.parseLong(value));
+        case "drain-timeout" -> config.setDrainTimeoutMillis(Long.parseLong(value));
+        default -> throw new IllegalArgumentException("Unknown option: " + arg);
+      }
+    }
+    return config;
+  }
+
+  public int getPort() {
+    return port;
+  }
+
+  public ServerConfig setPort(int port) {
+    this.port = port;
+    return this;
+  }
+
+  public ServerMode getMode() {
+    return mode;
+  }
+
+  public ServerConfig setMode(ServerMode mode) {
+    this.mode = mode;
+    return this;
+  }
+
+  public int getReactorThreads() {
+    return reactorThreads;
+  }
+
+  /**
+   * Set the number of selector threads used in {@link ServerMode#NIO}.
+   *
+   * @param reactorThreads number of threads, at least one
+   * @return this configuration
+   */
+  public ServerConfig setReactorThreads(int reactorThreads) {
+    if (reactorThreads < 1) {
+      throw new IllegalArgumentException("At least one reactor thread is required.");
+    }
+    this.reactorThreads = reactorThreads;
+    return this;
+  }
+
+  public int getAcceptorThreads() {
+    return acceptorThreads;
+  }
+
+  /**
+   * Set the number of threads that accept new connections.
+   *
+   * @param acceptorThreads number of threads, at least one
+   * @return this configuration
+   */
+  public ServerConfig setAcceptorThreads(int acceptorThreads) {
+    if (acceptorThreads < 1) {
+      throw new IllegalArgumentException("At least one acceptor thread is required.");
+    }
+    this.acceptorThreads = acceptorThreads;
+    return this;
+  }
+
+  public boolean isReusePort() {
+    return reusePort;
+  }
+
+  /**
+   * Set whether every acceptor listens on its own socket bound with {@code SO_REUSEPORT}, so the
+   * kernel balances the incoming connections between them. Ignored where the option is not
+   * supported.
+   *
+   * @param reusePort true, to bind a socket per acceptor
+   * @return this configuration
+   */
+  public ServerConfig setReusePort(boolean reusePort) {
+    this.reusePort = reusePort;
+    return this;
+  }
+
+  public long getBufferPoolBytes() {
+    return bufferPoolBytes;
+  }
+
+  /**
+   * Set how many bytes of released read buffers the selector-based server keeps for reuse. The
+   * buffers are direct memory, which is only freed by the garbage collector otherwise.
+   *
+   * @param bufferPoolBytes number of bytes, 0 allocates a new buffer for every read that needs one
+   * @return this configuration
+   */
+  public ServerConfig setBufferPoolBytes(long bufferPoolBytes) {
+    if (bufferPoolBytes < 0) {
+      throw new IllegalArgumentException("The buffer pool must not be negative.");
+    }
+    this.bufferPoolBytes = bufferPoolBytes;
+    return this;
+  }
+
+  public int getStatusIntervalSeconds() {
+    return statusIntervalSeconds;
+  }
+
+  /**
+   * Set how often the server reports its number of active connections.
+   *
+   * @param statusIntervalSeconds interval in seconds, 0 disables the report
+   * @return this configuration
+   */
+  public ServerConfig setStatusIntervalSeconds(int statusIntervalSeconds) {
+    this.statusIntervalSeconds = statusIntervalSeconds;
+    return this;
+  }
+
+  public int getOutboundQueueCapacity() {
+    return outboundQueueCapacity;
+  }
+
+  /**
+   * Set how many messages may wait to be written to a single client.
+   *
+   * @param outboundQueueCapacity number of messages, at least one
+   * @return this configuration
+   */
+  public ServerConfig setOutboundQueueCapacity(int outboundQueueCapacity) {
+    if (outboundQueueCapacity < 1) {
+      throw new IllegalArgumentException("The outbound queue needs room for a message.");
+    }
+    this.outboundQueueCapacity = outboundQueueCapacity;
+    return this;
+  }
+
+  public SlowConsumerPolicy getSlowConsumerPolicy() {
+    return slowConsumerPolicy;
+  }
+
+  public ServerConfig setSlowConsumerPolicy(SlowConsumerPolicy slowConsumerPolicy) {
+    this.slowConsumerPolicy = slowConsumerPolicy;
+    return this;
+  }
+
+  public long getBlockTimeoutMillis() {
+    return blockTimeoutMillis;
+  }
+
+  public ServerConfig setBlockTimeoutMillis(long blockTimeoutMillis) {
+    this.blockTimeoutMillis = blockTimeoutMillis;
+    return this;
+  }
+
+  /**
+   * Create an empty outbound queue for a new connection.
+   *
+   * @return queue according to this configuration
+   */
+  public OutboundQueue newOutboundQueue() {
+    return new OutboundQueue(outboundQueueCapacity, slowConsumerPolicy, blockTimeoutMillis);
+  }
+
+  public int getHistoryCapacity() {
+    return historyCapacity;
+  }
+
+  /**
+   * Set how many recent chat events are replayed to a client after its login.
+   *
+   * @param historyCapacity number of events, 0 disables the history
+   * @return this configuration
+   */
+  public ServerConfig setHistoryCapacity(int historyCapacity) {
+    if (historyCapacity < 0) {
+      throw new IllegalArgumentException("The history capacity must not be negative.");
+    }
+    this.historyCapacity = historyCapacity;
+    return this;
+  }
+
+  public int getHistoryEntryBytes() {
+    return historyEntryBytes;
+  }
+
+  /**
+   * Set the space reserved for a single event of the history. Larger events are not replayed.
+   *
+   * @param historyEntryBytes maximum size of an encoded event, at least one byte
+   * @return this configuration
+   */
+  public ServerConfig setHistoryEntryBytes(int historyEntryBytes) {
+    if (historyEntryBytes < 1) {
+      throw new IllegalArgumentException("A history entry needs room for a message.");
+    }
+    this.historyEntryBytes = historyEntryBytes;
+    return this;
+  }
+
+  /**
+   * Create an empty history of chat events.
+   *
+   * @return history according to this configuration
+   */
+  public MessageHistory newMessageHistory() {
+    return new MessageHistory(historyCapacity, historyEntryBytes);
+  }
+
+  public Path getJournalDirectory() {
+    return journalDirectory;
+  }
+
+  /**
+   * Set the directory of the journal that keeps the chat events across restarts.
+   *
+   * @param journalDirectory the directory, null disables the journal
+   * @return this configuration
+   */
+  public ServerConfig setJournalDirectory(Path journalDirectory) {
+    this.journalDirectory = journalDirectory;
+    return this;
+  }
+
+  public int getJournalSegmentBytes() {
+    return journalSegmentBytes;
+  }
+
+  /**
+   * Set the size of a single journal file. A new file is started once the current one is full.
+   *
+   * @param journalSegmentBytes size in bytes, at least 4 KiB
+   * @return this configuration
+   */
+  public ServerConfig setJournalSegmentBytes(int journalSegmentBytes) {
+    if (journalSegmentBytes < 4096) {
+      throw new IllegalArgumentException("A journal segment needs at least 4 KiB.");
+    }
+    this.journalSegmentBytes = journalSegmentBytes;
+    return this;
+  }
+
+  public long getJournalSyncMillis() {
+    return journalSyncMillis;
+  }
+
+  /**
+   * Set how long written journal records may stay unsynced. Records written within the interval
+   * are synced together.
+   *
+   * @param journalSyncMillis interval in milliseconds, 0 syncs after every batch
+   * @return this configuration
+   */
+  public ServerConfig setJournalSyncMillis(long journalSyncMillis) {
+    this.journalSyncMillis = journalSyncMillis;
+    return this;
+  }
+
+  public int getJournalQueueCapacity() {
+    return journalQueueCapacity;
+  }
+
+  public ServerConfig setJournalQueueCapacity(int journalQueueCapacity) {
+    this.journalQueueCapacity = journalQueueCapacity;
+    return this;
+  }
+
+  public int getJournalSegments() {
+    return journalSegments;
+  }
+
+  /**
+   * Set how many journal files are kept. Starting a new file deletes the oldest ones beyond this
+   * number, so the journal takes at most this many times the segment size on disk.
+   *
+   * @param journalSegments number of files, 0 keeps all
+   * @return this configuration
+   */
+  public ServerConfig setJournalSegments(int journalSegments) {
+    if (journalSegments < 0) {
+      throw new IllegalArgumentException("The number of journal segments must not be negative.");
+    }
+    this.journalSegments = journalSegments;
+    return this;
+  }
+
+  /**
+   * Open the journal, if one is configured.
+   *
+   * @return the journal, or null if it is disabled
+   * @throws IOException if the journal cannot be opened
+   */
+  public Journal openJournal() throws IOException {
+    if (journalDirectory == null) {
+      return null;
+    }
+    return new Journal(journalDirectory, journalSegmentBytes, journalSyncMillis,
+        journalQueueCapacity, journalSegments);
+  }
+
+  public int getRoomWorkers() {
+    return roomWorkers;
+  }
+
+  /**
+   * Set the number of threads that distribute the messages of the chat rooms. Each room is served
+   * by one of them.
+   *
+   * @param roomWorkers number of threads, 0 distributes on the receiving thread
+   * @return this configuration
+   */
+  public ServerConfig setRoomWorkers(int roomWorkers) {
+    if (roomWorkers < 0) {
+      throw new IllegalArgumentException("The number of room workers must not be negative.");
+    }
+    this.roomWorkers = roomWorkers;
+    return this;
+  }
+
+  public int getFanOutWorkers() {
+    return fanOutWorkers;
+  }
+
+  /**
+   * Set the number of threads that share the delivery of a single message. The members of every
+   * room are partitioned among them, so large rooms are served in parallel.
+   *
+   * @param fanOutWorkers number of threads, 0 delivers on the distributing thread
+   * @return this configuration
+   */
+  public ServerConfig setFanOutWorkers(int fanOutWorkers) {
+    if (fanOutWorkers < 0) {
+      throw new IllegalArgumentException("The number of fan-out workers must not be negative.");
+    }
+    this.fanOutWorkers = fanOutWorkers;
+    return this;
+  }
+
+  public int getSequencerQueueCapacity() {
+    return sequencerQueueCapacity;
+  }
+
+  /**
+   * Set the number of posts that may wait for the sequencer, which puts the messages of all
+   * clients into a single order and numbers them.
+   *
+   * @param sequencerQueueCapacity number of posts, 0 distributes posts without a total order
+   * @return this configuration
+   */
+  public ServerConfig setSequencerQueueCapacity(int sequencerQueueCapacity) {
+    if (sequencerQueueCapacity < 0) {
+      throw new IllegalArgumentException("The sequencer queue must not be negative.");
+    }
+    this.sequencerQueueCapacity = sequencerQueueCapacity;
+    return this;
+  }
+
+  public String getClusterAddress() {
+    return clusterAddress;
+  }
+
+  /**
+   * Set the address under which the other nodes of the cluster reach this server. The server
+   * listens for its peers on the port of this address.
+   *
+   * @param clusterAddress the address as {@code host:port}, null runs the server alone
+   * @return this configuration
+   */
+  public ServerConfig setClusterAddress(String clusterAddress) {
+    this.clusterAddress = clusterAddress;
+    return this;
+  }
+
+  public List<String> getPeers() {
+    return peers;
+  }
+
+  /**
+   * Set the cluster addresses of all other nodes of the cluster. Every node has to be configured
+   * with the same set of nodes.
+   *
+   * @param peers the addresses as {@code host:port}
+   * @return this configuration
+   */
+  public ServerConfig setPeers(List<String> peers) {
+    this.peers = List.copyOf(peers);
+    return this;
+  }
+
+  public long getPeerGraceMillis() {
+    return peerGraceMillis;
+  }
+
+  /**
+   * Set how long the nicknames of a disconnected peer stay reserved. A peer that reconnects within
+   * this time keeps its users; afterwards they are reported as having left.
+   *
+   * @param peerGraceMillis grace period in milliseconds
+   * @return this configuration
+   */
+  public ServerConfig setPeerGraceMillis(long peerGraceMillis) {
+    if (peerGraceMillis < 0) {
+      throw new IllegalArgumentException("The peer grace period must not be negative.");
+    }
+    this.peerGraceMillis = peerGraceMillis;
+    return this;
+  }
+
+  public double getMessageRate() {
+    return messageRate;
+  }
+
+  /**
+   * Set how many messages a single connection may submit per second. Reading from a connection
+   * that exceeds the limit is paused until it is back within it.
+   *
+   * @param messageRate messages per second, 0 for no limit
+   * @return this configuration
+   */
+  public ServerConfig setMessageRate(double messageRate) {
+    if (messageRate < 0) {
+      throw new IllegalArgumentException("The message rate must not be negative.");
+    }
+    this.messageRate = messageRate;
+    return this;
+  }
+
+  public double getByteRate() {
+    return byteRate;
+  }
+
+  /**
+   * Set how many bytes a single connection may submit per second. Reading from a connection that
+   * exceeds the limit is paused until it is back within it.
+   *
+   * @param byteRate bytes per second, 0 for no limit
+   * @return this configuration
+   */
+  public ServerConfig setByteRate(double byteRate) {
+    if (byteRate < 0) {
+      throw new IllegalArgumentException("The byte rate must not be negative.");
+    }
+    this.byteRate = byteRate;
+    return this;
+  }
+
+  public long getIdleTimeoutMillis() {
+    return idleTimeoutMillis;
+  }
+
+  /**
+   * Set how long a client may stay silent before it is disconnected. A client that has been
+   * silent for half of the timeout is sent a ping, which it has to answer in time. Only applies to
+   * clients that asked for the heartbeat at their login.
+   *
+   * @param idleTimeoutMillis timeout in milliseconds, 0 keeps silent clients forever
+   * @return this configuration
+   */
+  public ServerConfig setIdleTimeoutMillis(long idleTimeoutMillis) {
+    if (idleTimeoutMillis < 0) {
+      throw new IllegalArgumentException("The idle timeout must not be negative.");
+    }
+    this.idleTimeoutMillis = idleTimeoutMillis;
+    return this;
+  }
+
+  public long getLoginTimeoutMillis() {
+    return loginTimeoutMillis;
+  }
+
+  /**
+   * Set how long a new connection may take to log in before it is closed. Defaults to 30 seconds.
+   *
+   * @param loginTimeoutMillis timeout in milliseconds, 0 waits forever
+   * @return this configuration
+   */
+  public ServerConfig setLoginTimeoutMillis(long loginTimeoutMillis) {
+    if (loginTimeoutMillis < 0) {
+      throw new IllegalArgumentException("The login timeout must not be negative.");
+    }
+    this.loginTimeoutMillis = loginTimeoutMillis;
+    return this;
+  }
+
+  public long getDrainTimeoutMillis() {
+    return drainTimeoutMillis;
+  }
+
+  /**
+   * Set how long a shutdown may wait for the messages queued for the clients to be written.
+   *
+   * @param drainTimeoutMillis timeout in milliseconds, 0 closes the connections right away
+   * @return this configuration
+   */
+  public ServerConfig setDrainTimeoutMillis(long drainTimeoutMillis) {
+    if (drainTimeoutMillis < 0) {
+      throw new IllegalArgumentException("The drain timeout must not be negative.");
+    }
+    this.drainTimeoutMillis = drainTimeoutMillis;
+    return this;
+  }
+
+  public Clock getClock() {
+    return clock;
+  }
+
+  /**
+   * Set the clock used to stamp chat messages. Not available on the command line; meant for tests
+   * that need a fixed time.
+   *
+   * @param clock the clock
+   * @return this configuration
+   */
+  public ServerConfig setClock(Clock clock) {
+    this.clock = clock;
+    return this;
+  }
+
+  public Level getLogLevel() {
+    return logLevel;
+  }
+
+  /**
+   * Set the minimum level of the log records written by the server. Messages of single clients are
+   * only logged at {@link Level#DEBUG}.
+   *
+   * @param logLevel the level
+   * @return this configuration
+   */
+  public ServerConfig setLogLevel(Level logLevel) {
+    this.logLevel = logLevel;
+    return this;
+  }
+}
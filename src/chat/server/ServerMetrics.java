@@ -0,0 +1,79 @@
+package chat.server;
+
+import chat.metrics.LatencyHistogram;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The counters the server updates while it handles messages. Counters are striped
+ * {@link LongAdder LongAdders} and the latency histogram is allocated up front, so recording
+ * neither allocates nor makes the threads of different connections contend. {@link ServerStatus}
+ * publishes the counters via JMX.
+ */
+public class ServerMetrics {
+
+  private static final long MAX_LATENCY_NANOS = TimeUnit.SECONDS.toNanos(60);
+
+  private final LongAdder logins = new LongAdder();
+  private final LongAdder messagesIn = new LongAdder();
+  private final LongAdder bytesIn = new LongAdder();
+  private final LongAdder messagesOut = new LongAdder();
+  private final LongAdder bytesOut = new LongAdder();
+  private final LongAdder failedWrites = new LongAdder();
+  private final LatencyHistogram fanOutLatency = new LatencyHistogram(MAX_LATENCY_NANOS);
+
+  void loggedIn() {
+    logins.increment();
+  }
+
+  void received(int bytes) {
+    messagesIn.increment();
+    bytesIn.add(bytes);
+  }
+
+  void sent(int bytes) {
+    messagesOut.increment();
+    bytesOut.add(bytes);
+  }
+
+  void writeFailed() {
+    failedWrites.increment();
+  }
+
+  void fannedOut(long nanos) {
+    fanOutLatency.record(nanos);
+  }
+
+  public long getLogins() {
+    return logins.sum();
+  }
+
+  public long getMessagesIn() {
+    return messagesIn.sum();
+  }
+
+  public long getBytesIn() {
+    return bytesIn.sum();
+  }
+
+  public long getMessagesOut() {
+    return messagesOut.sum();
+  }
+
+  public long getBytesOut() {
+    return bytesOut.sum();
+  }
+
+  public long getFailedWrites() {
+    return failedWrites.sum();
+  }
+
+  /**
+   * Return the time it takes to queue a message for all its recipients.
+   *
+   * @return histogram of the durations in nanoseconds
+   */
+  public LatencyHistogram getFanOutLatency() {
+    return fanOutLatency;
+  }
+}
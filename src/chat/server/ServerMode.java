@@ -0,0 +1,23 @@
+package chat.server;
+
+/**
+ * The I/O model the chat server uses to serve its clients.
+ */
+public enum ServerMode {
+
+  /**
+   * One blocking thread per connected socket.
+   */
+  BLOCKING,
+
+  /**
+   * One blocking virtual thread per connected socket. Falls back to a cached pool of platform
+   * threads on JVMs without virtual threads.
+   */
+  VIRTUAL,
+
+  /**
+   * A small, fixed set of selector threads that serve all connections with non-blocking channels.
+   */
+  NIO
+}
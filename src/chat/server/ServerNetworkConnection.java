@@ -1,83 +1,236 @@
 package chat.server;
 
-import static java.nio.charset.StandardCharsets.UTF_8;
-
-import java.io.BufferedReader;
+import chat.logging.Log;
+import chat.logging.Logger;
+import chat.journal.Journal;
+import chat.protocol.ChatClock;
+import chat.protocol.LineReader;
+import chat.util.BufferPool;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.OutputStreamWriter;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.SocketException;
-import java.text.SimpleDateFormat;
-import java.util.ArrayList;
-import java.util.Date;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
 import java.util.List;
-import org.json.JSONException;
-import org.json.JSONObject;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 
 /**
- * The network layer of the chat server. Takes care of processing both the connection requests and
- * message handling.
+ * The network layer of the chat server. Takes care of processing the connection requests and
+ * passes the received messages on to the {@link ChatHandler}. Depending on the configured
+ * {@link ServerMode} every client is either served by its own blocking (platform or virtual)
+ * thread or by one of a few shared {@link NioReactor selector threads}.
+ *
+ * <p>Connections are accepted by a configurable number of acceptor threads, so a storm of
+ * reconnecting clients after a restart is not serialized on a single thread. The acceptors share
+ * one listening socket or, with {@code SO_REUSEPORT}, each own a socket bound to the same port,
+ * between which the kernel balances the incoming connections. Accepted channels go to the
+ * reactor that currently serves the fewest connections.
  */
 public class ServerNetworkConnection {
 
-  private final ServerSocket serverSocket;
-  private static final int PORT = 8080;
-  private final List<User> users;
+  private static final Logger LOG = Log.getLogger(ServerNetworkConnection.class);
+  private static final int ACCEPT_BACKLOG = 1024;
+
+  private final ServerConfig config;
+  private final ChatHandler handler;
+  private final Journal journal;
+  private final Cluster cluster;
+  private final RateLimits rateLimits;
+  private final ServerStatus status;
+  private final Heartbeat heartbeat;
+  private final ServerSocket[] serverSockets;
+  private final ServerSocketChannel[] serverChannels;
+  private final NioReactor[] reactors;
+  private final ExecutorService virtualThreads;
+  private final ExecutorService writers;
+  private final List<Thread> acceptThreads;
 
   /**
-   * Creates an instance of network connection.
+   * The outcome of a graceful shutdown.
+   *
+   * @param clients         number of logged-in clients at the start of the drain
+   * @param pendingMessages number of messages that were not written before the deadline
+   * @param durationMillis  duration of the drain
+   */
+  public record DrainReport(int clients, long pendingMessages, long durationMillis) {
+  }
+
+  /**
+   * Creates an instance of network connection with the default configuration.
    */
   public ServerNetworkConnection() throws IOException {
-    this.serverSocket = new ServerSocket(PORT);
-    this.users = new ArrayList<>();
+    this(new ServerConfig());
+  }
+
+  /**
+   * Creates an instance of network connection.
+   *
+   * @param config the configuration of the server
+   */
+  public ServerNetworkConnection(ServerConfig config) throws IOException {
+    this.config = config;
+    this.rateLimits = new RateLimits(config.getMessageRate(), config.getByteRate());
+    MessageHistory history = config.newMessageHistory();
+    this.journal = config.openJournal();
+    if (journal != null) {
+      journal.recent(config.getHistoryCapacity()).forEach(history::record);
+      LOG.info("Recovered {} messages from {}", history.size(), config.getJournalDirectory());
+    }
+    this.handler = new ChatHandler(new ChatClock(config.getClock()), history, journal,
+        config.getRoomWorkers(), config.getFanOutWorkers(), config.getSequencerQueueCapacity());
+    if (config.getClusterAddress() != null) {
+      this.cluster = new Cluster(config.getClusterAddress(), config.getPeers(),
+          config.getPeerGraceMillis(), handler);
+      handler.setCluster(cluster);
+    } else {
+      this.cluster = null;
+    }
+    if (config.getIdleTimeoutMillis() > 0 || config.getLoginTimeoutMillis() > 0) {
+      this.heartbeat = new Heartbeat(handler, config.getIdleTimeoutMillis(),
+          config.getLoginTimeoutMillis());
+      handler.setHeartbeat(heartbeat);
+    } else {
+      this.heartbeat = null;
+    }
+    BufferPool readBuffers = config.getMode() == ServerMode.NIO
+        ? ChannelClientConnection.newReadBufferPool(config.getBufferPoolBytes()) : null;
+    this.status = new ServerStatus(config.getPort(), handler.getMetrics(), handler, rateLimits,
+        journal, cluster, readBuffers);
+    boolean reusePort = config.isReusePort() && isReusePortSupported();
+    int listeners = reusePort ? config.getAcceptorThreads() : 1;
+    if (config.getMode() == ServerMode.NIO) {
+      this.serverSockets = new ServerSocket[0];
+      this.serverChannels = new ServerSocketChannel[listeners];
+      for (int i = 0; i < listeners; i++) {
+        serverChannels[i] = ServerSocketChannel.open();
+        serverChannels[i].setOption(StandardSocketOptions.SO_REUSEADDR, true);
+        if (reusePort) {
+          serverChannels[i].setOption(StandardSocketOptions.SO_REUSEPORT, true);
+        }
+        serverChannels[i].bind(new InetSocketAddress(config.getPort()), ACCEPT_BACKLOG);
+      }
+      this.reactors = new NioReactor[config.getReactorThreads()];
+      for (int i = 0; i < reactors.length; i++) {
+        reactors[i] =
+            new NioReactor("chat-reactor-" + i, handler, config, rateLimits, readBuffers);
+      }
+    } else {
+      this.serverSockets = new ServerSocket[listeners];
+      for (int i = 0; i < listeners; i++) {
+        serverSockets[i] = new ServerSocket();
+        if (reusePort) {
+          serverSockets[i].setOption(StandardSocketOptions.SO_REUSEPORT, true);
+        }
+        serverSockets[i].bind(new InetSocketAddress(config.getPort()), ACCEPT_BACKLOG);
+      }
+      this.serverChannels = new ServerSocketChannel[0];
+      this.reactors = new NioReactor[0];
+    }
+    this.acceptThreads = new CopyOnWriteArrayList<>();
+    this.virtualThreads =
+        config.getMode() == ServerMode.VIRTUAL ? newVirtualThreadExecutor() : null;
+    this.writers = config.getMode() == ServerMode.BLOCKING ? newWriterExecutor() : null;
+    status.register();
+  }
+
+  /**
+   * Return whether the platform supports {@code SO_REUSEPORT}, which Linux and most BSDs do.
+   *
+   * @return true, if the option is supported
+   * @throws IOException if no socket can be opened
+   */
+  private static boolean isReusePortSupported() throws IOException {
+    try (ServerSocketChannel probe = ServerSocketChannel.open()) {
+      if (probe.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT)) {
+        return true;
+      }
+    }
+    LOG.warn("SO_REUSEPORT is not supported, the acceptors share a single socket");
+    return false;
+  }
+
+  /**
+   * Create an executor that starts a new virtual thread for each task. Virtual threads are looked
+   * up reflectively, as the project is compiled for Java 17; on older JVMs a cached pool of daemon
+   * platform threads is used instead.
+   *
+   * @return the executor for the connection handlers
+   */
+  private static ExecutorService newVirtualThreadExecutor() {
+    try {
+      return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor")
+          .invoke(null);
+    } catch (ReflectiveOperationException e) {
+      LOG.warn("Virtual threads not supported, using platform threads");
+      return Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable);
+        thread.setDaemon(true);
+        return thread;
+      });
+    }
   }
 
   /**
    * Start the network-connection such that clients can establish a connection to this server.
    */
   public void start() {
-    System.out.println("Server is waiting for connections...");
+    LOG.info("Server is waiting for connections on port {}", config.getPort());
+    acceptThreads.add(Thread.currentThread());
+    for (int i = 1; i < config.getAcceptorThreads(); i++) {
+      int acceptor = i;
+      Thread thread = new Thread(() -> accept(acceptor), "chat-acceptor-" + i);
+      thread.setDaemon(true);
+      acceptThreads.add(thread);
+      thread.start();
+    }
+    accept(0);
+  }
+
+  /**
+   * Accept connections on the listening socket of an acceptor until the server is stopped.
+   *
+   * @param acceptor the index of the acceptor
+   */
+  private void accept(int acceptor) {
+    if (config.getMode() == ServerMode.NIO) {
+      acceptChannels(serverChannels[acceptor % serverChannels.length]);
+    } else {
+      acceptSockets(serverSockets[acceptor % serverSockets.length]);
+    }
+  }
+
+  /**
+   * Accept new sockets and serve each of them with its own thread.
+   *
+   * @param serverSocket the listening socket
+   */
+  private void acceptSockets(ServerSocket serverSocket) {
     while (true) {
       try {
         Socket socket = serverSocket.accept();
+        if (virtualThreads != null) {
+          try {
+            virtualThreads.execute(() -> handleSocket(socket));
+          } catch (RejectedExecutionException e) {
+            // accepted while the server stopped
+            socket.close();
+          }
+          continue;
+        }
         Thread thread = new Thread() {
           @Override
           public void run() {
-            try {
-              System.out.println("Server: new connection via socket " + socket);
-
-              OutputStreamWriter writer = new OutputStreamWriter(socket.getOutputStream(),
-                  UTF_8);
-              BufferedReader reader = new BufferedReader(
-                  new InputStreamReader(socket.getInputStream(), UTF_8));
-
-              while (true) {
-                String line = reader.readLine();
-                if (line == null) {
-                  System.out.println("Server: Client disconnected");
-                  return;
-                }
-                System.out.println("Server: Message from client: " + line);
-                JSONObject receivedMessage = new JSONObject(line);
-                String type = (String) receivedMessage.get("type");
-                if (!type.equals("login")) {
-                  throw new IllegalArgumentException("Client not logged in");
-                }
-                if (receivedMessage.get("nick").toString().trim().equals("")) {
-                  continue;
-                }
-                if (!isNicknameFree(receivedMessage)) {
-                  sendLoginFailedMessage(writer);
-                  continue;
-                } else {
-                  handleLoginSuccess(receivedMessage, writer, socket);
-                }
-              }
-            } catch (IOException | JSONException e) {
-              e.printStackTrace();
-            }
+            handleSocket(socket);
           }
         };
         thread.setDaemon(true);
@@ -87,207 +240,239 @@ public class ServerNetworkConnection {
           // Server was stopped, exiting the thread
           return;
         }
-        e.printStackTrace();
+        LOG.warn("Could not accept connection", e);
       } catch (IOException e) {
-        e.printStackTrace();
+        LOG.warn("Could not accept connection", e);
       }
     }
   }
 
   /**
-   * Check if the nickname is not used by another client.
+   * Create the executor for the writer tasks of blocking connections. A writer task only runs
+   * while its connection has messages to write, so the threads are shared by all connections and
+   * an idle connection occupies none.
    *
-   * @param loginRequestMessage message from client with login-request
-   * @return true, when the nickname is free
-   * @throws JSONException if the message don't have appropriate format
+   * @return executor for writer tasks
    */
-  private boolean isNicknameFree(JSONObject loginRequestMessage)
-      throws JSONException {
-    // received: { "type" : "login", "nick" : "<nick>" }
-    String nickname = loginRequestMessage.get("nick").toString().trim();
-    synchronized (users) {
-      for (User user : users) {
-        if (user.getName().equals(nickname)) {
-          return false;
-        }
-      }
-    }
-    return true;
+  private static ExecutorService newWriterExecutor() {
+    return Executors.newCachedThreadPool(runnable -> {
+      Thread thread = new Thread(runnable, "chat-writer");
+      thread.setDaemon(true);
+      return thread;
+    });
   }
 
   /**
-   * Send a message to the client, that login is failed.
+   * Return the executor for the writer tasks of blocking connections, which run on the same kind
+   * of thread as the readers.
    *
-   * @param writer output stream to the client
+   * @return executor for writer tasks
    */
-  private void sendLoginFailedMessage(OutputStreamWriter writer) {
-    // { "type" : "login failed" }
-    try {
-      JSONObject loginFailedMessage = new JSONObject();
-      loginFailedMessage.put("type", "login failed");
-      writer.write(loginFailedMessage + System.lineSeparator());
-      writer.flush();
-    } catch (IOException | JSONException e) {
-      e.printStackTrace();
-    }
+  private Executor writers() {
+    return virtualThreads != null ? virtualThreads : writers;
   }
 
   /**
-   * Executes routines upon successful connection..
+   * Read the messages of a single client until it disconnects.
    *
-   * @param loginRequestMessage message from client with login-request
-   * @param writer              output stream to the client
-   * @param socket              socket through which the client is connected
+   * @param socket socket through which the client is connected
    */
-  private void handleLoginSuccess(JSONObject loginRequestMessage, OutputStreamWriter writer,
-      Socket socket) {
+  private void handleSocket(Socket socket) {
+    SocketClientConnection connection = null;
     try {
-      User loggedUser = new User((String) loginRequestMessage.get("nick"), writer, socket);
-      users.add(loggedUser);
-      sendLoginSuccessMessage(writer);
-      sendUserJoinedMessage(loggedUser);
-      handleLoggedUser(loggedUser);
-    } catch (IOException | JSONException e) {
-      e.printStackTrace();
+      LOG.debug("New connection via socket {}", socket);
+      connection = new SocketClientConnection(socket, config.newOutboundQueue(),
+          rateLimits.newLimiter(), handler.getMetrics(), writers());
+      handler.handleConnect(connection);
+      LineReader reader = new LineReader(socket.getInputStream());
+
+      while (true) {
+        ByteBuffer line = connection.getFormat().isLengthPrefixed()
+            ? reader.readFrame() : reader.readLine();
+        if (line == null) {
+          LOG.debug("Client disconnected: {}", socket);
+          return;
+        }
+        long wait;
+        while ((wait = connection.getRateLimiter().acquire(line.remaining())) > 0) {
+          // not reading lets TCP flow control slow down the client
+          TimeUnit.NANOSECONDS.sleep(wait);
+        }
+        handler.handleLine(connection, line);
+      }
+    } catch (IOException e) {
+      LOG.debug("Connection {} failed: {}", socket, e);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } finally {
+      if (connection != null) {
+        handler.handleDisconnect(connection);
+      }
     }
   }
 
+  /**
+   * Accept new channels and hand each to the least loaded reactor.
+   *
+   * @param serverChannel the listening channel
+   */
+  private void acceptChannels(ServerSocketChannel serverChannel) {
+    while (true) {
+      try {
+        SocketChannel channel = serverChannel.accept();
+        leastLoadedReactor().register(channel);
+      } catch (ClosedChannelException e) {
+        // Server was stopped, exiting the thread
+        return;
+      } catch (IOException e) {
+        LOG.warn("Could not accept connection", e);
+      }
+    }
+  }
 
   /**
-   * Send a message to the client, that login is successful.
+   * Return the reactor that serves the fewest open connections. Reactors whose connections
+   * closed catch up this way, unlike with a round-robin assignment.
    *
-   * @param writer output stream to the client
-   * @throws JSONException if the message don't have appropriate format
-   * @throws IOException   if the output stream is not open
+   * @return the reactor
    */
-  private void sendLoginSuccessMessage(OutputStreamWriter writer)
-      throws JSONException, IOException {
-    // { "type" : "login success" }
-    JSONObject loginSuccessMessage = new JSONObject();
-    loginSuccessMessage.put("type", "login success");
-    writer.write(loginSuccessMessage + System.lineSeparator());
-    writer.flush();
+  private NioReactor leastLoadedReactor() {
+    NioReactor leastLoaded = reactors[0];
+    for (int i = 1; i < reactors.length; i++) {
+      if (reactors[i].getConnections() < leastLoaded.getConnections()) {
+        leastLoaded = reactors[i];
+      }
+    }
+    return leastLoaded;
   }
 
   /**
-   * Send a message to the clients, that user joined the chat.
+   * Return the number of currently open client connections.
    *
-   * @param loggedUser joined client
-   * @throws JSONException if the message don't have appropriate format
-   * @throws IOException   if the output stream is not open
+   * @return number of open connections
    */
-  private void sendUserJoinedMessage(User loggedUser) throws JSONException, IOException {
-    // { "type" : "user joined", "nick" : "<nick>" }
-    JSONObject userJoinedMessage = new JSONObject();
-    userJoinedMessage.put("type", "user joined");
-    userJoinedMessage.put("nick", loggedUser.getName());
-    broadcast(loggedUser, userJoinedMessage);
+  public int getActiveConnections() {
+    return handler.getActiveConnections();
+  }
+
+  public RateLimits getRateLimits() {
+    return rateLimits;
+  }
+
+  public ServerStatus getStatus() {
+    return status;
   }
 
   /**
-   * Send a message to all clients in the chat except the source.
+   * Return the cluster this server belongs to.
    *
-   * @param source  source client
-   * @param message message to be sent
-   * @throws IOException if the output stream is not open
+   * @return the cluster, or null if the server runs alone
    */
-  private void broadcast(User source, JSONObject message) throws IOException {
-    for (User u : users) {
-      if (u == source) {
-        continue;
-      }
-      u.getWriter().write(message + System.lineSeparator());
-      u.getWriter().flush();
-    }
+  public Cluster getCluster() {
+    return cluster;
   }
 
   /**
-   * Handles logged client.
+   * Shut the server down gracefully. The server stops accepting connections and messages, sends
+   * a shutdown notice to every logged-in client and waits until the messages queued for the
+   * clients have been written or the timeout expires. The journal is then synced and closed, the
+   * connections are closed in parallel and the server is {@link #stop() stopped}.
    *
-   * @param user logged client
+   * @param timeoutMillis how long to wait for the queued messages
+   * @return the report of the drain
+   * @throws IOException if the server cannot be stopped
    */
-  private void handleLoggedUser(User user) {
+  public DrainReport drain(long timeoutMillis) throws IOException {
+    long start = System.nanoTime();
+    long deadline = start + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+    List<ClientConnection> connections = List.of();
+    long pending = 0;
     try {
-      BufferedReader reader = new BufferedReader(
-          new InputStreamReader(user.getSocket().getInputStream(), UTF_8));
-      while (true) {
-        String line = reader.readLine();
-        if (line == null) {
-          handleDisconnectedUser(user);
-          return;
-        }
-        JSONObject userMessage = new JSONObject(line);
-        String type = (String) userMessage.get("type");
-        switch (type) {
-          case "login" -> throw new IllegalArgumentException("The client is already logged in.");
-          case "post message" -> {
-            //    { "type" : "post message", "content" : "<message content>" }
-            String content = (String) userMessage.get("content");
-            sendTextMessage(user, content);
-          }
-          default -> throw new IllegalArgumentException("Unknown type of message.");
-        }
+      closeListener();
+      connections = handler.drain(timeoutMillis);
+      while ((pending = pendingMessages(connections)) > 0 && System.nanoTime() < deadline) {
+        Thread.sleep(10);
       }
-    } catch (IOException | JSONException e) {
-      e.printStackTrace();
+      if (journal != null) {
+        journal.close();
+      }
+      connections.parallelStream().forEach(ServerNetworkConnection::closeQuietly);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      pending = pendingMessages(connections);
+    } finally {
+      stop();
     }
+    return new DrainReport(connections.size(), pending,
+        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
   }
 
-  /**
-   * Handles disconnected client.
-   *
-   * @param user disconnected client
-   * @throws IOException   if the output stream is not open
-   * @throws JSONException if the message don't have appropriate format
-   */
-  private void handleDisconnectedUser(User user) throws IOException, JSONException {
-    user.getSocket().close();
-    users.remove(user);
-    sendUserLeftMessage(user);
+  private static long pendingMessages(List<ClientConnection> connections) {
+    long pending = 0;
+    for (ClientConnection connection : connections) {
+      pending += connection.isClosed() ? 0 : connection.getPendingMessages();
+    }
+    return pending;
   }
 
-  /**
-   * Send a message to the clients, that user left the chat.
-   *
-   * @param user disconnected client
-   * @throws JSONException if the output stream is not open
-   * @throws IOException   if the message don't have appropriate format
-   */
-  private void sendUserLeftMessage(User user) throws JSONException, IOException {
-    // { "type" : "user left", "nick" : "<nick>" }
-    JSONObject userLeftMessage = new JSONObject();
-    userLeftMessage.put("type", "user left");
-    userLeftMessage.put("nick", user.getName());
-    broadcast(user, userLeftMessage);
+  private static void closeQuietly(ClientConnection connection) {
+    try {
+      connection.close();
+    } catch (IOException e) {
+      LOG.debug("Could not close {}: {}", connection, e);
+    }
   }
 
   /**
-   * Send a message from the source-client to the other clients in the chat.
-   *
-   * @param source  source-client
-   * @param content message
-   * @throws JSONException if the output stream is not open
-   * @throws IOException   if the message don't have appropriate format
+   * Stop accepting connections. The accepting threads leave once they notice.
    */
-  private void sendTextMessage(User source, String content) throws JSONException, IOException {
-    //            { "type" : "message",
-    //              "time" : "<day>.<month>.<year> <hour>:<minute>:<second>",
-    //              "nick" : "<sender>",
-    //              "content" : "<message content>" }
-    JSONObject textMessage = new JSONObject();
-    textMessage.put("type", "message");
-    textMessage.put("time", new SimpleDateFormat("dd.MM.yyyy HH:mm:ss").format(
-        new Date()));
-    textMessage.put("nick", source.getName());
-    textMessage.put("content", content);
-
-    broadcast(source, textMessage);
+  private void closeListener() throws IOException {
+    for (ServerSocketChannel serverChannel : serverChannels) {
+      serverChannel.close();
+    }
+    for (ServerSocket serverSocket : serverSockets) {
+      serverSocket.close();
+    }
   }
 
   /**
-   * Stop the network-connection.
+   * Stop the network-connection and close the journal. Waits briefly for the accepting threads to
+   * leave, as the port is only released once no thread is blocked on it anymore.
    */
   public void stop() throws IOException {
-    serverSocket.close();
+    status.unregister();
+    closeListener();
+    if (virtualThreads != null) {
+      virtualThreads.shutdown();
+    }
+    if (writers != null) {
+      writers.shutdown();
+    }
+    for (NioReactor reactor : reactors) {
+      reactor.stop();
+    }
+    handler.stop();
+    if (heartbeat != null) {
+      heartbeat.stop();
+    }
+    if (cluster != null) {
+      cluster.stop();
+    }
+    if (journal != null) {
+      journal.close();
+    }
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(1);
+    for (Thread thread : acceptThreads) {
+      long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+      if (thread == Thread.currentThread() || remaining <= 0) {
+        continue;
+      }
+      try {
+        thread.join(remaining);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return;
+      }
+    }
   }
 }
@@ -0,0 +1,311 @@
+package chat.server;
+
+import chat.journal.Journal;
+import chat.logging.Log;
+import chat.logging.Logger;
+import chat.util.BufferPool;
+import java.lang.management.ManagementFactory;
+import java.util.Comparator;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Publishes the {@link ServerMetrics} and the state of a running server as MBean named
+ * {@code chat.server:type=ServerStatus,port=<port>}. Gauges like the queue depths are computed
+ * when they are read; rates are sampled once per second by a background thread.
+ */
+public class ServerStatus implements ServerStatusMBean {
+
+  private static final Logger LOG = Log.getLogger(ServerStatus.class);
+  private static final long NANOS_PER_MICRO = 1000;
+
+  private final ServerMetrics metrics;
+  private final ChatHandler handler;
+  private final RateLimits rateLimits;
+  private final Journal journal;
+  private final Cluster cluster;
+  private final BufferPool readBuffers;
+  private final int port;
+  private final Rate logins;
+  private final Rate messagesIn;
+  private final Rate bytesIn;
+  private final Rate messagesOut;
+  private final Rate bytesOut;
+  private ObjectName name;
+  private ScheduledExecutorService sampler;
+
+  /**
+   * Create the status of a server.
+   *
+   * @param port        the client port of the server, which distinguishes servers in one JVM
+   * @param metrics     the counters of the server
+   * @param handler     the message handling of the server
+   * @param rateLimits  the rate limits of the server
+   * @param journal     the journal of the server, or null
+   * @param cluster     the cluster of the server, or null
+   * @param readBuffers the pool of the read buffers of the server, or null
+   */
+  public ServerStatus(int port, ServerMetrics metrics, ChatHandler handler, RateLimits rateLimits,
+      Journal journal, Cluster cluster, BufferPool readBuffers) {
+    this.metrics = metrics;
+    this.handler = handler;
+    this.rateLimits = rateLimits;
+    this.journal = journal;
+    this.cluster = cluster;
+    this.readBuffers = readBuffers;
+    this.port = port;
+    this.logins = new Rate(metrics::getLogins);
+    this.messagesIn = new Rate(metrics::getMessagesIn);
+    this.bytesIn = new Rate(metrics::getBytesIn);
+    this.messagesOut = new Rate(metrics::getMessagesOut);
+    this.bytesOut = new Rate(metrics::getBytesOut);
+  }
+
+  /**
+   * Register the MBean with the platform MBean server and start sampling the rates. A failed
+   * registration is logged, as the server works without it.
+   */
+  public synchronized void register() {
+    try {
+      name = new ObjectName("chat.server:type=ServerStatus,port=" + port);
+      MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      if (server.isRegistered(name)) {
+        server.unregisterMBean(name);
+      }
+      server.registerMBean(this, name);
+    } catch (JMException e) {
+      LOG.warn("Could not register the status of port {}", port, e);
+      return;
+    }
+    sampler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "metrics-sampler");
+      thread.setDaemon(true);
+      return thread;
+    });
+    sampler.scheduleAtFixedRate(this::sample, 1, 1, TimeUnit.SECONDS);
+  }
+
+  /**
+   * Stop sampling and remove the MBean.
+   */
+  public synchronized void unregister() {
+    if (sampler == null) {
+      return;
+    }
+    sampler.shutdownNow();
+    sampler = null;
+    try {
+      ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+    } catch (JMException e) {
+      LOG.warn("Could not unregister {}", name, e);
+    }
+  }
+
+  private void sample() {
+    long now = System.nanoTime();
+    logins.sample(now);
+    messagesIn.sample(now);
+    bytesIn.sample(now);
+    messagesOut.sample(now);
+    bytesOut.sample(now);
+  }
+
+  @Override
+  public int getActiveConnections() {
+    return handler.getActiveConnections();
+  }
+
+  @Override
+  public int getConnectedUsers() {
+    return handler.getUsers().size();
+  }
+
+  @Override
+  public long getLogins() {
+    return metrics.getLogins();
+  }
+
+  @Override
+  public double getLoginsPerSecond() {
+    return logins.perSecond;
+  }
+
+  @Override
+  public long getMessagesIn() {
+    return metrics.getMessagesIn();
+  }
+
+  @Override
+  public double getMessagesInPerSecond() {
+    return messagesIn.perSecond;
+  }
+
+  @Override
+  public long getBytesIn() {
+    return metrics.getBytesIn();
+  }
+
+  @Override
+  public double getBytesInPerSecond() {
+    return bytesIn.perSecond;
+  }
+
+  @Override
+  public long getMessagesOut() {
+    return metrics.getMessagesOut();
+  }
+
+  @Override
+  public double getMessagesOutPerSecond() {
+    return messagesOut.perSecond;
+  }
+
+  @Override
+  public long getBytesOut() {
+    return metrics.getBytesOut();
+  }
+
+  @Override
+  public double getBytesOutPerSecond() {
+    return bytesOut.perSecond;
+  }
+
+  @Override
+  public long getFailedWrites() {
+    return metrics.getFailedWrites();
+  }
+
+  @Override
+  public long getFanOutLatencyP50Micros() {
+    return metrics.getFanOutLatency().percentile(0.5) / NANOS_PER_MICRO;
+  }
+
+  @Override
+  public long getFanOutLatencyP99Micros() {
+    return metrics.getFanOutLatency().percentile(0.99) / NANOS_PER_MICRO;
+  }
+
+  @Override
+  public long getFanOutLatencyP999Micros() {
+    return metrics.getFanOutLatency().percentile(0.999) / NANOS_PER_MICRO;
+  }
+
+  @Override
+  public long getFanOutLatencyMaxMicros() {
+    return metrics.getFanOutLatency().getMax() / NANOS_PER_MICRO;
+  }
+
+  @Override
+  public int getOutboundQueueDepthMax() {
+    int max = 0;
+    for (User user : handler.getUsers()) {
+      max = Math.max(max, user.getConnection().getOutbound().size());
+    }
+    return max;
+  }
+
+  @Override
+  public long getOutboundQueueDepthTotal() {
+    long total = 0;
+    for (User user : handler.getUsers()) {
+      total += user.getConnection().getOutbound().size();
+    }
+    return total;
+  }
+
+  @Override
+  public int getThrottledConnections() {
+    return rateLimits.getThrottledConnections();
+  }
+
+  @Override
+  public long getDelayedMessages() {
+    return rateLimits.getDelayedMessages();
+  }
+
+  @Override
+  public long getLogRecordsDropped() {
+    return Log.getDropped();
+  }
+
+  @Override
+  public long getJournalRecordsDropped() {
+    return journal == null ? 0 : journal.getDropped();
+  }
+
+  @Override
+  public int getClusterPeersConnected() {
+    return cluster == null ? 0 : cluster.getConnectedPeers();
+  }
+
+  @Override
+  public long getReadBufferAcquisitions() {
+    return readBuffers == null ? 0 : readBuffers.getAcquisitions();
+  }
+
+  @Override
+  public long getReadBufferMisses() {
+    return readBuffers == null ? 0 : readBuffers.getMisses();
+  }
+
+  @Override
+  public long getReadBufferBytesInUse() {
+    return readBuffers == null ? 0 : readBuffers.getBytesInUse();
+  }
+
+  @Override
+  public long getReadBufferBytesPooled() {
+    return readBuffers == null ? 0 : readBuffers.getBytesPooled();
+  }
+
+  @Override
+  public String[] largestOutboundQueues(int limit) {
+    // the sizes change while sorting, so each is read once
+    return handler.getUsers().stream()
+        .map(user -> new QueueSize(user.getName(), user.getConnection().getOutbound().size()))
+        .sorted(Comparator.comparingInt(QueueSize::size).reversed())
+        .limit(limit)
+        .map(queue -> queue.name() + ": " + queue.size())
+        .toArray(String[]::new);
+  }
+
+  @Override
+  public void resetFanOutLatency() {
+    metrics.getFanOutLatency().reset();
+  }
+
+  /**
+   * The size of the outbound queue of a user at one moment.
+   */
+  private record QueueSize(String name, int size) {
+  }
+
+  /**
+   * The rate of a counter over the last sampling interval.
+   */
+  private static final class Rate {
+
+    private final LongSupplier counter;
+    private long lastValue;
+    private long lastTime;
+    private volatile double perSecond;
+
+    private Rate(LongSupplier counter) {
+      this.counter = counter;
+      this.lastValue = counter.getAsLong();
+      this.lastTime = System.nanoTime();
+    }
+
+    private void sample(long now) {
+      long value = counter.getAsLong();
+      perSecond = (value - lastValue) * 1e9 / Math.max(1, now - lastTime);
+      lastValue = value;
+      lastTime = now;
+    }
+  }
+}
@@ -0,0 +1,83 @@
+package chat.server;
+
+/**
+ * The management interface of a running chat server, as shown by JMX clients like jconsole.
+ * Counters are totals since the start of the server; rates are averaged over the last second.
+ * Latencies are given in microseconds.
+ */
+public interface ServerStatusMBean {
+
+  int getActiveConnections();
+
+  int getConnectedUsers();
+
+  long getLogins();
+
+  double getLoginsPerSecond();
+
+  long getMessagesIn();
+
+  double getMessagesInPerSecond();
+
+  long getBytesIn();
+
+  double getBytesInPerSecond();
+
+  long getMessagesOut();
+
+  double getMessagesOutPerSecond();
+
+  long getBytesOut();
+
+  double getBytesOutPerSecond();
+
+  long getFailedWrites();
+
+  long getFanOutLatencyP50Micros();
+
+  long getFanOutLatencyP99Micros();
+
+  long getFanOutLatencyP999Micros();
+
+  long getFanOutLatencyMaxMicros();
+
+  int getOutboundQueueDepthMax();
+
+  long getOutboundQueueDepthTotal();
+
+  int getThrottledConnections();
+
+  long getDelayedMessages();
+
+  long getLogRecordsDropped();
+
+  long getJournalRecordsDropped();
+
+  int getClusterPeersConnected();
+
+  long getReadBufferAcquisitions();
+
+  /**
+   * Return the number of read buffers that had to be allocated, as the pool had none to reuse.
+   *
+   * @return number of allocations
+   */
+  long getReadBufferMisses();
+
+  long getReadBufferBytesInUse();
+
+  long getReadBufferBytesPooled();
+
+  /**
+   * Return the users with the most messages waiting to be written.
+   *
+   * @param limit maximum number of users
+   * @return entries of the form {@code <nick>: <depth>}, largest first
+   */
+  String[] largestOutboundQueues(int limit);
+
+  /**
+   * Forget the recorded fan-out latencies, e.g. before a measurement.
+   */
+  void resetFanOutLatency();
+}
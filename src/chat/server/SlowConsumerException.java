@@ -0,0 +1,16 @@
+package chat.server;
+
+import java.io.IOException;
+
+/**
+ * Signals that a message could not be queued for a client because the client does not read its
+ * messages fast enough.
+ */
+public class SlowConsumerException extends IOException {
+
+  private static final long serialVersionUID = 1L;
+
+  public SlowConsumerException(ClientConnection connection) {
+    super("Outbound queue full: " + connection);
+  }
+}
@@ -0,0 +1,25 @@
+package chat.server;
+
+/**
+ * What the server does when a client does not read its messages fast enough and its outbound queue
+ * is full.
+ */
+public enum SlowConsumerPolicy {
+
+  /**
+   * Discard the oldest queued message to make room for the new one.
+   */
+  DROP_OLDEST,
+
+  /**
+   * Disconnect the client.
+   */
+  DISCONNECT,
+
+  /**
+   * Let the sender wait for free space for a limited time and disconnect the client if none
+   * becomes available. Selector threads never wait, so in {@link ServerMode#NIO} this behaves
+   * like {@link #DISCONNECT} for messages sent from a selector thread.
+   */
+  BLOCK
+}
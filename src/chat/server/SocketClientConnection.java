@@ -0,0 +1,122 @@
+package chat.server;
+
+import chat.logging.Log;
+import chat.logging.Logger;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A client connection served by a blocking {@link Socket}. A writer task drains the outbound
+ * queue, so the socket is only ever written by one thread and a sender never waits for the
+ * network. The writer flushes once the queue is empty, which batches bursts of messages, and then
+ * ends; the next queued message starts a new one. An idle connection thus has no writer thread.
+ */
+public class SocketClientConnection extends ClientConnection {
+
+  private static final Logger LOG = Log.getLogger(SocketClientConnection.class);
+
+  private final Socket socket;
+  private final OutputStream output;
+  private final WritableByteChannel channel;
+  private final Executor writers;
+  private final AtomicBoolean writing = new AtomicBoolean();
+
+  /**
+   * Create a connection for an accepted socket.
+   *
+   * @param socket      the socket to the client
+   * @param outbound    the queue of outgoing messages
+   * @param rateLimiter the limiter of the incoming messages
+   * @param metrics     the counters of the server
+   * @param writers     the executor that runs the writer tasks
+   * @throws IOException if the output stream of the socket cannot be opened
+   */
+  public SocketClientConnection(Socket socket, OutboundQueue outbound, RateLimiter rateLimiter,
+      ServerMetrics metrics, Executor writers) throws IOException {
+    super(outbound, rateLimiter, metrics);
+    this.socket = socket;
+    this.output = new BufferedOutputStream(socket.getOutputStream());
+    this.channel = Channels.newChannel(output);
+    this.writers = writers;
+  }
+
+  /**
+   * Write the queued messages until the queue is empty. A message queued after the last check
+   * starts the next writer, as the flag is cleared before that check.
+   */
+  private void writeMessages() {
+    try {
+      do {
+        ByteBuffer message;
+        while ((message = getOutbound().poll()) != null) {
+          channel.write(message);
+        }
+        output.flush();
+        writing.set(false);
+      } while (getOutbound().size() > 0 && writing.compareAndSet(false, true));
+    } catch (IOException e) {
+      // The reading thread notices the broken socket and disconnects the client
+      if (!isClosed()) {
+        writeFailed();
+      }
+      closeQuietly();
+    }
+  }
+
+  private void closeQuietly() {
+    try {
+      socket.close();
+    } catch (IOException e) {
+      LOG.warn("Could not close {}", socket, e);
+    }
+  }
+
+  @Override
+  protected boolean mayBlock() {
+    return true;
+  }
+
+  @Override
+  protected void messageQueued() {
+    if (writing.compareAndSet(false, true)) {
+      try {
+        writers.execute(this::writeMessages);
+      } catch (RejectedExecutionException e) {
+        writing.set(false);
+        LOG.debug("Dropped the messages to {} after the shutdown", socket);
+      }
+    }
+  }
+
+  @Override
+  protected void closeSocket() throws IOException {
+    socket.close();
+  }
+
+  /**
+   * Return the pending messages including the batch the writer has not flushed yet.
+   *
+   * @return number of pending messages
+   */
+  @Override
+  public int getPendingMessages() {
+    return super.getPendingMessages() + (writing.get() ? 1 : 0);
+  }
+
+  public Socket getSocket() {
+    return socket;
+  }
+
+  @Override
+  public String toString() {
+    return socket.toString();
+  }
+}
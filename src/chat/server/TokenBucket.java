@@ -0,0 +1,56 @@
+package chat.server;
+
+/**
+ * A token bucket that refills continuously at a fixed rate up to its capacity. A request for more
+ * tokens than the capacity is granted once the bucket is full and leaves it in debt, so a single
+ * large request cannot stall forever. Not thread-safe; each bucket belongs to a single reader.
+ */
+public class TokenBucket {
+
+  private final double tokensPerNano;
+  private final double capacity;
+  private double tokens;
+  private long lastRefill;
+
+  /**
+   * Create a full bucket.
+   *
+   * @param tokensPerSecond refill rate, 0 disables the limit
+   * @param capacity        maximum number of tokens
+   * @param now             the current time in nanoseconds
+   */
+  public TokenBucket(double tokensPerSecond, double capacity, long now) {
+    this.tokensPerNano = tokensPerSecond / 1e9;
+    this.capacity = capacity;
+    this.tokens = capacity;
+    this.lastRefill = now;
+  }
+
+  /**
+   * Return how long the caller has to wait until the given number of tokens is available.
+   *
+   * @param permits the number of tokens needed
+   * @param now     the current time in nanoseconds
+   * @return the time to wait in nanoseconds, 0 if the tokens are available now
+   */
+  public long waitNanos(long permits, long now) {
+    if (tokensPerNano == 0) {
+      return 0;
+    }
+    tokens = Math.min(capacity, tokens + (now - lastRefill) * tokensPerNano);
+    lastRefill = now;
+    double missing = Math.min(permits, capacity) - tokens;
+    return missing <= 0 ? 0 : (long) Math.ceil(missing / tokensPerNano);
+  }
+
+  /**
+   * Take tokens that {@link #waitNanos(long, long)} reported as available.
+   *
+   * @param permits the number of tokens
+   */
+  public void take(long permits) {
+    if (tokensPerNano != 0) {
+      tokens -= permits;
+    }
+  }
+}
@@ -1,7 +1,10 @@
 package chat.server;
 
-import java.io.OutputStreamWriter;
-import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Manages a single connected client at the server.
@@ -10,32 +13,100 @@ import java.net.Socket;
 public class User {
 
   private final String name;
-  private final OutputStreamWriter writer;
-  private final Socket socket;
+  private final ClientConnection connection;
+  private final Set<String> rooms;
+  private volatile long joinSequence;
+  private volatile boolean replaying;
+  private List<ByteBuffer> heldBack;
 
   /**
    * Create a single connected client.
    *
-   * @param name   the name of the client
-   * @param writer the stream to the client
-   * @param socket the socket tp the client
+   * @param name       the name of the client
+   * @param connection the connection to the client
    */
-  public User(String name, OutputStreamWriter writer, Socket socket) {
+  public User(String name, ClientConnection connection) {
     this.name = name;
-    this.socket = socket;
-    this.writer = writer;
+    this.connection = connection;
+    this.rooms = ConcurrentHashMap.newKeySet();
   }
 
   public String getName() {
     return name;
   }
 
-  public OutputStreamWriter getWriter() {
-    return writer;
+  public ClientConnection getConnection() {
+    return connection;
   }
 
-  public Socket getSocket() {
-    return socket;
+  /**
+   * Return the names of the rooms the user has joined. Maintained by the {@link RoomRegistry}.
+   *
+   * @return the modifiable set of room names
+   */
+  Set<String> getRooms() {
+    return rooms;
+  }
+
+  /**
+   * Return the sequence number of the last delivery that was started before the user logged in.
+   * The user already received it with the history, so it is skipped if it is still in progress.
+   *
+   * @return the sequence number
+   */
+  long getJoinSequence() {
+    return joinSequence;
+  }
+
+  void setJoinSequence(long joinSequence) {
+    this.joinSequence = joinSequence;
+  }
+
+  /**
+   * Start holding back the messages sent to the user, until the login success and the history
+   * have been queued for it. Called before the user becomes visible to other threads.
+   */
+  synchronized void startReplay() {
+    heldBack = new ArrayList<>();
+    replaying = true;
   }
 
+  /**
+   * Return whether the messages sent to the user are currently held back.
+   *
+   * @return true, while the history is being replayed
+   */
+  boolean isReplaying() {
+    return replaying;
+  }
+
+  /**
+   * Keep a message until the replay has finished.
+   *
+   * @param frame the encoded message in the format of the user
+   * @return false, if the replay has finished and the message must be sent right away
+   */
+  synchronized boolean holdBack(ByteBuffer frame) {
+    if (!replaying) {
+      return false;
+    }
+    heldBack.add(frame);
+    return true;
+  }
+
+  /**
+   * Take the messages held back so far. Once there are none left, the replay is finished and
+   * further messages are sent right away.
+   *
+   * @return the held-back messages in the order they were sent, empty once the replay finished
+   */
+  synchronized List<ByteBuffer> takeHeldBack() {
+    List<ByteBuffer> frames = heldBack;
+    if (frames.isEmpty()) {
+      replaying = false;
+      return frames;
+    }
+    heldBack = new ArrayList<>();
+    return frames;
+  }
 }
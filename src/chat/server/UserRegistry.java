@@ -0,0 +1,67 @@
+package chat.server;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The logged-in users of the chat, indexed by nickname. A nickname is reserved atomically, so two
+ * clients logging in with the same nickname at the same time can never both succeed. Lookups,
+ * reservations and releases take constant time and never block each other.
+ */
+public class UserRegistry {
+
+  private final ConcurrentMap<String, User> users;
+
+  /**
+   * Create an empty registry.
+   */
+  public UserRegistry() {
+    this.users = new ConcurrentHashMap<>();
+  }
+
+  /**
+   * Reserve the nickname of a user.
+   *
+   * @param user the user that logs in
+   * @return true, when the nickname was free and now belongs to the user
+   */
+  public boolean reserve(User user) {
+    return users.putIfAbsent(user.getName(), user) == null;
+  }
+
+  /**
+   * Release the nickname of a user, so that it can be used by a new client.
+   *
+   * @param user the user that left
+   * @return true, when the nickname was reserved by this user
+   */
+  public boolean release(User user) {
+    return users.remove(user.getName(), user);
+  }
+
+  /**
+   * Look up the user with the given nickname.
+   *
+   * @param nickname the nickname
+   * @return the user, or null if nobody uses the nickname
+   */
+  public User get(String nickname) {
+    return users.get(nickname);
+  }
+
+  /**
+   * Return a live view of all logged-in users for iteration without locking. Users joining or
+   * leaving during the iteration may or may not be seen.
+   *
+   * @return the logged-in users
+   */
+  public Collection<User> all() {
+    return Collections.unmodifiableCollection(users.values());
+  }
+
+  public int size() {
+    return users.size();
+  }
+}
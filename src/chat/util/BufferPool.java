@@ -0,0 +1,152 @@
+package chat.util;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A pool of direct {@link ByteBuffer ByteBuffers} shared by many threads. Buffers come in size
+ * classes, powers of two between the smallest and the largest capacity, and a request is served
+ * by the smallest class that fits. Direct buffers are costly to allocate and are only freed by the
+ * garbage collector, so released buffers are kept for reuse, up to a bound of pooled bytes that
+ * is split evenly among the classes. Buffers beyond the bound are left to the garbage collector.
+ *
+ * <p>The pool counts its acquisitions, the misses that had to allocate a new buffer and the bytes
+ * that are in use or waiting in the pool, which together tell how well the pool is sized.
+ */
+public class BufferPool {
+
+  private final int minCapacity;
+  private final Queue<ByteBuffer>[] free;
+  private final AtomicInteger[] freeCounts;
+  private final int[] maxFree;
+  private final LongAdder acquisitions = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+  private final LongAdder bytesInUse = new LongAdder();
+  private final LongAdder bytesPooled = new LongAdder();
+
+  /**
+   * Create an empty pool.
+   *
+   * @param minCapacity    capacity of the smallest class, a power of two
+   * @param maxCapacity    capacity of the largest class, a power of two of at least the smallest
+   * @param maxPooledBytes number of bytes the pool keeps for reuse, 0 to keep none
+   */
+  @SuppressWarnings("unchecked")
+  public BufferPool(int minCapacity, int maxCapacity, long maxPooledBytes) {
+    if (Integer.bitCount(minCapacity) != 1 || Integer.bitCount(maxCapacity) != 1
+        || maxCapacity < minCapacity) {
+      throw new IllegalArgumentException(
+          "Invalid capacities: " + minCapacity + ", " + maxCapacity);
+    }
+    if (maxPooledBytes < 0) {
+      throw new IllegalArgumentException("Pooled bytes must not be negative: " + maxPooledBytes);
+    }
+    int classes = Integer.numberOfTrailingZeros(maxCapacity)
+        - Integer.numberOfTrailingZeros(minCapacity) + 1;
+    this.minCapacity = minCapacity;
+    this.free = (Queue<ByteBuffer>[]) new Queue<?>[classes];
+    this.freeCounts = new AtomicInteger[classes];
+    this.maxFree = new int[classes];
+    for (int i = 0; i < classes; i++) {
+      free[i] = new ConcurrentLinkedQueue<>();
+      freeCounts[i] = new AtomicInteger();
+      maxFree[i] = (int) Math.min(Integer.MAX_VALUE, maxPooledBytes / classes / capacityOf(i));
+    }
+  }
+
+  private int capacityOf(int sizeClass) {
+    return minCapacity << sizeClass;
+  }
+
+  private int classOf(int capacity) {
+    if (capacity <= minCapacity) {
+      return 0;
+    }
+    return 32 - Integer.numberOfLeadingZeros(capacity - 1)
+        - Integer.numberOfTrailingZeros(minCapacity);
+  }
+
+  /**
+   * Return the capacity of the largest buffers of the pool.
+   *
+   * @return capacity in bytes
+   */
+  public int getMaxCapacity() {
+    return capacityOf(free.length - 1);
+  }
+
+  /**
+   * Take a cleared buffer from the pool, or allocate one if the pool has none of the size.
+   *
+   * @param capacity the number of bytes the buffer must hold at least
+   * @return a buffer of the smallest class that fits
+   * @throws IllegalArgumentException if the capacity exceeds the largest class
+   */
+  public ByteBuffer acquire(int capacity) {
+    int sizeClass = classOf(capacity);
+    if (sizeClass >= free.length) {
+      throw new IllegalArgumentException("Capacity exceeds " + getMaxCapacity() + ": " + capacity);
+    }
+    acquisitions.increment();
+    ByteBuffer buffer = free[sizeClass].poll();
+    if (buffer == null) {
+      misses.increment();
+      buffer = ByteBuffer.allocateDirect(capacityOf(sizeClass));
+    } else {
+      freeCounts[sizeClass].decrementAndGet();
+      bytesPooled.add(-buffer.capacity());
+    }
+    bytesInUse.add(buffer.capacity());
+    return buffer;
+  }
+
+  /**
+   * Return a buffer taken from this pool. The caller must not use the buffer afterwards.
+   *
+   * @param buffer the buffer
+   */
+  public void release(ByteBuffer buffer) {
+    int sizeClass = classOf(buffer.capacity());
+    bytesInUse.add(-buffer.capacity());
+    if (freeCounts[sizeClass].incrementAndGet() > maxFree[sizeClass]) {
+      freeCounts[sizeClass].decrementAndGet();
+      return;
+    }
+    bytesPooled.add(buffer.capacity());
+    free[sizeClass].add(buffer.clear());
+  }
+
+  public long getAcquisitions() {
+    return acquisitions.sum();
+  }
+
+  /**
+   * Return the number of acquisitions that found no pooled buffer and allocated a new one.
+   *
+   * @return number of allocations
+   */
+  public long getMisses() {
+    return misses.sum();
+  }
+
+  /**
+   * Return the capacity of the buffers that have been acquired and not released yet.
+   *
+   * @return number of bytes
+   */
+  public long getBytesInUse() {
+    return bytesInUse.sum();
+  }
+
+  /**
+   * Return the capacity of the buffers that wait in the pool for reuse.
+   *
+   * @return number of bytes
+   */
+  public long getBytesPooled() {
+    return bytesPooled.sum();
+  }
+}
@@ -0,0 +1,156 @@
+package chat.util;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A timer for very many coarse timeouts, such as one per client connection. Timeouts are hashed
+ * into the slots of a wheel by their deadline; a single thread advances the wheel by one slot per
+ * tick and runs the timeouts of that slot that are due. Scheduling and cancelling take constant
+ * time regardless of the number of pending timeouts, at the price of firing up to one tick late.
+ *
+ * <p>Tasks run on the timer thread and must therefore be short; a task that throws is ignored.
+ */
+public class HashedWheelTimer {
+
+  private final long tickNanos;
+  private final Queue<Timeout>[] wheel;
+  private final int mask;
+  private final Queue<Timeout> scheduled;
+  private final Thread thread;
+  private final long startTime;
+  private volatile boolean stopped;
+
+  /**
+   * A task scheduled on the timer.
+   */
+  public static final class Timeout {
+
+    private final Runnable task;
+    private final long deadline;
+    private long remainingRounds;
+    private volatile boolean cancelled;
+
+    private Timeout(Runnable task, long deadline) {
+      this.task = task;
+      this.deadline = deadline;
+    }
+
+    /**
+     * Prevent the task from running. The timeout is removed from its slot when the wheel passes
+     * it the next time.
+     */
+    public void cancel() {
+      cancelled = true;
+    }
+
+    public boolean isCancelled() {
+      return cancelled;
+    }
+  }
+
+  /**
+   * Create a timer and start its thread.
+   *
+   * @param name      the name of the timer thread
+   * @param tick      the resolution of the timer
+   * @param unit      the unit of the tick
+   * @param wheelSize number of slots, rounded up to the next power of two; timeouts further away
+   *                  than one revolution wait for the wheel to come around again
+   */
+  @SuppressWarnings("unchecked")
+  public HashedWheelTimer(String name, long tick, TimeUnit unit, int wheelSize) {
+    int size = wheelSize <= 2 ? 2 : Integer.highestOneBit(wheelSize - 1) << 1;
+    this.tickNanos = Math.max(1, unit.toNanos(tick));
+    this.wheel = (Queue<Timeout>[]) new Queue<?>[size];
+    for (int i = 0; i < size; i++) {
+      wheel[i] = new ArrayDeque<>();
+    }
+    this.mask = size - 1;
+    this.scheduled = new ConcurrentLinkedQueue<>();
+    this.startTime = System.nanoTime();
+    this.thread = new Thread(this::run, name);
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  /**
+   * Run a task once the delay has passed. Safe to call from any thread, including tasks of this
+   * timer.
+   *
+   * @param task  the task
+   * @param delay the delay
+   * @param unit  the unit of the delay
+   * @return the timeout, which can be cancelled
+   */
+  public Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+    Timeout timeout = new Timeout(task, System.nanoTime() + unit.toNanos(Math.max(0, delay)));
+    scheduled.add(timeout);
+    return timeout;
+  }
+
+  /**
+   * Stop the timer thread. Pending timeouts are dropped.
+   */
+  public void stop() {
+    stopped = true;
+    thread.interrupt();
+  }
+
+  private void run() {
+    long tick = 0;
+    while (!stopped) {
+      long deadline = startTime + (tick + 1) * tickNanos;
+      long sleep = deadline - System.nanoTime();
+      if (sleep > 0) {
+        try {
+          TimeUnit.NANOSECONDS.sleep(sleep);
+        } catch (InterruptedException e) {
+          return;
+        }
+      }
+      transferScheduled(tick);
+      expire(wheel[(int) tick & mask], deadline);
+      tick++;
+    }
+  }
+
+  /**
+   * Move the newly scheduled timeouts into their slots. Timeouts that are already due go into the
+   * current slot.
+   */
+  private void transferScheduled(long currentTick) {
+    Timeout timeout;
+    while ((timeout = scheduled.poll()) != null) {
+      if (timeout.cancelled) {
+        continue;
+      }
+      long ticks = Math.max(currentTick,
+          (timeout.deadline - startTime + tickNanos - 1) / tickNanos - 1);
+      timeout.remainingRounds = (ticks - currentTick) / wheel.length;
+      wheel[(int) ticks & mask].add(timeout);
+    }
+  }
+
+  private void expire(Queue<Timeout> slot, long now) {
+    Iterator<Timeout> iterator = slot.iterator();
+    while (iterator.hasNext()) {
+      Timeout timeout = iterator.next();
+      if (timeout.cancelled) {
+        iterator.remove();
+      } else if (timeout.remainingRounds <= 0 && timeout.deadline <= now) {
+        iterator.remove();
+        try {
+          timeout.task.run();
+        } catch (RuntimeException e) {
+          // a failing task must not stop the timeouts of everybody else
+        }
+      } else {
+        timeout.remainingRounds--;
+      }
+    }
+  }
+}
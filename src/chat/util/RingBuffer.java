@@ -0,0 +1,112 @@
+package chat.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Supplier;
+
+/**
+ * A bounded, lock-free queue for many producers and a single consumer whose slots are allocated
+ * once up front. Producers {@link #claim() claim} a slot, fill the preallocated element in place
+ * and {@link #publish(long) publish} it; the consumer reads published elements in claim order and
+ * {@link #release(long) releases} their slots for reuse. Nothing is allocated after construction.
+ *
+ * @param <T> the type of the reusable slot elements
+ */
+public class RingBuffer<T> {
+
+  private final Object[] slots;
+  private final AtomicLongArray sequences;
+  private final int mask;
+  private final AtomicLong tail;
+  private volatile long head;
+
+  /**
+   * Create a ring buffer and fill every slot with a new element.
+   *
+   * @param capacity number of slots, rounded up to the next power of two
+   * @param factory  creates the element of each slot
+   */
+  public RingBuffer(int capacity, Supplier<T> factory) {
+    int size = capacity <= 2 ? 2 : Integer.highestOneBit(capacity - 1) << 1;
+    this.slots = new Object[size];
+    this.sequences = new AtomicLongArray(size);
+    for (int i = 0; i < size; i++) {
+      slots[i] = factory.get();
+      sequences.set(i, i);
+    }
+    this.mask = size - 1;
+    this.tail = new AtomicLong();
+  }
+
+  /**
+   * Claim the next free slot. Safe to call from any thread.
+   *
+   * @return the sequence of the claimed slot, or -1 if the buffer is full
+   */
+  public long claim() {
+    while (true) {
+      long sequence = tail.get();
+      long available = sequences.get((int) sequence & mask);
+      if (available == sequence) {
+        if (tail.compareAndSet(sequence, sequence + 1)) {
+          return sequence;
+        }
+      } else if (available < sequence) {
+        return -1;
+      }
+    }
+  }
+
+  /**
+   * Return the element of a claimed or published slot.
+   *
+   * @param sequence the sequence of the slot
+   * @return the preallocated element
+   */
+  @SuppressWarnings("unchecked")
+  public T get(long sequence) {
+    return (T) slots[(int) sequence & mask];
+  }
+
+  /**
+   * Make a filled slot visible to the consumer.
+   *
+   * @param sequence the sequence returned by {@link #claim()}
+   */
+  public void publish(long sequence) {
+    sequences.lazySet((int) sequence & mask, sequence + 1);
+  }
+
+  /**
+   * Return the sequence of the next published slot. Only called by the consumer.
+   *
+   * @return the sequence, or -1 if the next slot is not published yet
+   */
+  public long next() {
+    long sequence = head;
+    return sequences.get((int) sequence & mask) == sequence + 1 ? sequence : -1;
+  }
+
+  /**
+   * Hand a consumed slot back to the producers. Only called by the consumer, in order.
+   *
+   * @param sequence the sequence returned by {@link #next()}
+   */
+  public void release(long sequence) {
+    head = sequence + 1;
+    sequences.lazySet((int) sequence & mask, sequence + slots.length);
+  }
+
+  /**
+   * Return whether all claimed slots have been consumed. May be called from any thread.
+   *
+   * @return true, if the buffer is empty
+   */
+  public boolean isEmpty() {
+    return tail.get() == head;
+  }
+
+  public int capacity() {
+    return slots.length;
+  }
+}
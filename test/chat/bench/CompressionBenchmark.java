@@ -0,0 +1,105 @@
+package chat.bench;
+
+import chat.protocol.ChatClock;
+import chat.protocol.Message;
+import chat.protocol.TextMessage;
+import chat.protocol.WireFormat;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Compares the bandwidth of the wire formats for typical chat traffic: the bytes a single
+ * recipient receives and the time to encode a message once, which is all a broadcast costs
+ * regardless of the number of recipients. Run with {@code java chat.bench.CompressionBenchmark}.
+ */
+public final class CompressionBenchmark {
+
+  private static final String[] WORDS = ("the be to of and a in that have I it for not on with "
+      + "he as you do at this but his by from they we say her she or an will my one all would "
+      + "there their what so up out if about who get which go me when make can like time no "
+      + "just him know take people into year your good some could them see other than then now "
+      + "look only come its over think also back after use two how our work first well way even "
+      + "new want because any these give day most us chat server client message room login "
+      + "lunch meeting tomorrow deploy build test release bug fix thanks ok :-) lol").split(" ");
+
+  private static final int ROUNDS = 5;
+
+  private CompressionBenchmark() {
+  }
+
+  /**
+   * Run the benchmark.
+   *
+   * @param args not used
+   */
+  public static void main(String[] args) {
+    Random random = new Random(42);
+    List<Message> shortMessages = messages(random, 10_000, 3, 15);
+    List<Message> longMessages = messages(random, 1_000, 150, 400);
+    List<Message> history = messages(random, 100, 3, 15);
+
+    System.out.printf("%-24s %-8s %14s %10s %12s%n",
+        "workload", "format", "bytes", "ratio", "ns/message");
+    report("short messages", shortMessages);
+    report("long messages", longMessages);
+    reportReplay("history replay (100)", history);
+  }
+
+  private static void report(String workload, List<Message> messages) {
+    long jsonBytes = 0;
+    for (WireFormat format : WireFormat.values()) {
+      long bytes = 0;
+      long nanos = Long.MAX_VALUE;
+      for (int round = 0; round < ROUNDS; round++) {
+        long start = System.nanoTime();
+        long total = 0;
+        for (Message message : messages) {
+          total += format.getCodec().encodeFrame(message).remaining();
+        }
+        nanos = Math.min(nanos, System.nanoTime() - start);
+        bytes = total;
+      }
+      jsonBytes = format == WireFormat.JSON ? bytes : jsonBytes;
+      print(workload, format, bytes, jsonBytes, nanos / messages.size());
+    }
+  }
+
+  private static void reportReplay(String workload, List<Message> messages) {
+    long jsonBytes = 0;
+    for (WireFormat format : WireFormat.values()) {
+      long bytes = 0;
+      long nanos = Long.MAX_VALUE;
+      for (int round = 0; round < ROUNDS * 100; round++) {
+        long start = System.nanoTime();
+        bytes = format.getCodec().encodeFrames(messages).remaining();
+        nanos = Math.min(nanos, System.nanoTime() - start);
+      }
+      jsonBytes = format == WireFormat.JSON ? bytes : jsonBytes;
+      print(workload, format, bytes, jsonBytes, nanos / messages.size());
+    }
+  }
+
+  private static void print(String workload, WireFormat format, long bytes, long jsonBytes,
+      long nanosPerMessage) {
+    System.out.printf("%-24s %-8s %14d %9.1f%% %12d%n", workload, format.getName(), bytes,
+        100.0 * bytes / jsonBytes, nanosPerMessage);
+  }
+
+  private static List<Message> messages(Random random, int count, int minWords, int maxWords) {
+    ChatClock clock = new ChatClock();
+    List<Message> messages = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      int words = minWords + random.nextInt(maxWords - minWords + 1);
+      StringBuilder content = new StringBuilder();
+      for (int w = 0; w < words; w++) {
+        if (w > 0) {
+          content.append(' ');
+        }
+        content.append(WORDS[random.nextInt(WORDS.length)]);
+      }
+      messages.add(new TextMessage(clock.now(), "user" + random.nextInt(50), content.toString()));
+    }
+    return messages;
+  }
+}
@@ -0,0 +1,173 @@
+package chat.bench;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Pattern;
+
+/**
+ * A minimal benchmark runner in the spirit of JMH for the command line. Every benchmark is run
+ * for a number of warmup iterations, whose results are discarded, and then for a number of
+ * measured iterations of fixed duration. The report shows the mean time per operation and the
+ * fastest and slowest iteration, so a noisy run is easy to recognise. Results are folded into a
+ * sink, so the JIT cannot drop the measured work.
+ *
+ * <p>Options: {@code --filter <regex>} runs only the benchmarks whose name contains a match,
+ * {@code --warmup <n>} and {@code --iterations <n>} set the number of iterations, and
+ * {@code --time <millis>} the duration of each.
+ */
+public final class Harness {
+
+  private static volatile long sink;
+
+  private Pattern filter = Pattern.compile("");
+  private int warmupIterations = 3;
+  private int iterations = 5;
+  private long iterationMillis = 200;
+
+  /**
+   * A benchmarked operation.
+   */
+  @FunctionalInterface
+  public interface Operation {
+
+    /**
+     * Run the operation once.
+     *
+     * @return any value derived from the result, which is consumed by the harness
+     * @throws Exception if the operation fails, which aborts the benchmark
+     */
+    long run() throws Exception;
+  }
+
+  /**
+   * Create a harness configured by command line arguments.
+   *
+   * @param args the arguments
+   * @throws IllegalArgumentException if an argument is unknown or lacks its value
+   */
+  public Harness(String[] args) {
+    for (int i = 0; i < args.length; i++) {
+      if (i + 1 == args.length) {
+        throw new IllegalArgumentException("Missing value of " + args[i]);
+      }
+      String value = args[++i];
+      switch (args[i - 1]) {
+        case "--filter" -> filter = Pattern.compile(value);
+        case "--warmup" -> warmupIterations = Integer.parseInt(value);
+        case "--iterations" -> iterations = Integer.parseInt(value);
+        case "--time" -> iterationMillis = Long.parseLong(value);
+        default -> throw new IllegalArgumentException("Unknown option: " + args[i - 1]);
+      }
+    }
+    System.out.printf("# %s %s, %d warmup and %d measured iterations of %d ms%n",
+        System.getProperty("java.vm.name"), System.getProperty("java.version"),
+        warmupIterations, iterations, iterationMillis);
+    System.out.printf("%-48s %12s %12s %12s %14s%n",
+        "benchmark", "ns/op", "min", "max", "ops/s");
+  }
+
+  /**
+   * Return whether a benchmark is selected, so expensive setup can be skipped otherwise.
+   *
+   * @param name the name of the benchmark
+   * @return true, if the benchmark is run
+   */
+  public boolean isSelected(String name) {
+    return filter.matcher(name).find();
+  }
+
+  /**
+   * Run a benchmark on the calling thread.
+   *
+   * @param name      the name of the benchmark
+   * @param operation the operation
+   * @throws Exception if the operation fails
+   */
+  public void run(String name, Operation operation) throws Exception {
+    run(name, 1, operation);
+  }
+
+  /**
+   * Run a benchmark on several threads at the same time, which all repeat the same operation. The
+   * reported time per operation is that of a single thread.
+   *
+   * @param name      the name of the benchmark
+   * @param threads   number of threads
+   * @param operation the operation, which must be thread-safe
+   * @throws Exception if the operation fails
+   */
+  public void run(String name, int threads, Operation operation) throws Exception {
+    if (!isSelected(name)) {
+      return;
+    }
+    for (int i = 0; i < warmupIterations; i++) {
+      iterate(threads, operation);
+    }
+    double[] nanosPerOp = new double[iterations];
+    for (int i = 0; i < iterations; i++) {
+      nanosPerOp[i] = iterate(threads, operation);
+    }
+    double min = Double.MAX_VALUE;
+    double max = 0;
+    double sum = 0;
+    for (double value : nanosPerOp) {
+      min = Math.min(min, value);
+      max = Math.max(max, value);
+      sum += value;
+    }
+    double mean = sum / iterations;
+    System.out.printf("%-48s %12.1f %12.1f %12.1f %14.0f%n", name, mean, min, max,
+        threads * 1e9 / mean);
+  }
+
+  /**
+   * Run one iteration and return the mean time per operation of a thread.
+   */
+  private double iterate(int threads, Operation operation) throws Exception {
+    AtomicBoolean running = new AtomicBoolean(true);
+    CyclicBarrier start = new CyclicBarrier(threads + 1);
+    long[] operations = new long[threads];
+    long[] nanos = new long[threads];
+    Exception[] failure = new Exception[1];
+    List<Thread> workers = new ArrayList<>();
+    for (int t = 0; t < threads; t++) {
+      int index = t;
+      Thread worker = new Thread(() -> {
+        long result = 0;
+        long count = 0;
+        try {
+          start.await();
+          long begin = System.nanoTime();
+          while (running.get()) {
+            result ^= operation.run();
+            count++;
+          }
+          nanos[index] = System.nanoTime() - begin;
+        } catch (Exception e) {
+          failure[0] = e;
+          running.set(false);
+        }
+        operations[index] = count;
+        sink ^= result;
+      }, "bench-" + t);
+      workers.add(worker);
+      worker.start();
+    }
+    start.await();
+    Thread.sleep(iterationMillis);
+    running.set(false);
+    for (Thread worker : workers) {
+      worker.join();
+    }
+    if (failure[0] != null) {
+      throw failure[0];
+    }
+    double total = 0;
+    for (int t = 0; t < threads; t++) {
+      total += (double) nanos[t] / Math.max(1, operations[t]);
+    }
+    return total / threads;
+  }
+}
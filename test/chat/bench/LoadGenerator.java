@@ -0,0 +1,459 @@
+package chat.bench;
+
+import chat.metrics.LatencyHistogram;
+import chat.protocol.Login;
+import chat.protocol.Message;
+import chat.protocol.Pong;
+import chat.protocol.PostMessage;
+import chat.protocol.ProtocolException;
+import chat.protocol.TextMessage;
+import chat.protocol.WireFormat;
+import chat.server.ServerConfig;
+import chat.server.ServerMode;
+import chat.server.ServerNetworkConnection;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Drives a chat server with many logged-in clients at once, like a crowd of
+ * {@code ChatTestClient}s speaking the same JSON lines. All clients share a single selector
+ * thread, so thousands of them fit into one process. Once every client has logged in, the clients
+ * take turns to post at a fixed total rate. Every post carries its send time, which the receiving
+ * clients turn into the end-to-end delivery latency; the generator and the server must therefore
+ * run on the same machine.
+ *
+ * <p>Run with {@code java chat.bench.LoadGenerator [--<option>=<value>...]}. Options are
+ * {@code host}, {@code port}, {@code clients}, {@code rate} (posts per second of all clients),
+ * {@code duration} (seconds of posting), {@code size} (bytes of content), {@code login-timeout}
+ * (seconds), {@code max-pending-logins} (clients connecting at the same time, 0 for all at once)
+ * and {@code embedded}, which starts a server of the given {@link ServerMode} in the same JVM
+ * instead of connecting to a running one. The embedded server also takes the options
+ * {@code reactors}, {@code acceptors} and {@code reuse-port} of the {@link ServerConfig}.
+ *
+ * <p>The report includes the time until all clients were logged in. With
+ * {@code --max-pending-logins=0 --duration=0}, this is the time a server takes to recover from a
+ * reconnect storm, in which all of its clients come back at once.
+ */
+public final class LoadGenerator {
+
+  private static final String MARKER = "load:";
+  private static final int READ_BUFFER_BYTES = 4096;
+  private static final long DRAIN_NANOS = TimeUnit.SECONDS.toNanos(2);
+  private static final long MAX_LATENCY_NANOS = TimeUnit.SECONDS.toNanos(60);
+
+  private String host = "localhost";
+  private int port = ServerConfig.DEFAULT_PORT;
+  private int clients = 1000;
+  private double rate = 100;
+  private int durationSeconds = 10;
+  private int size = 32;
+  private int loginTimeoutSeconds = 30;
+  private int maxPendingLogins = 64;
+
+  private final LatencyHistogram latency = new LatencyHistogram(MAX_LATENCY_NANOS);
+  private final List<Client> loggedIn = new ArrayList<>();
+  private int opened;
+  private int pendingLogins;
+  private int failedConnects;
+  private int failedLogins;
+  private int disconnects;
+  private int protocolErrors;
+  private long posts;
+  private long expectedDeliveries;
+  private long deliveries;
+
+  /**
+   * The outcome of a run.
+   *
+   * @param clients            number of clients that were started
+   * @param loggedIn           number of clients that logged in
+   * @param failedConnects     number of clients that could not connect
+   * @param failedLogins       number of clients whose login failed or timed out
+   * @param disconnects        number of logged-in clients the server disconnected
+   * @param protocolErrors     number of frames that could not be decoded
+   * @param posts              number of posted messages
+   * @param expectedDeliveries number of messages the clients should have received
+   * @param deliveries         number of messages the clients received
+   * @param loginSeconds       time from the first connect until the last client logged in
+   * @param seconds            duration of the posting
+   * @param latency            the delivery latencies
+   */
+  public record Report(int clients, int loggedIn, int failedConnects, int failedLogins,
+      int disconnects, int protocolErrors, long posts, long expectedDeliveries, long deliveries,
+      double loginSeconds, double seconds, LatencyHistogram latency) {
+
+    /**
+     * Print the report.
+     */
+    public void print() {
+      System.out.printf("clients      %d started, %d logged in, %d failed to connect, "
+              + "%d failed to log in, %d disconnected, %d invalid frames%n",
+          clients, loggedIn, failedConnects, failedLogins, disconnects, protocolErrors);
+      System.out.printf("logins       %d in %.3f s (%.0f/s)%n", loggedIn, loginSeconds,
+          loggedIn / loginSeconds);
+      System.out.printf("posts        %d in %.1f s (%.1f/s)%n", posts, seconds, posts / seconds);
+      System.out.printf("deliveries   %d of %d expected (%.0f/s)%n", deliveries,
+          expectedDeliveries, deliveries / seconds);
+      System.out.printf("latency ms   p50 %.2f  p90 %.2f  p99 %.2f  p99.9 %.2f  max %.2f%n",
+          millis(latency.percentile(0.5)), millis(latency.percentile(0.9)),
+          millis(latency.percentile(0.99)), millis(latency.percentile(0.999)),
+          millis(latency.getMax()));
+    }
+
+    private static double millis(long nanos) {
+      return nanos / 1e6;
+    }
+  }
+
+  /**
+   * Run the generator.
+   *
+   * @param args options of the form {@code --<option>=<value>}
+   * @throws IOException if the embedded server cannot be started
+   */
+  public static void main(String[] args) throws IOException {
+    LoadGenerator generator = new LoadGenerator();
+    ServerMode embedded = null;
+    ServerConfig config = new ServerConfig().setHistoryCapacity(0);
+    for (String arg : args) {
+      int separator = arg.indexOf('=');
+      if (!arg.startsWith("--") || separator < 0) {
+        throw new IllegalArgumentException("Malformed argument: " + arg);
+      }
+      String value = arg.substring(separator + 1);
+      switch (arg.substring(2, separator)) {
+        case "host" -> generator.setHost(value);
+        case "port" -> generator.setPort(Integer.parseInt(value));
+        case "clients" -> generator.setClients(Integer.parseInt(value));
+        case "rate" -> generator.setRate(Double.parseDouble(value));
+        case "duration" -> generator.setDurationSeconds(Integer.parseInt(value));
+        case "size" -> generator.setSize(Integer.parseInt(value));
+        case "login-timeout" -> generator.setLoginTimeoutSeconds(Integer.parseInt(value));
+        case "max-pending-logins" -> generator.setMaxPendingLogins(Integer.parseInt(value));
+        case "embedded" -> embedded = ServerMode.valueOf(value.toUpperCase());
+        case "reactors" -> config.setReactorThreads(Integer.parseInt(value));
+        case "acceptors" -> config.setAcceptorThreads(Integer.parseInt(value));
+        case "reuse-port" -> config.setReusePort(Boolean.parseBoolean(value));
+        default -> throw new IllegalArgumentException("Unknown option: " + arg);
+      }
+    }
+    ServerNetworkConnection server = null;
+    if (embedded != null) {
+      server = new ServerNetworkConnection(config.setPort(generator.port).setMode(embedded));
+      Thread thread = new Thread(server::start, "embedded-server");
+      thread.setDaemon(true);
+      thread.start();
+    }
+    try {
+      generator.run().print();
+    } finally {
+      if (server != null) {
+        server.stop();
+      }
+    }
+  }
+
+  public LoadGenerator setHost(String host) {
+    this.host = host;
+    return this;
+  }
+
+  public LoadGenerator setPort(int port) {
+    this.port = port;
+    return this;
+  }
+
+  public LoadGenerator setClients(int clients) {
+    this.clients = clients;
+    return this;
+  }
+
+  public LoadGenerator setRate(double rate) {
+    this.rate = rate;
+    return this;
+  }
+
+  public LoadGenerator setDurationSeconds(int durationSeconds) {
+    this.durationSeconds = durationSeconds;
+    return this;
+  }
+
+  public LoadGenerator setSize(int size) {
+    this.size = size;
+    return this;
+  }
+
+  public LoadGenerator setLoginTimeoutSeconds(int loginTimeoutSeconds) {
+    this.loginTimeoutSeconds = loginTimeoutSeconds;
+    return this;
+  }
+
+  /**
+   * Set how many clients may connect and log in at the same time.
+   *
+   * @param maxPendingLogins number of clients, 0 for all clients at once
+   * @return this generator
+   */
+  public LoadGenerator setMaxPendingLogins(int maxPendingLogins) {
+    this.maxPendingLogins = maxPendingLogins;
+    return this;
+  }
+
+  /**
+   * Connect and log in all clients, post for the configured duration and wait briefly for the
+   * last deliveries. A generator can only be run once.
+   *
+   * @return the report of the run
+   * @throws IOException if the selector fails
+   */
+  public Report run() throws IOException {
+    try (Selector selector = Selector.open()) {
+      int maxPending = maxPendingLogins > 0 ? maxPendingLogins : clients;
+      long loginStart = System.nanoTime();
+      long loginDeadline = loginStart + TimeUnit.SECONDS.toNanos(loginTimeoutSeconds);
+      while ((opened < clients || pendingLogins > 0) && System.nanoTime() < loginDeadline) {
+        while (opened < clients && pendingLogins < maxPending) {
+          open(selector);
+        }
+        selector.select(10);
+        process(selector);
+      }
+      double loginSeconds = (System.nanoTime() - loginStart) / 1e9;
+      for (SelectionKey key : selector.keys()) {
+        Client client = (Client) key.attachment();
+        if (client.state != State.LOGGED_IN) {
+          close(client);
+        }
+      }
+
+      long intervalNanos = (long) (1e9 / rate);
+      long start = System.nanoTime();
+      long end = start + TimeUnit.SECONDS.toNanos(durationSeconds);
+      long nextPost = start;
+      int turn = 0;
+      long now;
+      while ((now = System.nanoTime()) < end + DRAIN_NANOS) {
+        while (now < end && nextPost <= now && !loggedIn.isEmpty()) {
+          post(loggedIn.get(turn++ % loggedIn.size()));
+          nextPost += intervalNanos;
+        }
+        if (now >= end && deliveries >= expectedDeliveries) {
+          break;
+        }
+        long waitMillis = TimeUnit.NANOSECONDS.toMillis(
+            (now < end ? nextPost : end + DRAIN_NANOS) - now);
+        selector.select(Math.max(1, waitMillis));
+        process(selector);
+      }
+      double seconds = (Math.min(System.nanoTime(), end) - start) / 1e9;
+      int connected = loggedIn.size();
+      for (SelectionKey key : selector.keys()) {
+        key.channel().close();
+      }
+      return new Report(clients, connected + disconnects, failedConnects, failedLogins,
+          disconnects, protocolErrors, posts, expectedDeliveries, deliveries, loginSeconds,
+          seconds, latency);
+    }
+  }
+
+  private void open(Selector selector) {
+    opened++;
+    pendingLogins++;
+    Client client = null;
+    try {
+      client = new Client(SocketChannel.open(), "load" + opened);
+      client.channel.configureBlocking(false);
+      client.channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+      client.key = client.channel.register(selector, SelectionKey.OP_CONNECT, client);
+      if (client.channel.connect(new InetSocketAddress(host, port))) {
+        loginAfterConnect(client);
+      }
+    } catch (IOException e) {
+      if (client != null) {
+        close(client);
+      } else {
+        failedConnects++;
+        pendingLogins--;
+      }
+    }
+  }
+
+  private void loginAfterConnect(Client client) throws IOException {
+    client.state = State.LOGGING_IN;
+    client.key.interestOps(SelectionKey.OP_READ);
+    client.send(encode(new Login(client.nickname, WireFormat.JSON, true)));
+  }
+
+  private void process(Selector selector) {
+    for (SelectionKey key : selector.selectedKeys()) {
+      Client client = (Client) key.attachment();
+      try {
+        if (key.isConnectable() && client.channel.finishConnect()) {
+          loginAfterConnect(client);
+        }
+        if (key.isValid() && key.isWritable()) {
+          client.flush();
+        }
+        if (key.isValid() && key.isReadable()) {
+          read(client);
+        }
+      } catch (IOException e) {
+        close(client);
+      }
+    }
+    selector.selectedKeys().clear();
+  }
+
+  private void post(Client client) {
+    StringBuilder content = new StringBuilder(MARKER).append(System.nanoTime()).append(' ');
+    while (content.length() < size) {
+      content.append('x');
+    }
+    try {
+      client.send(encode(new PostMessage(content.toString())));
+      posts++;
+      expectedDeliveries += loggedIn.size() - 1;
+    } catch (IOException e) {
+      close(client);
+    }
+  }
+
+  private void read(Client client) throws IOException {
+    if (client.channel.read(client.input) < 0) {
+      close(client);
+      return;
+    }
+    ByteBuffer input = client.input;
+    int start = 0;
+    for (int i = 0; i < input.position(); i++) {
+      if (input.get(i) == '\n') {
+        receive(client, input.duplicate().position(start).limit(i));
+        start = i + 1;
+      }
+    }
+    input.limit(input.position()).position(start).compact();
+    if (!input.hasRemaining()) {
+      client.input = ByteBuffer.allocate(input.capacity() * 2).put(input.flip());
+    }
+  }
+
+  private void receive(Client client, ByteBuffer line) {
+    Message message;
+    try {
+      message = WireFormat.JSON.getCodec().decode(line);
+    } catch (ProtocolException e) {
+      protocolErrors++;
+      return;
+    }
+    switch (message.getType()) {
+      case LOGIN_SUCCESS -> {
+        if (client.state == State.LOGGING_IN) {
+          client.state = State.LOGGED_IN;
+          pendingLogins--;
+          loggedIn.add(client);
+        }
+      }
+      case LOGIN_FAILED -> close(client);
+      case PING -> {
+        try {
+          client.send(encode(new Pong()));
+        } catch (IOException e) {
+          close(client);
+        }
+      }
+      case MESSAGE -> {
+        String content = ((TextMessage) message).content();
+        if (content.startsWith(MARKER)) {
+          int end = content.indexOf(' ', MARKER.length());
+          latency.record(System.nanoTime()
+              - Long.parseLong(content.substring(MARKER.length(), end)));
+          deliveries++;
+        }
+      }
+      default -> {
+        // joins and leaves of the other clients
+      }
+    }
+  }
+
+  private void close(Client client) {
+    switch (client.state) {
+      case CONNECTING -> {
+        failedConnects++;
+        pendingLogins--;
+      }
+      case LOGGING_IN -> {
+        failedLogins++;
+        pendingLogins--;
+      }
+      case LOGGED_IN -> {
+        loggedIn.remove(client);
+        disconnects++;
+      }
+      case CLOSED -> {
+        return;
+      }
+      default -> throw new IllegalStateException();
+    }
+    client.state = State.CLOSED;
+    try {
+      client.channel.close();
+    } catch (IOException e) {
+      // the client is gone anyway
+    }
+  }
+
+  private static ByteBuffer encode(Message message) {
+    return WireFormat.JSON.getCodec().encodeFrame(message);
+  }
+
+  private enum State {
+    CONNECTING, LOGGING_IN, LOGGED_IN, CLOSED
+  }
+
+  /**
+   * A single simulated client.
+   */
+  private static final class Client {
+
+    private final SocketChannel channel;
+    private final String nickname;
+    private final Queue<ByteBuffer> output = new ArrayDeque<>();
+    private ByteBuffer input = ByteBuffer.allocate(READ_BUFFER_BYTES);
+    private SelectionKey key;
+    private State state = State.CONNECTING;
+
+    private Client(SocketChannel channel, String nickname) {
+      this.channel = channel;
+      this.nickname = nickname;
+    }
+
+    private void send(ByteBuffer frame) throws IOException {
+      output.add(frame.duplicate());
+      flush();
+    }
+
+    private void flush() throws IOException {
+      ByteBuffer frame;
+      while ((frame = output.peek()) != null) {
+        channel.write(frame);
+        if (frame.hasRemaining()) {
+          key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+          return;
+        }
+        output.poll();
+      }
+      key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+    }
+  }
+}
@@ -0,0 +1,42 @@
+package chat.bench;
+
+import chat.server.ServerConfig;
+import chat.server.ServerMode;
+import chat.server.ServerNetworkConnection;
+import java.io.IOException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Short run of the {@link LoadGenerator} against a server in this JVM.
+ */
+public class LoadGeneratorTest {
+
+  private static final int PORT = 8095;
+  private static final int CLIENTS = 50;
+
+  private ServerNetworkConnection serverConnection;
+
+  @AfterEach
+  public void tearDown() throws IOException {
+    serverConnection.stop();
+  }
+
+  @Test
+  public void run_whenNioServer_deliversEveryPostToAllOtherClients() throws IOException {
+    serverConnection = new ServerNetworkConnection(new ServerConfig()
+        .setPort(PORT).setMode(ServerMode.NIO).setHistoryCapacity(0));
+    new Thread(serverConnection::start).start();
+
+    LoadGenerator.Report report = new LoadGenerator()
+        .setPort(PORT).setClients(CLIENTS).setRate(50).setDurationSeconds(1).run();
+
+    Assertions.assertEquals(CLIENTS, report.loggedIn());
+    Assertions.assertEquals(0, report.failedConnects() + report.failedLogins());
+    Assertions.assertEquals(0, report.disconnects() + report.protocolErrors());
+    Assertions.assertTrue(report.posts() > 0);
+    Assertions.assertEquals((CLIENTS - 1) * report.posts(), report.deliveries());
+    Assertions.assertEquals(report.deliveries(), report.latency().getCount());
+  }
+}
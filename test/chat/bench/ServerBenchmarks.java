@@ -0,0 +1,246 @@
+package chat.bench;
+
+import chat.metrics.LatencyHistogram;
+import chat.protocol.ChatClock;
+import chat.protocol.DirectMessage;
+import chat.protocol.JoinRoom;
+import chat.protocol.LeaveRoom;
+import chat.protocol.Login;
+import chat.protocol.LoginFailed;
+import chat.protocol.LoginSuccess;
+import chat.protocol.Message;
+import chat.protocol.PostDirectMessage;
+import chat.protocol.PostMessage;
+import chat.protocol.PostRoomMessage;
+import chat.protocol.RoomMessage;
+import chat.protocol.TextMessage;
+import chat.protocol.UserJoined;
+import chat.protocol.UserLeft;
+import chat.protocol.WireFormat;
+import chat.server.ChatHandler;
+import chat.server.ClientConnection;
+import chat.server.MessageHistory;
+import chat.server.OutboundQueue;
+import chat.server.RateLimits;
+import chat.server.ServerMetrics;
+import chat.server.SlowConsumerPolicy;
+import chat.server.User;
+import chat.server.UserRegistry;
+import java.nio.ByteBuffer;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.IntStream;
+
+/**
+ * Benchmarks of the hot paths of the server, which serve as the baseline for performance changes:
+ *
+ * <ul>
+ *   <li>{@code codec.*} encoding and decoding of every message in every wire format,</li>
+ *   <li>{@code fanout.*} a broadcast through the {@link ChatHandler} to in-memory recipients,
+ *       serially and spread over a growing number of fan-out workers,</li>
+ *   <li>{@code login.*} nickname lookups and complete logins under contention,</li>
+ *   <li>{@code clock.*} the timestamps stamped on every text message.</li>
+ * </ul>
+ *
+ * <p>Run with {@code java chat.bench.ServerBenchmarks [--filter <regex>]}, see {@link Harness}
+ * for all options.
+ */
+public final class ServerBenchmarks {
+
+  private static final List<Message> MESSAGES = List.of(
+      new Login("Alice"),
+      new LoginSuccess(),
+      new LoginFailed(),
+      new UserJoined("Alice"),
+      new UserLeft("Alice"),
+      new PostMessage("Hello, is anybody here?"),
+      new TextMessage("23.05.2022 15:01:00", "Alice", "Hello, is anybody here?"),
+      new JoinRoom("lunch"),
+      new LeaveRoom("lunch"),
+      new PostRoomMessage("lunch", "Pizza at noon?"),
+      new RoomMessage("23.05.2022 15:01:00", "Alice", "lunch", "Pizza at noon?"),
+      new PostDirectMessage("Bob", "See you at noon?"),
+      new DirectMessage("23.05.2022 15:01:00", "Alice", "See you at noon?"));
+
+  private static final int[] RECIPIENTS = {10, 1_000, 10_000};
+  private static final int STRIPED_RECIPIENTS = 20_000;
+  private static final int CORES = Runtime.getRuntime().availableProcessors();
+  private static final int[] FAN_OUT_WORKERS = IntStream.concat(
+      IntStream.iterate(0, n -> n < CORES, n -> Math.max(1, n * 2)), IntStream.of(CORES))
+      .toArray();
+  private static final int[] THREADS = IntStream.of(1, 4, CORES).distinct().toArray();
+  private static final int REGISTERED_USERS = 10_000;
+  private static final int LOGIN_AUDIENCE = 100;
+
+  private ServerBenchmarks() {
+  }
+
+  /**
+   * Run the benchmarks.
+   *
+   * @param args the options of the {@link Harness}
+   * @throws Exception if a benchmark fails
+   */
+  public static void main(String[] args) throws Exception {
+    Harness harness = new Harness(args);
+    codec(harness);
+    fanOut(harness);
+    login(harness);
+    clock(harness);
+  }
+
+  private static void codec(Harness harness) throws Exception {
+    for (WireFormat format : WireFormat.values()) {
+      for (Message message : MESSAGES) {
+        String type = message.getType().name().toLowerCase();
+        ByteBuffer frame = format.getCodec().encodeFrame(message);
+        harness.run("codec.encode " + format.getName() + " " + type,
+            () -> format.getCodec().encodeFrame(message).remaining());
+        harness.run("codec.decode " + format.getName() + " " + type,
+            () -> format.getCodec().decodeFrame(frame).hashCode());
+      }
+    }
+  }
+
+  private static void fanOut(Harness harness) throws Exception {
+    for (int recipients : RECIPIENTS) {
+      String name = "fanout.broadcast recipients=" + recipients;
+      if (!harness.isSelected(name)) {
+        continue;
+      }
+      ChatHandler handler = new ChatHandler();
+      MemoryConnection sender = login(handler, "sender");
+      for (int i = 0; i < recipients; i++) {
+        login(handler, "user" + i);
+      }
+      ByteBuffer post = line(new PostMessage("Hello, is anybody here?"));
+      harness.run(name, () -> {
+        handler.handleLine(sender, post.duplicate());
+        return 0;
+      });
+      handler.stop();
+    }
+
+    for (int workers : FAN_OUT_WORKERS) {
+      String name = "fanout.striped recipients=" + STRIPED_RECIPIENTS + " workers=" + workers;
+      if (!harness.isSelected(name)) {
+        continue;
+      }
+      ChatHandler handler = new ChatHandler(new ChatClock(), new MessageHistory(0, 1), null, 0,
+          workers);
+      MemoryConnection sender = login(handler, "sender");
+      for (int i = 0; i < STRIPED_RECIPIENTS; i++) {
+        login(handler, "user" + i);
+      }
+      LatencyHistogram latency = handler.getMetrics().getFanOutLatency();
+      while (latency.getCount() <= STRIPED_RECIPIENTS) {
+        // the announcements of the logins
+        Thread.yield();
+      }
+      latency.reset();
+      ByteBuffer post = line(new PostMessage("Hello, is anybody here?"));
+      harness.run(name, () -> {
+        long completed = latency.getCount();
+        handler.handleLine(sender, post.duplicate());
+        while (latency.getCount() == completed) {
+          Thread.yield();
+        }
+        return completed;
+      });
+      System.out.printf("  fan-out latency on %d cores: p50 %d us, p99 %d us%n", CORES,
+          latency.percentile(0.5) / 1000, latency.percentile(0.99) / 1000);
+      handler.stop();
+    }
+  }
+
+  private static void login(Harness harness) throws Exception {
+    UserRegistry registry = new UserRegistry();
+    for (int i = 0; i < REGISTERED_USERS; i++) {
+      registry.reserve(new User("user" + i, null));
+    }
+    for (int threads : THREADS) {
+      harness.run("login.lookup threads=" + threads, threads, () -> {
+        String nickname = "user" + ThreadLocalRandom.current().nextInt(REGISTERED_USERS);
+        return registry.get(nickname).hashCode();
+      });
+    }
+
+    for (int threads : THREADS) {
+      String name = "login.handler users=" + LOGIN_AUDIENCE + " threads=" + threads;
+      if (!harness.isSelected(name)) {
+        continue;
+      }
+      ChatHandler handler = new ChatHandler();
+      for (int i = 0; i < LOGIN_AUDIENCE; i++) {
+        login(handler, "user" + i);
+      }
+      AtomicLong nicknames = new AtomicLong();
+      harness.run(name, threads, () -> {
+        MemoryConnection connection = login(handler, "guest" + nicknames.incrementAndGet());
+        handler.handleDisconnect(connection);
+        return connection.received;
+      });
+      handler.stop();
+    }
+  }
+
+  private static void clock(Harness harness) throws Exception {
+    ChatClock clock = new ChatClock();
+    harness.run("clock.now", () -> clock.now().length());
+    harness.run("clock.format uncached",
+        () -> ChatClock.FORMAT.format(LocalDateTime.now()).length());
+  }
+
+  /**
+   * Connect a client to the handler and log it in.
+   */
+  private static MemoryConnection login(ChatHandler handler, String nickname) throws Exception {
+    MemoryConnection connection = new MemoryConnection();
+    handler.handleConnect(connection);
+    handler.handleLine(connection, line(new Login(nickname)));
+    return connection;
+  }
+
+  /**
+   * Return a JSON frame as received by a connection, without its separator.
+   */
+  private static ByteBuffer line(Message message) {
+    ByteBuffer frame = WireFormat.JSON.getCodec().encodeFrame(message);
+    return frame.limit(frame.limit() - 1).slice();
+  }
+
+  /**
+   * A connection that discards everything sent to it, so only the work of the server is measured.
+   */
+  private static final class MemoryConnection extends ClientConnection {
+
+    private static final RateLimits UNLIMITED = new RateLimits(0, 0);
+    private static final ServerMetrics METRICS = new ServerMetrics();
+
+    private long received;
+
+    private MemoryConnection() {
+      super(new OutboundQueue(16, SlowConsumerPolicy.DROP_OLDEST, 0), UNLIMITED.newLimiter(),
+          METRICS);
+    }
+
+    @Override
+    protected boolean mayBlock() {
+      return false;
+    }
+
+    @Override
+    protected void messageQueued() {
+      ByteBuffer frame;
+      while ((frame = getOutbound().poll()) != null) {
+        received += frame.remaining();
+      }
+    }
+
+    @Override
+    protected void closeSocket() {
+    }
+  }
+}
@@ -0,0 +1,110 @@
+package chat.journal;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Tests of the {@link Journal}.
+ */
+public class JournalTest {
+
+  private static final int SEGMENT_BYTES = 4096;
+
+  @TempDir
+  Path directory;
+
+  @Test
+  public void recent_whenReopened_returnsNewestRecordsAcrossSegments() throws IOException {
+    Journal journal = new Journal(directory, SEGMENT_BYTES, 0, 1024);
+    for (int i = 0; i < 500; i++) {
+      Assertions.assertTrue(journal.append(frame("message " + i)));
+    }
+    journal.close();
+
+    Journal reopened = new Journal(directory, SEGMENT_BYTES, 0, 1024);
+    try {
+      Assertions.assertTrue(segmentFiles().size() > 1);
+      Assertions.assertEquals(List.of("message 497", "message 498", "message 499"),
+          texts(reopened.recent(3)));
+      Assertions.assertEquals(500, reopened.recent(1000).size());
+    } finally {
+      reopened.close();
+    }
+  }
+
+  @Test
+  public void recent_whenLastRecordCorrupted_dropsOnlyThatRecord() throws IOException {
+    Journal journal = new Journal(directory, SEGMENT_BYTES, 0, 16);
+    journal.append(frame("first"));
+    journal.append(frame("second"));
+    journal.close();
+
+    Path log = segmentFiles().get(0);
+    try (FileChannel channel = FileChannel.open(log, StandardOpenOption.WRITE)) {
+      // the payload of "second" starts after "first" and two headers
+      channel.write(ByteBuffer.wrap(new byte[] {'X'}), 2L * JournalSegment.HEADER_BYTES + 5);
+    }
+
+    Journal reopened = new Journal(directory, SEGMENT_BYTES, 0, 16);
+    try {
+      Assertions.assertEquals(List.of("first"), texts(reopened.recent(10)));
+      reopened.append(frame("third"));
+    } finally {
+      reopened.close();
+    }
+    Journal again = new Journal(directory, SEGMENT_BYTES, 0, 16);
+    try {
+      Assertions.assertEquals(List.of("first", "third"), texts(again.recent(10)));
+    } finally {
+      again.close();
+    }
+  }
+
+  @Test
+  public void append_whenSegmentLimitReached_deletesOldestSegments() throws IOException {
+    Journal journal = new Journal(directory, SEGMENT_BYTES, 0, 1024, 2);
+    for (int i = 0; i < 500; i++) {
+      Assertions.assertTrue(journal.append(frame("message " + i)));
+    }
+    journal.close();
+    Assertions.assertFalse(journal.append(frame("late")));
+    Assertions.assertEquals(1, journal.getDropped());
+
+    Assertions.assertEquals(2, segmentFiles().size());
+    Journal reopened = new Journal(directory, SEGMENT_BYTES, 0, 1024, 2);
+    try {
+      List<String> texts = texts(reopened.recent(1000));
+      Assertions.assertTrue(texts.size() < 500);
+      Assertions.assertEquals("message 499", texts.get(texts.size() - 1));
+    } finally {
+      reopened.close();
+    }
+  }
+
+  private List<Path> segmentFiles() throws IOException {
+    try (Stream<Path> files = Files.list(directory)) {
+      return files.filter(file -> file.toString().endsWith(".log")).sorted()
+          .collect(Collectors.toList());
+    }
+  }
+
+  private static ByteBuffer frame(String text) {
+    return ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8)).asReadOnlyBuffer();
+  }
+
+  private static List<String> texts(List<ByteBuffer> records) {
+    return records.stream().map(record -> StandardCharsets.UTF_8.decode(record).toString())
+        .collect(Collectors.toList());
+  }
+}
@@ -0,0 +1,31 @@
+package chat.logging;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests of the {@link AsyncAppender}.
+ */
+public class AsyncAppenderTest {
+
+  @Test
+  public void append_whenFlushed_rendersTemplateOnAppenderThread() {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    AsyncAppender appender = new AsyncAppender(16, new PrintStream(bytes, true,
+        StandardCharsets.UTF_8));
+
+    appender.append(Level.WARN, "Test", "{} joined {}", "Alice", 42, null);
+    appender.append(Level.INFO, "Test", "no {} left", null, null, null);
+
+    Assertions.assertTrue(appender.flush(5000));
+    String[] lines = bytes.toString(StandardCharsets.UTF_8).split(System.lineSeparator());
+    Assertions.assertEquals(2, lines.length);
+    Assertions.assertTrue(lines[0].endsWith(" WARN [" + Thread.currentThread().getName()
+        + "] Test: Alice joined 42"), lines[0]);
+    Assertions.assertTrue(lines[1].endsWith("Test: no null left"), lines[1]);
+    Assertions.assertEquals(0, appender.getDropped());
+  }
+}
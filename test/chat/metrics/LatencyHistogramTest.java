@@ -0,0 +1,52 @@
+package chat.metrics;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests of the bucketing of {@link LatencyHistogram}.
+ */
+public class LatencyHistogramTest {
+
+  @Test
+  public void percentile_whenEmpty_returnsZero() {
+    Assertions.assertEquals(0, new LatencyHistogram(1_000_000).percentile(0.99));
+  }
+
+  @Test
+  public void percentile_whenUniform_staysWithinBucketError() {
+    LatencyHistogram histogram = new LatencyHistogram(1_000_000_000);
+    for (long nanos = 1; nanos <= 100_000; nanos++) {
+      histogram.record(nanos * 10);
+    }
+
+    Assertions.assertEquals(100_000, histogram.getCount());
+    assertWithin(500_000, histogram.percentile(0.5));
+    assertWithin(990_000, histogram.percentile(0.99));
+    Assertions.assertEquals(1_000_000, histogram.percentile(1.0));
+  }
+
+  @Test
+  public void record_whenBeyondMaximum_keepsExactMaximum() {
+    LatencyHistogram histogram = new LatencyHistogram(1_000);
+    histogram.record(5_000_000);
+
+    Assertions.assertEquals(5_000_000, histogram.getMax());
+    Assertions.assertEquals(5_000_000, histogram.percentile(0.5));
+  }
+
+  @Test
+  public void reset_forgetsDurations() {
+    LatencyHistogram histogram = new LatencyHistogram(1_000);
+    histogram.record(100);
+    histogram.reset();
+
+    Assertions.assertEquals(0, histogram.getCount());
+    Assertions.assertEquals(0, histogram.getMax());
+  }
+
+  private static void assertWithin(long expected, long actual) {
+    Assertions.assertTrue(actual >= expected && actual <= expected * 1.07,
+        "expected about " + expected + " but was " + actual);
+  }
+}
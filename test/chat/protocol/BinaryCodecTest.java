@@ -0,0 +1,61 @@
+package chat.protocol;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Round-trip tests of the {@link BinaryCodec} and of the conversion between the formats.
+ */
+public class BinaryCodecTest {
+
+  private static final List<String> SAMPLES = List.of("", "Hi!", "line\nbreak\r\ttab",
+      "Gr\u00fc\u00dfe, \u4e16\u754c", "emoji \ud83d\ude00", "x".repeat(300));
+
+  private final BinaryCodec codec = new BinaryCodec();
+
+  @Test
+  public void decode_whenFrameEncoded_returnsEqualMessage() throws ProtocolException {
+    for (String sample : SAMPLES) {
+      for (Message message : messages(sample)) {
+        ByteBuffer frame = codec.encodeFrame(message);
+        Assertions.assertEquals(frame.remaining() - BinaryCodec.PREFIX_BYTES, frame.getInt(0));
+        Assertions.assertEquals(message, codec.decodeFrame(frame));
+      }
+    }
+  }
+
+  @Test
+  public void get_whenOnlyJsonKnown_convertsToBinary() throws ProtocolException {
+    JsonCodec json = new JsonCodec();
+    for (Message message : messages("Gr\u00fc\u00dfe")) {
+      MessageFrames frames = MessageFrames.ofEncoded(WireFormat.JSON, json.encodeFrame(message));
+      ByteBuffer binary = frames.get(WireFormat.BINARY);
+
+      Assertions.assertEquals(message, codec.decodeFrame(binary));
+      Assertions.assertSame(binary, frames.get(WireFormat.BINARY));
+    }
+  }
+
+  @Test
+  public void decode_whenMalformed_throwsProtocolException() {
+    List<byte[]> bodies = List.of(new byte[0], new byte[] {99}, new byte[] {0},
+        new byte[] {0, 5, 'A'}, new byte[] {3, 1, 'A', 'B'}, new byte[] {1, 1},
+        new byte[] {3, (byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff});
+    for (byte[] body : bodies) {
+      Assertions.assertThrows(ProtocolException.class, () -> codec.decode(ByteBuffer.wrap(body)));
+    }
+  }
+
+  private static List<Message> messages(String sample) {
+    return List.of(new Login(sample), new Login(sample, WireFormat.BINARY),
+        new Login(sample, WireFormat.DEFLATE, true), new LoginSuccess(),
+        new LoginFailed(), new PostMessage(sample), new TextMessage(sample, sample, sample),
+        new UserJoined(sample), new UserLeft(sample), new JoinRoom(sample), new LeaveRoom(sample),
+        new PostRoomMessage(sample, sample), new RoomMessage(sample, sample, sample, sample),
+        new PostDirectMessage(sample, sample), new DirectMessage(sample, sample, sample),
+        new TextMessage(sample, sample, sample, 42),
+        new RoomMessage(sample, sample, sample, sample, 43));
+  }
+}
@@ -0,0 +1,78 @@
+package chat.protocol;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests of the {@link ChatClock}.
+ */
+public class ChatClockTest {
+
+  private static final ZoneId ZONE = ZoneOffset.UTC;
+
+  @Test
+  public void now_whenFixedClock_rendersMessageFormat() {
+    Instant instant = ZonedDateTime.of(2022, 5, 23, 15, 1, 7, 0, ZONE).toInstant();
+    ChatClock clock = new ChatClock(Clock.fixed(instant, ZONE));
+
+    Assertions.assertEquals("23.05.2022 15:01:07", clock.now());
+  }
+
+  @Test
+  public void now_whenSameSecond_reusesRenderedText() {
+    MutableClock time = new MutableClock(
+        ZonedDateTime.of(2022, 5, 23, 15, 1, 7, 0, ZONE).toInstant());
+    ChatClock clock = new ChatClock(time);
+
+    String first = clock.now();
+    time.instant = time.instant.plusMillis(999);
+    String second = clock.now();
+    time.instant = time.instant.plusMillis(1);
+    String third = clock.now();
+
+    Assertions.assertSame(first, second);
+    Assertions.assertEquals("23.05.2022 15:01:08", third);
+  }
+
+  @Test
+  public void parse_whenRendered_returnsSameSecond() throws ProtocolException {
+    Instant instant = ZonedDateTime.of(2022, 5, 23, 15, 1, 7, 0, ZONE).toInstant();
+    ChatClock clock = new ChatClock(Clock.fixed(instant, ZONE));
+
+    Assertions.assertEquals(instant.toEpochMilli(), clock.parse(clock.now()).getTime());
+    Assertions.assertEquals(instant.toEpochMilli(), clock.parse("23.05.2022 15:01:07").getTime());
+    Assertions.assertThrows(ProtocolException.class, () -> clock.parse("23.05.22 15:01"));
+  }
+
+  /**
+   * A clock that tests can move forward.
+   */
+  private static class MutableClock extends Clock {
+
+    private Instant instant;
+
+    MutableClock(Instant instant) {
+      this.instant = instant;
+    }
+
+    @Override
+    public ZoneId getZone() {
+      return ZONE;
+    }
+
+    @Override
+    public Clock withZone(ZoneId zone) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Instant instant() {
+      return instant;
+    }
+  }
+}
@@ -0,0 +1,63 @@
+package chat.protocol;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Round-trip tests of the {@link DeflateCodec}.
+ */
+public class DeflateCodecTest {
+
+  private static final String LONG_CONTENT =
+      "the quick brown fox jumps over the lazy dog ".repeat(40);
+
+  private final DeflateCodec codec = new DeflateCodec();
+  private final BinaryCodec binary = new BinaryCodec();
+
+  @Test
+  public void encodeFrame_whenSmall_writesPlainBinaryFrame() {
+    Message message = new TextMessage("23.05.2022 15:01:00", "Alice", "Hi!");
+
+    Assertions.assertEquals(binary.encodeFrame(message), codec.encodeFrame(message));
+  }
+
+  @Test
+  public void encodeFrame_whenLarge_compressesAndDecodesEqualMessage() throws ProtocolException {
+    Message message = new TextMessage("23.05.2022 15:01:00", "Alice", LONG_CONTENT);
+
+    ByteBuffer frame = codec.encodeFrame(message);
+
+    Assertions.assertTrue(frame.remaining() < binary.encodeFrame(message).remaining() / 4);
+    Assertions.assertEquals(message, codec.decodeFrame(frame));
+  }
+
+  @Test
+  public void encodeFrames_whenHistory_compressesIntoSingleFrame() throws ProtocolException {
+    List<Message> messages = new ArrayList<>();
+    for (int i = 0; i < 100; i++) {
+      messages.add(new TextMessage("23.05.2022 15:01:00", "User" + i % 7, "Message " + i));
+    }
+
+    ByteBuffer frames = codec.encodeFrames(messages);
+
+    int length = frames.getInt(frames.position());
+    Assertions.assertEquals(frames.remaining() - BinaryCodec.PREFIX_BYTES, length);
+    Assertions.assertEquals(messages,
+        codec.decodeAll(frames.duplicate().position(BinaryCodec.PREFIX_BYTES)));
+  }
+
+  @Test
+  public void decode_whenCorrupted_throwsProtocolException() {
+    ByteBuffer frame = codec.encodeFrame(new PostMessage(LONG_CONTENT));
+    byte[] bytes = new byte[frame.remaining()];
+    frame.get(bytes);
+    bytes[bytes.length / 2] ^= 0x55;
+    bytes[bytes.length - 1] ^= 0x55;
+
+    Assertions.assertThrows(ProtocolException.class,
+        () -> codec.decodeFrame(ByteBuffer.wrap(bytes)));
+  }
+}
@@ -0,0 +1,126 @@
+package chat.protocol;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Round-trip tests of the {@link JsonCodec} against the output of org.json.
+ */
+public class JsonCodecTest {
+
+  private static final List<String> SAMPLES = List.of("", "Hi!", "quote \" and backslash \\",
+      "line\nbreak\r\ttab", "control \u0001\u001f", "</script>", "Gr\u00fc\u00dfe, \u4e16\u754c",
+      "emoji \ud83d\ude00", "\\u0041 is not an escape");
+
+  private final JsonCodec codec = new JsonCodec();
+
+  @Test
+  public void encode_whenParsedByOrgJson_keepsAllFields() throws JSONException {
+    for (String sample : SAMPLES) {
+      JSONObject login = parse(new Login(sample));
+      Assertions.assertEquals("login", login.getString("type"));
+      Assertions.assertEquals(sample, login.getString("nick"));
+
+      JSONObject post = parse(new PostMessage(sample));
+      Assertions.assertEquals("post message", post.getString("type"));
+      Assertions.assertEquals(sample, post.getString("content"));
+
+      JSONObject text = parse(new TextMessage("23.05.2022 15:01:00", sample, sample));
+      Assertions.assertEquals("message", text.getString("type"));
+      Assertions.assertEquals("23.05.2022 15:01:00", text.getString("time"));
+      Assertions.assertEquals(sample, text.getString("nick"));
+      Assertions.assertEquals(sample, text.getString("content"));
+
+      Assertions.assertEquals(sample, parse(new UserJoined(sample)).getString("nick"));
+      Assertions.assertEquals(sample, parse(new UserLeft(sample)).getString("nick"));
+    }
+    Assertions.assertEquals("login success", parse(new LoginSuccess()).getString("type"));
+    Assertions.assertEquals("login failed", parse(new LoginFailed()).getString("type"));
+  }
+
+  @Test
+  public void decode_whenWrittenByOrgJson_returnsTypedMessage()
+      throws JSONException, ProtocolException {
+    for (String sample : SAMPLES) {
+      Assertions.assertEquals(new Login(sample),
+          codec.decode(new JSONObject().put("type", "login").put("nick", sample).toString()));
+      Assertions.assertEquals(new Login(sample, WireFormat.JSON, true),
+          codec.decode(new JSONObject().put("type", "login").put("nick", sample)
+              .put("heartbeat", true).toString()));
+      Assertions.assertEquals(new PostMessage(sample), codec.decode(
+          new JSONObject().put("type", "post message").put("content", sample).toString()));
+      Assertions.assertEquals(new TextMessage("time", sample, sample), codec.decode(
+          new JSONObject().put("type", "message").put("time", "time").put("nick", sample)
+              .put("content", sample).toString()));
+      Assertions.assertEquals(new TextMessage("time", sample, sample, 1234567890123L),
+          codec.decode(new JSONObject().put("type", "message").put("id", 1234567890123L)
+              .put("time", "time").put("nick", sample).put("content", sample).toString()));
+      Assertions.assertEquals(new UserJoined(sample), codec.decode(
+          new JSONObject().put("type", "user joined").put("nick", sample).toString()));
+      Assertions.assertEquals(new UserLeft(sample), codec.decode(
+          new JSONObject().put("type", "user left").put("nick", sample).toString()));
+    }
+    Assertions.assertEquals(new LoginSuccess(),
+        codec.decode(new JSONObject().put("type", "login success").toString()));
+    Assertions.assertEquals(new LoginFailed(),
+        codec.decode(new JSONObject().put("type", "login failed").toString()));
+  }
+
+  @Test
+  public void decode_whenFrameEncoded_returnsEqualMessage() throws ProtocolException {
+    for (String sample : SAMPLES) {
+      for (Message message : List.of(new Login(sample),
+          new Login(sample, WireFormat.BINARY, true), new PostMessage(sample),
+          new TextMessage(sample, sample, sample), new UserJoined(sample), new UserLeft(sample),
+          new JoinRoom(sample), new LeaveRoom(sample), new PostRoomMessage(sample, sample),
+          new RoomMessage(sample, sample, sample, sample), new PostDirectMessage(sample, sample),
+          new DirectMessage(sample, sample, sample), new TextMessage(sample, sample, sample, 42),
+          new RoomMessage(sample, sample, sample, sample, 43))) {
+        ByteBuffer frame = codec.encodeFrame(message);
+        Assertions.assertEquals('\n', frame.get(frame.limit() - 1));
+        frame.limit(frame.limit() - 1);
+        Assertions.assertEquals(message, codec.decode(frame));
+      }
+    }
+  }
+
+  @Test
+  public void encode_whenLoneSurrogate_keepsItAsEscape() throws ProtocolException {
+    // a lone surrogate has no UTF-8 encoding, so org.json output would lose it on the wire
+    PostMessage message = new PostMessage("lone \ud83d surrogate");
+    ByteBuffer frame = codec.encodeFrame(message);
+    frame.limit(frame.limit() - 1);
+
+    Assertions.assertEquals(message, codec.decode(frame));
+  }
+
+  @Test
+  public void decode_whenUnknownFieldsAndWhitespace_ignoresThem() throws ProtocolException {
+    Message message = codec.decode(" { \"nick\" : \"A\", \"extra\" : [1, {\"x\": \"}\"}],"
+        + " \"n\": -1.5e3, \"type\" : \"login\" } ");
+
+    Assertions.assertEquals(new Login("A"), message);
+  }
+
+  @Test
+  public void decode_whenMalformed_throwsProtocolException() {
+    for (String line : List.of("", "{", "{\"type\":\"login\"}", "{\"type\":\"unknown\"}",
+        "{\"type\":\"login\",\"nick\":\"A}", "{\"type\":\"login\",\"nick\":\"\\q\"}",
+        "{\"type\":\"login\" \"nick\":\"A\"}", "{\"type\":\"login\",\"nick\":\"A\"} x")) {
+      Assertions.assertThrows(ProtocolException.class, () -> codec.decode(line), line);
+    }
+  }
+
+  private JSONObject parse(Message message) throws JSONException {
+    ByteBuffer frame = codec.encodeFrame(message);
+    byte[] bytes = new byte[frame.remaining()];
+    frame.get(bytes);
+    return new JSONObject(new String(bytes, UTF_8).trim());
+  }
+}
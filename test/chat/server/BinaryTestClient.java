@@ -0,0 +1,85 @@
+package chat.server;
+
+import chat.protocol.Codec;
+import chat.protocol.JsonCodec;
+import chat.protocol.LineReader;
+import chat.protocol.Login;
+import chat.protocol.Message;
+import chat.protocol.WireFormat;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Queue;
+
+/**
+ * Test client that negotiates a length-prefixed format in its login.
+ */
+public class BinaryTestClient {
+
+  private static final String ADDRESS = "localhost";
+  private static final int PORT = 8080;
+
+  private final Socket socket;
+  private final OutputStream output;
+  private final LineReader reader;
+  private final WireFormat format;
+  private final Queue<Message> received = new ArrayDeque<>();
+
+  /**
+   * Create a test client.
+   *
+   * @param format the format requested in the login
+   * @throws IOException IOException
+   */
+  public BinaryTestClient(WireFormat format) throws IOException {
+    this.socket = new Socket(ADDRESS, PORT);
+    this.output = socket.getOutputStream();
+    this.reader = new LineReader(socket.getInputStream());
+    this.format = format;
+  }
+
+  /**
+   * Send a login in JSON that switches the connection to the format of this client.
+   *
+   * @param nickname the nickname
+   * @throws IOException IOException
+   */
+  public void login(String nickname) throws IOException {
+    write(new JsonCodec().encodeFrame(new Login(nickname, format)));
+  }
+
+  public void send(Message message) throws IOException {
+    write(format.getCodec().encodeFrame(message));
+  }
+
+  /**
+   * Receive a message, reading the next frame if no message of the last one is left.
+   *
+   * @return message
+   * @throws IOException IOException
+   */
+  public Message receive() throws IOException {
+    if (received.isEmpty()) {
+      ByteBuffer body = reader.readFrame();
+      if (body == null) {
+        return null;
+      }
+      Codec codec = format.getCodec();
+      received.addAll(codec.decodeAll(body));
+    }
+    return received.poll();
+  }
+
+  private void write(ByteBuffer frame) throws IOException {
+    byte[] bytes = new byte[frame.remaining()];
+    frame.get(bytes);
+    output.write(bytes);
+    output.flush();
+  }
+
+  public void close() throws IOException {
+    socket.close();
+  }
+}
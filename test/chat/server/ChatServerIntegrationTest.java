@@ -1,5 +1,10 @@
 package chat.server;
 
+import chat.protocol.LoginSuccess;
+import chat.protocol.PostMessage;
+import chat.protocol.TextMessage;
+import chat.protocol.UserJoined;
+import chat.protocol.WireFormat;
 import java.io.IOException;
 import java.util.List;
 import java.util.Optional;
@@ -34,7 +39,7 @@ public class ChatServerIntegrationTest {
    */
   @BeforeEach
   public void setUp() throws IOException, InterruptedException {
-    serverConnection = new ServerNetworkConnection();
+    serverConnection = createServerConnection();
     thread = new Thread() {
       @Override
       public void run() {
@@ -45,6 +50,16 @@ public class ChatServerIntegrationTest {
     client = new ChatTestClient();
   }
 
+  /**
+   * Create the server under test.
+   *
+   * @return server connection
+   * @throws IOException IOException
+   */
+  protected ServerNetworkConnection createServerConnection() throws IOException {
+    return new ServerNetworkConnection();
+  }
+
   /**
    * AfterEach tearDown.
    *
@@ -175,6 +190,159 @@ public class ChatServerIntegrationTest {
 
   }
 
+  @Test
+  public void handleMessage_whenLoginAfterMessage_replaysHistory()
+      throws IOException, InterruptedException {
+    ChatTestClient otherClient = new ChatTestClient();
+    try {
+      otherClient.send(JsonMessage.login("SomeUser"));
+      otherClient.receive();
+      otherClient.send(JsonMessage.postMessage("Hi!"));
+      // wait to ensure ordering of message processing.
+      Thread.sleep(100);
+
+      client.send(JsonMessage.login("TestUser"));
+      List<JSONObject> messages = receiveAllClientMessages();
+
+      Assertions.assertEquals(JsonMessage.LOGIN_SUCCESS, JsonMessage.typeOf(messages.get(0)));
+      JSONObject message = getMessageOfType(JsonMessage.MESSAGE, messages);
+      Assertions.assertNotNull(message);
+      Assertions.assertEquals("SomeUser", JsonMessage.getNickname(message));
+      Assertions.assertEquals("Hi!", JsonMessage.getContent(message));
+    } finally {
+      otherClient.close();
+    }
+  }
+
+  @Test
+  public void handleMessage_whenRoomMessage_onlyReachesMembers()
+      throws IOException, InterruptedException {
+    ChatTestClient member = new ChatTestClient();
+    try {
+      client.send(JsonMessage.login("TestUser"));
+      member.send(JsonMessage.login("Member"));
+      member.send(JsonMessage.joinRoom("dev"));
+      // wait to ensure ordering of message processing.
+      Thread.sleep(100);
+      client.receiveAll();
+
+      ChatTestClient author = new ChatTestClient();
+      try {
+        author.send(JsonMessage.login("Author"));
+        author.send(JsonMessage.joinRoom("dev"));
+        author.send(JsonMessage.postRoomMessage("dev", "Hi dev!"));
+        Thread.sleep(200);
+
+        JSONObject message = getMessageOfType(JsonMessage.ROOM_MESSAGE, member.receiveAll());
+        Assertions.assertNotNull(message);
+        Assertions.assertEquals("Author", JsonMessage.getNickname(message));
+        Assertions.assertEquals("Hi dev!", JsonMessage.getContent(message));
+        Assertions.assertFalse(
+            hasMessageOfType(JsonMessage.ROOM_MESSAGE, receiveAllClientMessages()));
+      } finally {
+        author.close();
+      }
+    } finally {
+      member.close();
+    }
+  }
+
+  @Test
+  public void handleMessage_whenDirectMessage_onlyReachesRecipient()
+      throws IOException, InterruptedException {
+    ChatTestClient recipient = new ChatTestClient();
+    ChatTestClient author = new ChatTestClient();
+    try {
+      client.send(JsonMessage.login("TestUser"));
+      recipient.send(JsonMessage.login("Recipient"));
+      author.send(JsonMessage.login("Author"));
+      // wait to ensure ordering of message processing.
+      Thread.sleep(100);
+      client.receiveAll();
+      recipient.receiveAll();
+
+      author.send(JsonMessage.postDirectMessage("Recipient", "Hi, just you!"));
+      author.send(JsonMessage.postDirectMessage("Nobody", "Hi, anyone?"));
+      Thread.sleep(200);
+
+      List<JSONObject> messages = recipient.receiveAll();
+      Assertions.assertEquals(1, messages.size());
+      Assertions.assertEquals(JsonMessage.DIRECT_MESSAGE, JsonMessage.typeOf(messages.get(0)));
+      Assertions.assertEquals("Author", JsonMessage.getNickname(messages.get(0)));
+      Assertions.assertEquals("Hi, just you!", JsonMessage.getContent(messages.get(0)));
+      Assertions.assertTrue(client.receiveAll().isEmpty());
+    } finally {
+      author.close();
+      recipient.close();
+    }
+  }
+
+  @Test
+  public void handleMessage_whenMixedFormats_deliversEachFormat()
+      throws IOException, InterruptedException {
+    client.send(JsonMessage.login("TestUser"));
+    Assertions.assertEquals(JsonMessage.LOGIN_SUCCESS, JsonMessage.typeOf(client.receive()));
+    client.send(JsonMessage.postMessage("Before"));
+    // wait to ensure the message is in the history.
+    Thread.sleep(100);
+
+    BinaryTestClient binaryClient = new BinaryTestClient(WireFormat.BINARY);
+    try {
+      binaryClient.login("Binary");
+      Assertions.assertEquals(new LoginSuccess(), binaryClient.receive());
+      Assertions.assertEquals(new UserJoined("TestUser"), binaryClient.receive());
+      TextMessage replayed = (TextMessage) binaryClient.receive();
+      Assertions.assertEquals("TestUser", replayed.nick());
+      Assertions.assertEquals("Before", replayed.content());
+      Assertions.assertEquals(JsonMessage.USER_JOINED, JsonMessage.typeOf(client.receive()));
+
+      client.send(JsonMessage.postMessage("Hi binary!"));
+      TextMessage received = (TextMessage) binaryClient.receive();
+      Assertions.assertEquals("TestUser", received.nick());
+      Assertions.assertEquals("Hi binary!", received.content());
+
+      binaryClient.send(new PostMessage("Hi JSON!"));
+      JSONObject message = client.receive();
+      Assertions.assertEquals(JsonMessage.MESSAGE, JsonMessage.typeOf(message));
+      Assertions.assertEquals("Binary", JsonMessage.getNickname(message));
+      Assertions.assertEquals("Hi JSON!", JsonMessage.getContent(message));
+    } finally {
+      binaryClient.close();
+    }
+  }
+
+  @Test
+  public void handleMessage_whenCompressionNegotiated_deliversLargeMessages()
+      throws IOException, InterruptedException {
+    String content = "Long message with a lot of repetition. ".repeat(50);
+    client.send(JsonMessage.login("TestUser"));
+    Assertions.assertEquals(JsonMessage.LOGIN_SUCCESS, JsonMessage.typeOf(client.receive()));
+    for (int i = 0; i < 20; i++) {
+      client.send(JsonMessage.postMessage("History " + i));
+    }
+    // wait to ensure the messages are in the history.
+    Thread.sleep(100);
+
+    BinaryTestClient compressedClient = new BinaryTestClient(WireFormat.DEFLATE);
+    try {
+      compressedClient.login("Compressed");
+      Assertions.assertEquals(new LoginSuccess(), compressedClient.receive());
+      Assertions.assertEquals(new UserJoined("TestUser"), compressedClient.receive());
+      for (int i = 0; i < 20; i++) {
+        Assertions.assertEquals("History " + i,
+            ((TextMessage) compressedClient.receive()).content());
+      }
+      Assertions.assertEquals(JsonMessage.USER_JOINED, JsonMessage.typeOf(client.receive()));
+
+      client.send(JsonMessage.postMessage(content));
+      Assertions.assertEquals(content, ((TextMessage) compressedClient.receive()).content());
+      compressedClient.send(new PostMessage(content));
+      Assertions.assertEquals(content, JsonMessage.getContent(client.receive()));
+    } finally {
+      compressedClient.close();
+    }
+  }
+
   private List<JSONObject> receiveAllClientMessages() throws InterruptedException, IOException {
     // wait until the server has processed all messages.
     Thread.sleep(200);
@@ -30,7 +30,17 @@ public class ChatTestClient {
    * @throws IOException IOException
    */
   public ChatTestClient() throws IOException {
-    socket = new Socket(ADDRESS, PORT);
+    this(PORT);
+  }
+
+  /**
+   * Create a test client for a server on another port.
+   *
+   * @param port the port of the server
+   * @throws IOException IOException
+   */
+  public ChatTestClient(int port) throws IOException {
+    socket = new Socket(ADDRESS, port);
     writer = new BufferedWriter(
         new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8));
     reader =
@@ -38,7 +48,20 @@ public class ChatTestClient {
   }
 
   public void send(JSONObject message) throws IOException {
-    writer.write(message + System.lineSeparator());
+    writer.write(message + "\n");
+    writer.flush();
+  }
+
+  /**
+   * Send several messages with a single write, so the server receives them together.
+   *
+   * @param messages the messages
+   * @throws IOException IOException
+   */
+  public void sendTogether(JSONObject... messages) throws IOException {
+    for (JSONObject message : messages) {
+      writer.write(message + "\n");
+    }
     writer.flush();
   }
 
@@ -0,0 +1,181 @@
+package chat.server;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import org.json.JSONObject;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Integration test of three cluster nodes that run in this JVM on different ports.
+ */
+public class ClusterIntegrationTest {
+
+  private static final int[] CLIENT_PORTS = {8081, 8082, 8083};
+  private static final List<String> CLUSTER_ADDRESSES =
+      List.of("localhost:9081", "localhost:9082", "localhost:9083");
+
+  private final List<ServerNetworkConnection> nodes = new ArrayList<>();
+  private final List<ChatTestClient> clients = new ArrayList<>();
+
+  /**
+   * Start the nodes and wait until each of them is connected to both peers.
+   *
+   * @throws IOException          IOException
+   * @throws InterruptedException InterruptedException
+   */
+  @BeforeEach
+  public void setUp() throws IOException, InterruptedException {
+    for (int i = 0; i < CLIENT_PORTS.length; i++) {
+      List<String> peers = new ArrayList<>(CLUSTER_ADDRESSES);
+      String address = peers.remove(i);
+      ServerNetworkConnection node = new ServerNetworkConnection(new ServerConfig()
+          .setPort(CLIENT_PORTS[i]).setClusterAddress(address).setPeers(peers));
+      nodes.add(node);
+      new Thread(node::start).start();
+    }
+    long deadline = System.currentTimeMillis() + 5000;
+    for (ServerNetworkConnection node : nodes) {
+      while (node.getCluster().getConnectedPeers() < CLIENT_PORTS.length - 1) {
+        Assertions.assertTrue(System.currentTimeMillis() < deadline, "cluster not connected");
+        Thread.sleep(20);
+      }
+    }
+  }
+
+  /**
+   * Close the clients and stop the nodes.
+   *
+   * @throws IOException IOException
+   */
+  @AfterEach
+  public void tearDown() throws IOException {
+    for (ChatTestClient client : clients) {
+      client.close();
+    }
+    for (ServerNetworkConnection node : nodes) {
+      node.stop();
+    }
+  }
+
+  @Test
+  public void broadcast_whenClientsOnDifferentNodes_deliversEverywhere()
+      throws IOException, InterruptedException {
+    ChatTestClient alice = login(0, "Alice");
+    ChatTestClient bob = login(1, "Bob");
+    ChatTestClient carol = login(2, "Carol");
+    Thread.sleep(200);
+    bob.receiveAll();
+    carol.receiveAll();
+
+    alice.send(JsonMessage.postMessage("Hi cluster!"));
+
+    for (ChatTestClient client : List.of(bob, carol)) {
+      JSONObject message = client.receive();
+      Assertions.assertEquals(JsonMessage.MESSAGE, JsonMessage.typeOf(message));
+      Assertions.assertEquals("Alice", JsonMessage.getNickname(message));
+      Assertions.assertEquals("Hi cluster!", JsonMessage.getContent(message));
+    }
+  }
+
+  @Test
+  public void login_whenNickUsedOnOtherNode_answersFailureUntilReleased()
+      throws IOException, InterruptedException {
+    for (int node = 0; node < CLIENT_PORTS.length; node++) {
+      ChatTestClient owner = connect(node);
+      owner.send(JsonMessage.login("User" + node));
+      Assertions.assertEquals(JsonMessage.LOGIN_SUCCESS, JsonMessage.typeOf(owner.receive()));
+
+      ChatTestClient other = connect((node + 1) % CLIENT_PORTS.length);
+      other.send(JsonMessage.login("User" + node));
+      Assertions.assertEquals(JsonMessage.LOGIN_FAILED, JsonMessage.typeOf(other.receive()));
+
+      owner.close();
+      Thread.sleep(200);
+      ChatTestClient successor = connect((node + 2) % CLIENT_PORTS.length);
+      successor.send(JsonMessage.login("User" + node));
+      Assertions.assertEquals(JsonMessage.LOGIN_SUCCESS,
+          JsonMessage.typeOf(receiveSkippingEvents(successor)));
+    }
+  }
+
+  @Test
+  public void login_whenPeerLinksFlapped_keepsNickReserved()
+      throws IOException, InterruptedException {
+    List<ChatTestClient> users = List.of(login(0, "Alice"), login(1, "Bob"), login(2, "Carol"));
+    Thread.sleep(200);
+    ChatTestClient bob = users.get(1);
+    bob.receiveAll();
+
+    for (ServerNetworkConnection node : nodes) {
+      node.getCluster().dropIncoming();
+    }
+    for (ChatTestClient user : users) {
+      user.send(JsonMessage.postMessage("still here"));
+    }
+    Thread.sleep(1000);
+
+    for (int node = 1; node < CLIENT_PORTS.length; node++) {
+      ChatTestClient other = connect(node);
+      other.send(JsonMessage.login("Alice"));
+      Assertions.assertEquals(JsonMessage.LOGIN_FAILED,
+          JsonMessage.typeOf(receiveSkippingEvents(other)));
+    }
+    int posts = 0;
+    for (JSONObject message : bob.receiveAll()) {
+      Assertions.assertNotEquals(JsonMessage.USER_LEFT, JsonMessage.typeOf(message));
+      if (JsonMessage.typeOf(message) == JsonMessage.MESSAGE) {
+        posts++;
+      }
+    }
+    Assertions.assertEquals(2, posts);
+  }
+
+  @Test
+  public void login_whenFramesFollowPendingLogin_answersEveryLogin()
+      throws IOException, InterruptedException {
+    // the nickname is owned by the second node, which leaves the cluster, so the reservation
+    // stays pending until it times out
+    nodes.get(1).getCluster().stop();
+    ChatTestClient alice = connect(0);
+
+    alice.sendTogether(JsonMessage.login("Alice"), JsonMessage.login("Alice"),
+        JsonMessage.postMessage("right away"));
+
+    // the second login is refused at once, the first fails once the reservation times out
+    for (int i = 0; i < 2; i++) {
+      JSONObject reply = alice.receive();
+      Assertions.assertNotNull(reply);
+      Assertions.assertEquals(JsonMessage.LOGIN_FAILED, JsonMessage.typeOf(reply));
+    }
+    alice.send(JsonMessage.login("Bob"));
+    Assertions.assertEquals(JsonMessage.LOGIN_SUCCESS,
+        JsonMessage.typeOf(receiveSkippingEvents(alice)));
+  }
+
+  private ChatTestClient connect(int node) throws IOException {
+    ChatTestClient client = new ChatTestClient(CLIENT_PORTS[node]);
+    clients.add(client);
+    return client;
+  }
+
+  private ChatTestClient login(int node, String nick) throws IOException {
+    ChatTestClient client = connect(node);
+    client.send(JsonMessage.login(nick));
+    Assertions.assertEquals(JsonMessage.LOGIN_SUCCESS,
+        JsonMessage.typeOf(receiveSkippingEvents(client)));
+    return client;
+  }
+
+  private static JSONObject receiveSkippingEvents(ChatTestClient client) throws IOException {
+    JSONObject message;
+    do {
+      message = client.receive();
+    } while (JsonMessage.typeOf(message) == JsonMessage.USER_JOINED
+        || JsonMessage.typeOf(message) == JsonMessage.USER_LEFT);
+    return message;
+  }
+}
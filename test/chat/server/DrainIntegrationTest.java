@@ -0,0 +1,66 @@
+package chat.server;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Integration test of the graceful shutdown of the server.
+ */
+public class DrainIntegrationTest {
+
+  private static final int MESSAGE_COUNT = 500;
+
+  @Test
+  public void drain_whenBlocking_deliversQueuedMessagesAndNotifiesClients()
+      throws IOException, InterruptedException {
+    assertDrained(ServerMode.BLOCKING);
+  }
+
+  @Test
+  public void drain_whenNio_deliversQueuedMessagesAndNotifiesClients()
+      throws IOException, InterruptedException {
+    assertDrained(ServerMode.NIO);
+  }
+
+  private void assertDrained(ServerMode mode) throws IOException, InterruptedException {
+    ServerNetworkConnection serverConnection = new ServerNetworkConnection(new ServerConfig()
+        .setMode(mode)
+        .setHistoryCapacity(0));
+    new Thread(serverConnection::start).start();
+    Thread.sleep(100);
+
+    ChatTestClient receiver = new ChatTestClient();
+    ChatTestClient sender = new ChatTestClient();
+    try {
+      receiver.send(JsonMessage.login("Receiver"));
+      Assertions.assertEquals(JsonMessage.LOGIN_SUCCESS, JsonMessage.typeOf(receiver.receive()));
+      sender.send(JsonMessage.login("Sender"));
+      Assertions.assertEquals(JsonMessage.LOGIN_SUCCESS, JsonMessage.typeOf(sender.receive()));
+      Assertions.assertEquals(JsonMessage.USER_JOINED, JsonMessage.typeOf(receiver.receive()));
+      for (int i = 0; i < MESSAGE_COUNT; i++) {
+        sender.send(JsonMessage.postMessage("Message " + i));
+      }
+      // two logins and all posts handled, their deliveries wait in the queue of the receiver
+      while (serverConnection.getStatus().getMessagesIn() < MESSAGE_COUNT + 2) {
+        Thread.sleep(10);
+      }
+
+      ServerNetworkConnection.DrainReport report = serverConnection.drain(5000);
+
+      Assertions.assertEquals(2, report.clients());
+      Assertions.assertEquals(0, report.pendingMessages());
+      Assertions.assertThrows(ConnectException.class, ChatTestClient::new);
+      for (int i = 0; i < MESSAGE_COUNT; i++) {
+        Assertions.assertEquals("Message " + i, JsonMessage.getContent(receiver.receive()));
+      }
+      Assertions.assertEquals(JsonMessage.SHUTDOWN, JsonMessage.typeOf(receiver.receive()));
+      Assertions.assertNull(receiver.receive());
+      Assertions.assertEquals(JsonMessage.SHUTDOWN, JsonMessage.typeOf(sender.receive()));
+    } finally {
+      receiver.close();
+      sender.close();
+    }
+  }
+}
@@ -0,0 +1,100 @@
+package chat.server;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import org.json.JSONObject;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Chat Server Integration Test against the selector-based server, with the members of every room
+ * delivered in parallel by several fan-out workers.
+ */
+public class FanOutServerIntegrationTest extends ChatServerIntegrationTest {
+
+  private static final int RECEIVERS = 8;
+  private static final int MESSAGE_COUNT = 100;
+
+  @Override
+  protected ServerNetworkConnection createServerConnection() throws IOException {
+    return new ServerNetworkConnection(new ServerConfig().setMode(ServerMode.NIO)
+        .setFanOutWorkers(4));
+  }
+
+  @Test
+  public void handleMessage_whenFannedOut_keepsOrderOfEveryRecipient() throws IOException {
+    List<ChatTestClient> receivers = new ArrayList<>();
+    ChatTestClient sender = new ChatTestClient();
+    try {
+      for (int i = 0; i < RECEIVERS; i++) {
+        ChatTestClient receiver = new ChatTestClient();
+        receivers.add(receiver);
+        receiver.send(JsonMessage.login("Receiver" + i));
+        Assertions.assertEquals(JsonMessage.LOGIN_SUCCESS, JsonMessage.typeOf(receiver.receive()));
+      }
+      sender.send(JsonMessage.login("Sender"));
+      Assertions.assertEquals(JsonMessage.LOGIN_SUCCESS, JsonMessage.typeOf(sender.receive()));
+      for (int i = 0; i < MESSAGE_COUNT; i++) {
+        sender.send(JsonMessage.postMessage("message " + i));
+      }
+
+      for (ChatTestClient receiver : receivers) {
+        int received = 0;
+        while (received < MESSAGE_COUNT) {
+          JSONObject message = receiver.receive();
+          Assertions.assertNotNull(message);
+          if (JsonMessage.typeOf(message) == JsonMessage.MESSAGE) {
+            Assertions.assertEquals("message " + received, JsonMessage.getContent(message));
+            received++;
+          }
+        }
+      }
+    } finally {
+      sender.close();
+      for (ChatTestClient receiver : receivers) {
+        receiver.close();
+      }
+    }
+  }
+
+  @Test
+  public void handleMessage_whenDirectMessageFollowsBroadcasts_keepsOrder() throws IOException {
+    List<ChatTestClient> receivers = new ArrayList<>();
+    ChatTestClient sender = new ChatTestClient();
+    try {
+      for (int i = 0; i < RECEIVERS; i++) {
+        ChatTestClient receiver = new ChatTestClient();
+        receivers.add(receiver);
+        receiver.send(JsonMessage.login("Receiver" + i));
+        Assertions.assertEquals(JsonMessage.LOGIN_SUCCESS, JsonMessage.typeOf(receiver.receive()));
+      }
+      sender.send(JsonMessage.login("Sender"));
+      Assertions.assertEquals(JsonMessage.LOGIN_SUCCESS, JsonMessage.typeOf(sender.receive()));
+      for (int i = 0; i < MESSAGE_COUNT; i++) {
+        sender.send(JsonMessage.postMessage("message " + i));
+      }
+      for (int i = 0; i < RECEIVERS; i++) {
+        sender.send(JsonMessage.postDirectMessage("Receiver" + i, "direct"));
+      }
+
+      for (ChatTestClient receiver : receivers) {
+        int received = 0;
+        JSONObject message;
+        do {
+          message = receiver.receive();
+          Assertions.assertNotNull(message);
+          if (JsonMessage.typeOf(message) == JsonMessage.MESSAGE) {
+            received++;
+          }
+        } while (JsonMessage.typeOf(message) != JsonMessage.DIRECT_MESSAGE);
+        Assertions.assertEquals(MESSAGE_COUNT, received);
+      }
+    } finally {
+      sender.close();
+      for (ChatTestClient receiver : receivers) {
+        receiver.close();
+      }
+    }
+  }
+}
@@ -0,0 +1,135 @@
+package chat.server;
+
+import java.io.IOException;
+import org.json.JSONObject;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Integration test of clients that stop talking to the server.
+ */
+public class HeartbeatIntegrationTest {
+
+  private static final long TIMEOUT_MILLIS = 1000;
+
+  private ServerNetworkConnection serverConnection;
+
+  /**
+   * BeforeEach setUp.
+   *
+   * @throws IOException          IOException
+   * @throws InterruptedException InterruptedException
+   */
+  @BeforeEach
+  public void setUp() throws IOException, InterruptedException {
+    serverConnection = new ServerNetworkConnection(new ServerConfig()
+        .setMode(ServerMode.NIO)
+        .setHistoryCapacity(0)
+        .setIdleTimeoutMillis(TIMEOUT_MILLIS)
+        .setLoginTimeoutMillis(TIMEOUT_MILLIS));
+    new Thread(serverConnection::start).start();
+    Thread.sleep(100);
+  }
+
+  @AfterEach
+  public void tearDown() throws IOException {
+    serverConnection.stop();
+  }
+
+  @Test
+  public void heartbeat_whenClientDoesNotAnswerPing_broadcastsUserLeft() throws IOException {
+    ChatTestClient observer = new ChatTestClient();
+    ChatTestClient silent = new ChatTestClient();
+    try {
+      login(observer, "Observer");
+      login(silent, "Silent");
+      Assertions.assertEquals(JsonMessage.USER_JOINED, JsonMessage.typeOf(observer.receive()));
+
+      Assertions.assertEquals(JsonMessage.PING, JsonMessage.typeOf(silent.receive()));
+      JSONObject left = receiveAnswering(observer);
+
+      Assertions.assertEquals(JsonMessage.USER_LEFT, JsonMessage.typeOf(left));
+      Assertions.assertEquals("Silent", JsonMessage.getNickname(left));
+    } finally {
+      observer.close();
+      silent.close();
+    }
+  }
+
+  @Test
+  public void heartbeat_whenClientAnswersPings_keepsConnection() throws IOException {
+    ChatTestClient observer = new ChatTestClient();
+    ChatTestClient client = new ChatTestClient();
+    try {
+      login(observer, "Observer");
+      login(client, "Client");
+      Assertions.assertEquals(JsonMessage.USER_JOINED, JsonMessage.typeOf(observer.receive()));
+      for (int i = 0; i < 3; i++) {
+        for (ChatTestClient each : new ChatTestClient[] {client, observer}) {
+          Assertions.assertEquals(JsonMessage.PING, JsonMessage.typeOf(each.receive()));
+          each.send(JsonMessage.pong());
+        }
+      }
+
+      client.send(JsonMessage.postMessage("still here"));
+
+      Assertions.assertEquals("still here", JsonMessage.getContent(receiveAnswering(observer)));
+    } finally {
+      observer.close();
+      client.close();
+    }
+  }
+
+  @Test
+  public void heartbeat_whenClientWithoutHeartbeatIsSilent_keepsConnection()
+      throws IOException, InterruptedException {
+    ChatTestClient listener = new ChatTestClient();
+    ChatTestClient client = new ChatTestClient();
+    try {
+      listener.send(JsonMessage.login("Listener"));
+      Assertions.assertEquals(JsonMessage.LOGIN_SUCCESS, JsonMessage.typeOf(listener.receive()));
+      client.send(JsonMessage.login("Client"));
+      Assertions.assertEquals(JsonMessage.LOGIN_SUCCESS, JsonMessage.typeOf(client.receive()));
+      Assertions.assertEquals(JsonMessage.USER_JOINED, JsonMessage.typeOf(listener.receive()));
+
+      Thread.sleep(TIMEOUT_MILLIS * 5 / 2);
+      client.send(JsonMessage.postMessage("still here"));
+
+      JSONObject message = listener.receive();
+      Assertions.assertEquals(JsonMessage.MESSAGE, JsonMessage.typeOf(message));
+      Assertions.assertEquals("still here", JsonMessage.getContent(message));
+    } finally {
+      listener.close();
+      client.close();
+    }
+  }
+
+  @Test
+  public void heartbeat_whenClientDoesNotLogIn_closesConnection() throws IOException {
+    ChatTestClient client = new ChatTestClient();
+    try {
+      Assertions.assertNull(client.receive());
+    } finally {
+      client.close();
+    }
+  }
+
+  private static void login(ChatTestClient client, String nickname) throws IOException {
+    client.send(JsonMessage.loginWithHeartbeat(nickname));
+    Assertions.assertEquals(JsonMessage.LOGIN_SUCCESS, JsonMessage.typeOf(client.receive()));
+  }
+
+  /**
+   * Receive the next message that is not a ping, answering the pings on the way.
+   */
+  private static JSONObject receiveAnswering(ChatTestClient client) throws IOException {
+    JSONObject message = client.receive();
+    while (JsonMessage.typeOf(message) == JsonMessage.PING) {
+      client.send(JsonMessage.pong());
+      message = client.receive();
+    }
+    return message;
+  }
+}
@@ -16,7 +16,10 @@ public enum JsonMessage {
 
   LOGIN("login"), LOGIN_SUCCESS("login success"), LOGIN_FAILED("login failed"),
   USER_JOINED("user joined"), POST_MESSAGE("post message"), MESSAGE("message"),
-  USER_LEFT("user left");
+  USER_LEFT("user left"), JOIN_ROOM("join room"), POST_ROOM_MESSAGE("post room message"),
+  ROOM_MESSAGE("room message"), PING("ping"), PONG("pong"),
+  SHUTDOWN("shutdown"), POST_DIRECT_MESSAGE("post direct message"),
+  DIRECT_MESSAGE("direct message");
 
   public static final String TYPE_FIELD = "type";
 
@@ -26,6 +29,14 @@ public enum JsonMessage {
 
   public static final String TIME_FIELD = "time";
 
+  public static final String ROOM_FIELD = "room";
+
+  public static final String TO_FIELD = "to";
+
+  public static final String ID_FIELD = "id";
+
+  public static final String HEARTBEAT_FIELD = "heartbeat";
+
   private final String jsonName;
 
   JsonMessage(String jsonName) {
@@ -67,6 +78,20 @@ public enum JsonMessage {
     }
   }
 
+  /**
+   * Creates a login-message of a client that answers pings.
+   *
+   * @param nickname of test client
+   * @return JSON message of LOGIN type asking for the heartbeat
+   */
+  public static JSONObject loginWithHeartbeat(String nickname) {
+    try {
+      return login(nickname).put(HEARTBEAT_FIELD, true);
+    } catch (JSONException e) {
+      throw new IllegalArgumentException("Failed to create a json object.", e);
+    }
+  }
+
   /**
    * Adds a post message to the list of messages.
    *
@@ -84,6 +109,65 @@ public enum JsonMessage {
     }
   }
 
+  /**
+   * Creates a request to join a room.
+   *
+   * @param room name of the room
+   * @return JSON message
+   */
+  public static JSONObject joinRoom(String room) {
+    try {
+      return createMessageOfType(JOIN_ROOM).put(ROOM_FIELD, room);
+    } catch (JSONException e) {
+      throw new IllegalArgumentException("Failed to create a json object.", e);
+    }
+  }
+
+  /**
+   * Creates a post message to a room.
+   *
+   * @param room    name of the room
+   * @param content of the message
+   * @return JSON message
+   */
+  public static JSONObject postRoomMessage(String room, String content) {
+    try {
+      return createMessageOfType(POST_ROOM_MESSAGE).put(ROOM_FIELD, room)
+          .put(CONTENT_FIELD, content);
+    } catch (JSONException e) {
+      throw new IllegalArgumentException("Failed to create a json object.", e);
+    }
+  }
+
+  /**
+   * Creates a post message to a single user.
+   *
+   * @param to      nickname of the recipient
+   * @param content of the message
+   * @return JSON message
+   */
+  public static JSONObject postDirectMessage(String to, String content) {
+    try {
+      return createMessageOfType(POST_DIRECT_MESSAGE).put(TO_FIELD, to)
+          .put(CONTENT_FIELD, content);
+    } catch (JSONException e) {
+      throw new IllegalArgumentException("Failed to create a json object.", e);
+    }
+  }
+
+  /**
+   * Creates the answer to a ping.
+   *
+   * @return JSON message
+   */
+  public static JSONObject pong() {
+    try {
+      return createMessageOfType(PONG);
+    } catch (JSONException e) {
+      throw new IllegalArgumentException("Failed to create a json object.", e);
+    }
+  }
+
   private static JSONObject createMessageOfType(JsonMessage type) throws JSONException {
     return new JSONObject().put(TYPE_FIELD, type.getJsonName());
   }
@@ -116,6 +200,16 @@ public enum JsonMessage {
     }
   }
 
+  /**
+   * Get the message id from the message.
+   *
+   * @param object JSON object
+   * @return the id, 0 if the message has none
+   */
+  public static long getId(JSONObject object) {
+    return object.optLong(ID_FIELD);
+  }
+
   private static String convertDateToString(Date date) {
     return DateFormat.getDateTimeInstance(DateFormat.MEDIUM, DateFormat.MEDIUM, Locale.GERMANY)
         .format(date);
@@ -0,0 +1,50 @@
+package chat.server;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests of the {@link MessageHistory}.
+ */
+public class MessageHistoryTest {
+
+  @Test
+  public void replay_whenFull_returnsNewestEntriesOldestFirst() {
+    MessageHistory history = new MessageHistory(2, 8);
+
+    history.record(frame("a\n"));
+    history.record(frame("bb\n"));
+    history.record(frame("ccc\n"));
+
+    Assertions.assertEquals(2, history.size());
+    Assertions.assertEquals("bb\nccc\n", text(history.replay()));
+  }
+
+  @Test
+  public void record_whenFrameTooLarge_skipsIt() {
+    MessageHistory history = new MessageHistory(4, 4);
+
+    Assertions.assertTrue(history.record(frame("ok\n")));
+    Assertions.assertFalse(history.record(frame("too long\n")));
+
+    Assertions.assertEquals("ok\n", text(history.replay()));
+  }
+
+  @Test
+  public void replay_whenDisabled_returnsEmptyBuffer() {
+    MessageHistory history = new MessageHistory(0, 1);
+
+    Assertions.assertFalse(history.record(frame("a\n")));
+    Assertions.assertFalse(history.replay().hasRemaining());
+  }
+
+  private static ByteBuffer frame(String text) {
+    return ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8));
+  }
+
+  private static String text(ByteBuffer buffer) {
+    return StandardCharsets.UTF_8.decode(buffer).toString();
+  }
+}
@@ -0,0 +1,16 @@
+package chat.server;
+
+import java.io.IOException;
+
+/**
+ * Chat Server Integration Test against the selector-based server, with connections accepted by
+ * several threads on their own listening sockets and balanced across the reactors.
+ */
+public class MultiAcceptorServerIntegrationTest extends ChatServerIntegrationTest {
+
+  @Override
+  protected ServerNetworkConnection createServerConnection() throws IOException {
+    return new ServerNetworkConnection(new ServerConfig().setMode(ServerMode.NIO)
+        .setReactorThreads(2).setAcceptorThreads(2).setReusePort(true));
+  }
+}
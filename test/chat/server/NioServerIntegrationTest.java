@@ -0,0 +1,52 @@
+package chat.server;
+
+import java.io.IOException;
+import org.json.JSONObject;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Chat Server Integration Test against the selector-based server, with rooms served by their own
+ * worker threads.
+ */
+public class NioServerIntegrationTest extends ChatServerIntegrationTest {
+
+  private ServerNetworkConnection server;
+
+  @Override
+  protected ServerNetworkConnection createServerConnection() throws IOException {
+    server = new ServerNetworkConnection(new ServerConfig().setMode(ServerMode.NIO)
+        .setReactorThreads(2).setRoomWorkers(2));
+    return server;
+  }
+
+  @Test
+  public void handleMessage_whenConnectionIdle_returnsReadBuffer()
+      throws IOException, InterruptedException {
+    ChatTestClient receiver = new ChatTestClient();
+    ChatTestClient sender = new ChatTestClient();
+    try {
+      receiver.send(JsonMessage.login("Receiver"));
+      Assertions.assertEquals(JsonMessage.LOGIN_SUCCESS, JsonMessage.typeOf(receiver.receive()));
+      sender.send(JsonMessage.login("Sender"));
+      Assertions.assertEquals(JsonMessage.LOGIN_SUCCESS, JsonMessage.typeOf(sender.receive()));
+      sender.send(JsonMessage.postMessage("hello"));
+      JSONObject message;
+      do {
+        message = receiver.receive();
+        Assertions.assertNotNull(message);
+      } while (JsonMessage.typeOf(message) != JsonMessage.MESSAGE);
+
+      ServerStatus status = server.getStatus();
+      for (int i = 0; i < 100 && status.getReadBufferBytesInUse() > 0; i++) {
+        Thread.sleep(10);
+      }
+      Assertions.assertEquals(0, status.getReadBufferBytesInUse());
+      Assertions.assertTrue(status.getReadBufferAcquisitions() >= 3);
+      Assertions.assertTrue(status.getReadBufferBytesPooled() > 0);
+    } finally {
+      sender.close();
+      receiver.close();
+    }
+  }
+}
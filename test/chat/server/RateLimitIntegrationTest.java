@@ -0,0 +1,69 @@
+package chat.server;
+
+import java.io.IOException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Integration test for clients that submit more messages than their rate limit allows.
+ */
+public class RateLimitIntegrationTest {
+
+  private static final int MESSAGES_PER_SECOND = 20;
+  private static final int MESSAGE_COUNT = 2 * MESSAGES_PER_SECOND;
+
+  private ServerNetworkConnection serverConnection;
+
+  @AfterEach
+  public void tearDown() throws IOException {
+    serverConnection.stop();
+  }
+
+  @Test
+  public void post_whenBlockingClientExceedsLimit_delaysMessages()
+      throws IOException, InterruptedException {
+    assertDelayed(ServerMode.BLOCKING);
+  }
+
+  @Test
+  public void post_whenNioClientExceedsLimit_delaysMessages()
+      throws IOException, InterruptedException {
+    assertDelayed(ServerMode.NIO);
+  }
+
+  private void assertDelayed(ServerMode mode) throws IOException, InterruptedException {
+    serverConnection = new ServerNetworkConnection(new ServerConfig()
+        .setMode(mode)
+        .setHistoryCapacity(0)
+        .setMessageRate(MESSAGES_PER_SECOND));
+    new Thread(serverConnection::start).start();
+    Thread.sleep(100);
+
+    ChatTestClient receiver = new ChatTestClient();
+    ChatTestClient flooder = new ChatTestClient();
+    try {
+      receiver.send(JsonMessage.login("Receiver"));
+      Assertions.assertEquals(JsonMessage.LOGIN_SUCCESS, JsonMessage.typeOf(receiver.receive()));
+      flooder.send(JsonMessage.login("Flooder"));
+      Assertions.assertEquals(JsonMessage.LOGIN_SUCCESS, JsonMessage.typeOf(flooder.receive()));
+      Assertions.assertEquals(JsonMessage.USER_JOINED, JsonMessage.typeOf(receiver.receive()));
+
+      long start = System.nanoTime();
+      for (int i = 0; i < MESSAGE_COUNT; i++) {
+        flooder.send(JsonMessage.postMessage("Message " + i));
+      }
+      for (int i = 0; i < MESSAGE_COUNT; i++) {
+        Assertions.assertEquals("Message " + i, JsonMessage.getContent(receiver.receive()));
+      }
+      long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+
+      // the first second of messages passes as a burst, the rest at the configured rate
+      Assertions.assertTrue(elapsedMillis >= 800, "received after " + elapsedMillis + " ms");
+      Assertions.assertTrue(serverConnection.getRateLimits().getDelayedMessages() > 0);
+    } finally {
+      receiver.close();
+      flooder.close();
+    }
+  }
+}
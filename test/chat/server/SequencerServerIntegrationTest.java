@@ -0,0 +1,120 @@
+package chat.server;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import org.json.JSONObject;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Chat Server Integration Test against the selector-based server, with the posts of all clients
+ * put into a single order by the sequencer.
+ */
+public class SequencerServerIntegrationTest extends ChatServerIntegrationTest {
+
+  private static final int SENDERS = 4;
+  private static final int RECEIVERS = 3;
+  private static final int MESSAGE_COUNT = 50;
+
+  @Override
+  protected ServerNetworkConnection createServerConnection() throws IOException {
+    return new ServerNetworkConnection(new ServerConfig().setMode(ServerMode.NIO)
+        .setReactorThreads(2).setRoomWorkers(2).setSequencerQueueCapacity(64));
+  }
+
+  @Test
+  public void handleMessage_whenSendersConcurrent_deliversSameOrderToAll()
+      throws IOException, InterruptedException {
+    List<ChatTestClient> receivers = new ArrayList<>();
+    List<ChatTestClient> senders = new ArrayList<>();
+    try {
+      for (int i = 0; i < RECEIVERS; i++) {
+        ChatTestClient receiver = new ChatTestClient();
+        receivers.add(receiver);
+        receiver.send(JsonMessage.login("Receiver" + i));
+        Assertions.assertEquals(JsonMessage.LOGIN_SUCCESS, JsonMessage.typeOf(receiver.receive()));
+      }
+      for (int i = 0; i < SENDERS; i++) {
+        ChatTestClient sender = new ChatTestClient();
+        senders.add(sender);
+        sender.send(JsonMessage.login("Sender" + i));
+        Assertions.assertEquals(JsonMessage.LOGIN_SUCCESS, JsonMessage.typeOf(sender.receive()));
+      }
+      List<Thread> threads = new ArrayList<>();
+      for (ChatTestClient sender : senders) {
+        Thread thread = new Thread(() -> {
+          try {
+            for (int i = 0; i < MESSAGE_COUNT; i++) {
+              sender.send(JsonMessage.postMessage("message " + i));
+            }
+          } catch (IOException e) {
+            throw new IllegalStateException(e);
+          }
+        });
+        thread.start();
+        threads.add(thread);
+      }
+      for (Thread thread : threads) {
+        thread.join();
+      }
+
+      List<String> expected = null;
+      for (ChatTestClient receiver : receivers) {
+        List<String> order = new ArrayList<>();
+        long lastId = 0;
+        while (order.size() < SENDERS * MESSAGE_COUNT) {
+          JSONObject message = receiver.receive();
+          Assertions.assertNotNull(message);
+          if (JsonMessage.typeOf(message) == JsonMessage.MESSAGE) {
+            Assertions.assertEquals(lastId + 1, JsonMessage.getId(message));
+            lastId = JsonMessage.getId(message);
+            order.add(JsonMessage.getNickname(message) + ": " + JsonMessage.getContent(message));
+          }
+        }
+        if (expected == null) {
+          expected = order;
+        }
+        Assertions.assertEquals(expected, order);
+      }
+    } finally {
+      for (ChatTestClient client : senders) {
+        client.close();
+      }
+      for (ChatTestClient client : receivers) {
+        client.close();
+      }
+    }
+  }
+
+  @Test
+  public void handleMessage_whenPostedToRoom_numbersRoomMessagesWithOtherMessages()
+      throws IOException {
+    ChatTestClient receiver = new ChatTestClient();
+    ChatTestClient sender = new ChatTestClient();
+    try {
+      for (ChatTestClient client : List.of(receiver, sender)) {
+        client.send(JsonMessage.login(client == sender ? "Sender" : "Receiver"));
+        Assertions.assertEquals(JsonMessage.LOGIN_SUCCESS, JsonMessage.typeOf(client.receive()));
+        client.send(JsonMessage.joinRoom("lunch"));
+      }
+      sender.send(JsonMessage.postMessage("first"));
+      sender.send(JsonMessage.postRoomMessage("lunch", "second"));
+      sender.send(JsonMessage.postMessage("third"));
+
+      List<Long> ids = new ArrayList<>();
+      while (ids.size() < 3) {
+        JSONObject message = receiver.receive();
+        Assertions.assertNotNull(message);
+        if (JsonMessage.typeOf(message) == JsonMessage.MESSAGE
+            || JsonMessage.typeOf(message) == JsonMessage.ROOM_MESSAGE) {
+          ids.add(JsonMessage.getId(message));
+        }
+      }
+      Assertions.assertEquals(List.of(1L, 2L, 3L), ids);
+    } finally {
+      sender.close();
+      receiver.close();
+    }
+  }
+}
@@ -0,0 +1,64 @@
+package chat.server;
+
+import java.io.IOException;
+import org.json.JSONObject;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Integration test for clients that stop reading their messages.
+ */
+public class SlowConsumerIntegrationTest {
+
+  private static final int MESSAGE_COUNT = 500;
+  private static final String LARGE_CONTENT = "x".repeat(64 * 1024);
+
+  private ServerNetworkConnection serverConnection;
+  private Thread thread;
+
+  /**
+   * BeforeEach setUp.
+   *
+   * @throws IOException IOException
+   */
+  @BeforeEach
+  public void setUp() throws IOException {
+    serverConnection = new ServerNetworkConnection(new ServerConfig()
+        .setOutboundQueueCapacity(4)
+        .setSlowConsumerPolicy(SlowConsumerPolicy.DISCONNECT)
+        .setHistoryCapacity(0));
+    thread = new Thread(serverConnection::start);
+    thread.start();
+  }
+
+  @AfterEach
+  public void tearDown() throws IOException {
+    serverConnection.stop();
+  }
+
+  @Test
+  public void broadcast_whenRecipientStopsReading_disconnectsRecipient()
+      throws IOException, InterruptedException {
+    ChatTestClient slowClient = new ChatTestClient();
+    ChatTestClient sender = new ChatTestClient();
+    try {
+      slowClient.send(JsonMessage.login("SlowUser"));
+      Thread.sleep(100);
+      sender.send(JsonMessage.login("Sender"));
+      Assertions.assertEquals(JsonMessage.LOGIN_SUCCESS, JsonMessage.typeOf(sender.receive()));
+
+      for (int i = 0; i < MESSAGE_COUNT; i++) {
+        sender.send(JsonMessage.postMessage(LARGE_CONTENT));
+      }
+
+      JSONObject message = sender.receive();
+      Assertions.assertEquals(JsonMessage.USER_LEFT, JsonMessage.typeOf(message));
+      Assertions.assertEquals("SlowUser", JsonMessage.getNickname(message));
+    } finally {
+      slowClient.close();
+      sender.close();
+    }
+  }
+}
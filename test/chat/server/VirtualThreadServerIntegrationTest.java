@@ -0,0 +1,14 @@
+package chat.server;
+
+import java.io.IOException;
+
+/**
+ * Chat Server Integration Test against the server with one virtual thread per connection.
+ */
+public class VirtualThreadServerIntegrationTest extends ChatServerIntegrationTest {
+
+  @Override
+  protected ServerNetworkConnection createServerConnection() throws IOException {
+    return new ServerNetworkConnection(new ServerConfig().setMode(ServerMode.VIRTUAL));
+  }
+}
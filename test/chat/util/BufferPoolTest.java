@@ -0,0 +1,49 @@
+package chat.util;
+
+import java.nio.ByteBuffer;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests of the {@link BufferPool}.
+ */
+public class BufferPoolTest {
+
+  @Test
+  public void acquire_whenReleasedBefore_reusesBufferOfSameClass() {
+    BufferPool pool = new BufferPool(1024, 8192, 64 * 1024);
+
+    ByteBuffer first = pool.acquire(1500);
+    Assertions.assertTrue(first.isDirect());
+    Assertions.assertEquals(2048, first.capacity());
+    Assertions.assertEquals(2048, pool.getBytesInUse());
+    first.put((byte) 1);
+    pool.release(first);
+    Assertions.assertEquals(0, pool.getBytesInUse());
+    Assertions.assertEquals(2048, pool.getBytesPooled());
+
+    ByteBuffer second = pool.acquire(2048);
+    Assertions.assertSame(first, second);
+    Assertions.assertEquals(0, second.position());
+    Assertions.assertNotSame(second, pool.acquire(100));
+    Assertions.assertEquals(3, pool.getAcquisitions());
+    Assertions.assertEquals(2, pool.getMisses());
+    Assertions.assertThrows(IllegalArgumentException.class, () -> pool.acquire(8193));
+  }
+
+  @Test
+  public void release_whenClassFull_dropsBuffer() {
+    BufferPool pool = new BufferPool(1024, 1024, 2048);
+    ByteBuffer[] buffers = new ByteBuffer[3];
+    for (int i = 0; i < buffers.length; i++) {
+      buffers[i] = pool.acquire(1024);
+    }
+
+    for (ByteBuffer buffer : buffers) {
+      pool.release(buffer);
+    }
+
+    Assertions.assertEquals(2048, pool.getBytesPooled());
+    Assertions.assertEquals(0, pool.getBytesInUse());
+  }
+}
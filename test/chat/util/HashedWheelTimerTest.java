@@ -0,0 +1,57 @@
+package chat.util;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests of the {@link HashedWheelTimer}.
+ */
+public class HashedWheelTimerTest {
+
+  private final HashedWheelTimer timer = new HashedWheelTimer("test-timer", 10,
+      TimeUnit.MILLISECONDS, 8);
+
+  @AfterEach
+  public void tearDown() {
+    timer.stop();
+  }
+
+  @Test
+  public void schedule_whenBeyondOneRevolution_runsAfterDelay() throws InterruptedException {
+    CountDownLatch fired = new CountDownLatch(1);
+    long start = System.nanoTime();
+
+    timer.schedule(fired::countDown, 250, TimeUnit.MILLISECONDS);
+
+    Assertions.assertTrue(fired.await(2, TimeUnit.SECONDS));
+    long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    Assertions.assertTrue(elapsedMillis >= 250, "fired after " + elapsedMillis + " ms");
+  }
+
+  @Test
+  public void schedule_whenManyTimeouts_runsEachOnce() throws InterruptedException {
+    CountDownLatch fired = new CountDownLatch(10_000);
+
+    for (int i = 0; i < 10_000; i++) {
+      timer.schedule(fired::countDown, i % 100, TimeUnit.MILLISECONDS);
+    }
+
+    Assertions.assertTrue(fired.await(2, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void cancel_preventsTask() throws InterruptedException {
+    AtomicBoolean ran = new AtomicBoolean();
+    CountDownLatch later = new CountDownLatch(1);
+
+    timer.schedule(() -> ran.set(true), 50, TimeUnit.MILLISECONDS).cancel();
+    timer.schedule(later::countDown, 100, TimeUnit.MILLISECONDS);
+
+    Assertions.assertTrue(later.await(2, TimeUnit.SECONDS));
+    Assertions.assertFalse(ran.get());
+  }
+}
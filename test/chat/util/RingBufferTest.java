@@ -0,0 +1,47 @@
+package chat.util;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests of the {@link RingBuffer}.
+ */
+public class RingBufferTest {
+
+  @Test
+  public void claim_whenFull_failsUntilSlotReleased() {
+    RingBuffer<StringBuilder> ring = new RingBuffer<>(3, StringBuilder::new);
+    Assertions.assertEquals(4, ring.capacity());
+
+    for (int i = 0; i < 4; i++) {
+      long sequence = ring.claim();
+      ring.get(sequence).setLength(0);
+      ring.get(sequence).append(i);
+      ring.publish(sequence);
+    }
+    Assertions.assertEquals(-1, ring.claim());
+
+    long first = ring.next();
+    Assertions.assertEquals("0", ring.get(first).toString());
+    ring.release(first);
+    long reused = ring.claim();
+    Assertions.assertEquals(4, reused);
+    Assertions.assertSame(ring.get(first), ring.get(reused));
+  }
+
+  @Test
+  public void next_whenClaimedButNotPublished_waitsInOrder() {
+    RingBuffer<StringBuilder> ring = new RingBuffer<>(8, StringBuilder::new);
+    long first = ring.claim();
+    long second = ring.claim();
+    ring.publish(second);
+
+    Assertions.assertEquals(-1, ring.next());
+    ring.publish(first);
+    Assertions.assertEquals(first, ring.next());
+    ring.release(first);
+    Assertions.assertEquals(second, ring.next());
+    ring.release(second);
+    Assertions.assertTrue(ring.isEmpty());
+  }
+}